@@ -0,0 +1,183 @@
+package jenatest;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/*
+ * Minimal benchmark harness: warmup iterations, then timed iterations of a
+ * benchmark, reporting throughput, latency percentiles, allocation rate and
+ * GC activity. Allocation is measured per thread with
+ * com.sun.management.ThreadMXBean, so benchmarks should do their work on the
+ * calling thread (work done on pool threads shows up in time but not in
+ * allocation); on a JVM without it, allocation is reported as n/a.
+ */
+public class BenchmarkRunner {
+
+    private static final Logger LOGGER =
+            LogManager.getLogger(BenchmarkRunner.class);
+
+    /*
+     * One benchmark scenario. setUp() builds the fixture for a given size and
+     * is not timed; run() is one timed invocation and returns the number of
+     * items (triples, records...) it processed.
+     */
+    public interface Benchmark {
+
+        String getName();
+
+        void setUp(int size) throws Exception;
+
+        long run() throws Exception;
+
+        default void tearDown() throws Exception {
+        }
+    }
+
+    public static class Result {
+
+        public final String name;
+        public final int size;
+        public final int iterations;
+        public final double opsPerSec;
+        public final double itemsPerSec;
+        public final double p50Ms;
+        public final double p90Ms;
+        public final double p99Ms;
+        public final double maxMs;
+        // NaN when the JVM doesn't count allocation
+        public final double allocMbPerSec;
+        public final double allocBytesPerOp;
+        public final long gcCount;
+        public final long gcMs;
+
+        Result(String name, int size, long[] nanos, long items, long allocated,
+                long gcCount, long gcMs) {
+            this.name = name;
+            this.size = size;
+            this.iterations = nanos.length;
+            long total = 0;
+            for (long n : nanos) {
+                total += n;
+            }
+            long[] sorted = nanos.clone();
+            Arrays.sort(sorted);
+            double secs = total / 1e9;
+            this.opsPerSec = iterations / secs;
+            this.itemsPerSec = items / secs;
+            this.p50Ms = percentile(sorted, 0.50);
+            this.p90Ms = percentile(sorted, 0.90);
+            this.p99Ms = percentile(sorted, 0.99);
+            this.maxMs = sorted[sorted.length - 1] / 1e6;
+            this.allocMbPerSec = allocated < 0 ? Double.NaN
+                    : allocated / secs / (1024 * 1024);
+            this.allocBytesPerOp = allocated < 0 ? Double.NaN
+                    : allocated / (double) iterations;
+            this.gcCount = gcCount;
+            this.gcMs = gcMs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-28s %9d %6d %11.1f %13.0f %9.3f %9.3f %9.3f "
+                    + "%9.3f %10s %13s %5d %7d",
+                    name, size, iterations, opsPerSec, itemsPerSec,
+                    p50Ms, p90Ms, p99Ms, maxMs, format("%.1f", allocMbPerSec),
+                    format("%.0f", allocBytesPerOp), gcCount, gcMs);
+        }
+
+        private static String format(String format, double value) {
+            return Double.isNaN(value) ? "n/a" : String.format(format, value);
+        }
+
+        public static String header() {
+            return String.format("%-28s %9s %6s %11s %13s %9s %9s %9s %9s "
+                    + "%10s %13s %5s %7s",
+                    "benchmark", "size", "iters", "ops/s", "items/s",
+                    "p50 ms", "p90 ms", "p99 ms", "max ms", "alloc MB/s",
+                    "alloc B/op", "gc", "gc ms");
+        }
+
+        private static double percentile(long[] sorted, double p) {
+            int i = (int) Math.ceil(p * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(i, sorted.length - 1))] / 1e6;
+        }
+    }
+
+    private final int warmupIterations;
+    private final int iterations;
+    private final long minMeasureNanos;
+
+    public BenchmarkRunner(int warmupIterations, int iterations,
+            long minMeasureMillis) {
+        this.warmupIterations = warmupIterations;
+        this.iterations = iterations;
+        this.minMeasureNanos = minMeasureMillis * 1000000;
+    }
+
+    /*
+     * Runs at least the configured number of iterations, and keeps going
+     * until the minimum measurement time has passed, so fast operations
+     * get enough samples for the percentiles to mean something.
+     */
+    public Result run(Benchmark benchmark, int size) throws Exception {
+
+        benchmark.setUp(size);
+        try {
+            for (int i = 0; i < warmupIterations; i++) {
+                benchmark.run();
+            }
+            System.gc();
+
+            long gcCountBefore = gcCount();
+            long gcTimeBefore = gcTime();
+            long allocBefore = Metrics.Allocation.currentThread();
+
+            long[] nanos = new long[Math.max(iterations, 16)];
+            int n = 0;
+            long items = 0;
+            long elapsed = 0;
+            while (n < iterations || elapsed < minMeasureNanos) {
+                long start = System.nanoTime();
+                items += benchmark.run();
+                long took = System.nanoTime() - start;
+                if (n == nanos.length) {
+                    nanos = Arrays.copyOf(nanos, n * 2);
+                }
+                nanos[n++] = took;
+                elapsed += took;
+            }
+
+            long allocated = allocBefore < 0 ? -1
+                    : Metrics.Allocation.currentThread() - allocBefore;
+            Result result = new Result(benchmark.getName(), size,
+                    Arrays.copyOf(nanos, n), items, allocated,
+                    gcCount() - gcCountBefore, gcTime() - gcTimeBefore);
+            LOGGER.info(result);
+            return result;
+        } finally {
+            benchmark.tearDown();
+        }
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc :
+                ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc :
+                ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return time;
+    }
+}
@@ -0,0 +1,898 @@
+package jenatest;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.io.FileUtils;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.QueryExecutionFactory;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.query.ReadWrite;
+import org.apache.jena.rdf.model.InfModel;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.rdf.model.StmtIterator;
+import org.apache.jena.reasoner.ReasonerRegistry;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFFormat;
+import org.apache.jena.riot.system.StreamRDFLib;
+import org.apache.jena.sparql.graph.GraphFactory;
+import org.apache.jena.tdb.TDBFactory;
+import org.apache.jena.util.ResourceUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/*
+ * Benchmarks for the scenarios in Main, each parameterized by graph size
+ * (in triples) over synthetic data stamped out from rdf/data/102063.nt.
+ *
+ * Usage: Benchmarks [-s sizes] [-w warmup] [-i iterations] [-t millis]
+ *                   [scenario-prefix ...]
+ *
+ * e.g. "Benchmarks -s 1000,100000 dedup iterate" runs the dedup-* and
+ * iterate-* benchmarks at two sizes.
+ */
+public class Benchmarks {
+
+    private static final Logger LOGGER = LogManager.getLogger(Benchmarks.class);
+
+    private static final String DEFAULT_SIZES = "1000,10000,100000";
+
+    public static void main(String[] args) throws Exception {
+
+        Options options = new Options();
+        options.addOption("s", "sizes", true,
+                "comma-separated graph sizes in triples (default "
+                        + DEFAULT_SIZES + ")");
+        options.addOption("w", "warmup", true, "warmup iterations (default 3)");
+        options.addOption("i", "iterations", true,
+                "minimum measured iterations (default 10)");
+        options.addOption("t", "time", true,
+                "minimum measurement time in ms (default 1000)");
+        options.addOption("h", "help", false, "print this help");
+
+        CommandLine cmd;
+        try {
+            cmd = new DefaultParser().parse(options, args);
+        } catch (ParseException e) {
+            LOGGER.error(e.getMessage());
+            new HelpFormatter().printHelp("Benchmarks [scenario ...]", options);
+            return;
+        }
+        if (cmd.hasOption("h")) {
+            new HelpFormatter().printHelp("Benchmarks [scenario ...]", options);
+            return;
+        }
+
+        BenchmarkRunner runner = new BenchmarkRunner(
+                Integer.parseInt(cmd.getOptionValue("w", "3")),
+                Integer.parseInt(cmd.getOptionValue("i", "10")),
+                Long.parseLong(cmd.getOptionValue("t", "1000")));
+        List<Integer> sizes = new ArrayList<Integer>();
+        for (String size : cmd.getOptionValue("s", DEFAULT_SIZES).split(",")) {
+            sizes.add(Integer.parseInt(size.trim()));
+        }
+
+        List<BenchmarkRunner.Result> results =
+                new ArrayList<BenchmarkRunner.Result>();
+        for (BenchmarkRunner.Benchmark benchmark : all()) {
+            if (!selected(benchmark.getName(), cmd.getArgs())) {
+                continue;
+            }
+            for (int size : sizes) {
+                results.add(runner.run(benchmark, size));
+            }
+        }
+
+        LOGGER.info(BenchmarkRunner.Result.header());
+        for (BenchmarkRunner.Result result : results) {
+            LOGGER.info(result);
+        }
+    }
+
+    public static List<BenchmarkRunner.Benchmark> all() {
+        List<BenchmarkRunner.Benchmark> all =
+                new ArrayList<BenchmarkRunner.Benchmark>();
+        all.add(new DedupModel());
+        all.add(new DedupStream());
+        all.add(new HopRiot());
+        all.add(new Hop("nt"));
+        all.add(new Hop("trdf"));
+        for (int threads : new int[] { 0, 1, 2, 4 }) {
+            all.add(new ParseNTriples(threads));
+        }
+        all.add(new JsonLd(false));
+        all.add(new JsonLd(true));
+        all.add(new ExtractConstruct());
+        all.add(new ExtractDescribe());
+        all.add(new InferOwl());
+        all.add(new InferClosure());
+        all.add(new RenameResourceUtils());
+        all.add(new RenameMigration());
+        all.add(new DeltaModel());
+        all.add(new DeltaTdb());
+        all.add(new IterateToList());
+        all.add(new IterateForEachRemaining());
+        all.add(new IterateStream(false));
+        all.add(new IterateStream(true));
+        all.add(new LoadDefault());
+        all.add(new LoadOffHeap());
+        for (int readers : new int[] { 1, 2, 4, 8 }) {
+            all.add(new MixedReadWrite(false, readers));
+            all.add(new MixedReadWrite(true, readers));
+        }
+        all.add(new ParseFormats());
+        return all;
+    }
+
+    private static boolean selected(String name, String[] prefixes) {
+        if (prefixes.length == 0) {
+            return true;
+        }
+        for (String prefix : prefixes) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private abstract static class Scenario implements BenchmarkRunner.Benchmark {
+
+        private final String name;
+        protected SyntheticData synth;
+        protected Graph graph;
+        protected int records;
+        private int next;
+
+        Scenario(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void setUp(int size) throws Exception {
+            synth = new SyntheticData();
+            graph = synth.generateTriples(size);
+            records = graph.size() / synth.getTriplesPerRecord();
+        }
+
+        /*
+         * Cycles through the records so successive invocations don't all hit
+         * the same one.
+         */
+        protected String nextRecord() {
+            next = (next + 7919) % records;
+            return SyntheticData.recordIri(next);
+        }
+
+        protected Model copy() {
+            Graph copy = GraphFactory.createDefaultGraph();
+            graph.find(Node.ANY, Node.ANY, Node.ANY).forEachRemaining(copy::add);
+            return ModelFactory.createModelForGraph(copy);
+        }
+    }
+
+    /*
+     * N-Triples input with every tenth triple repeated.
+     */
+    private abstract static class DedupScenario extends Scenario {
+
+        protected File infile;
+        protected File outfile;
+
+        DedupScenario(String name) {
+            super(name);
+        }
+
+        @Override
+        public void setUp(int size) throws Exception {
+            super.setUp(size);
+            infile = File.createTempFile("bench-in-", ".nt");
+            outfile = File.createTempFile("bench-out-", ".nt");
+            try (OutputStream out = new FileOutputStream(infile)) {
+                RDFDataMgr.write(out, graph, RDFFormat.NTRIPLES);
+            }
+            List<String> lines = Files.readAllLines(infile.toPath());
+            try (BufferedWriter out = Files.newBufferedWriter(infile.toPath(),
+                    StandardCharsets.UTF_8,
+                    StandardOpenOption.APPEND)) {
+                for (int i = 0; i < lines.size(); i += 10) {
+                    out.write(lines.get(i));
+                    out.write('\n');
+                }
+            }
+        }
+
+        @Override
+        public void tearDown() {
+            infile.delete();
+            outfile.delete();
+        }
+    }
+
+    private static class DedupModel extends DedupScenario {
+
+        DedupModel() {
+            super("dedup-model");
+        }
+
+        @Override
+        public long run() throws IOException {
+            Model model = ModelFactory.createDefaultModel();
+            model.read(infile.getPath());
+            try (OutputStream out = new FileOutputStream(outfile)) {
+                RDFDataMgr.write(out, model, RDFFormat.NTRIPLES);
+            }
+            return model.size();
+        }
+    }
+
+    private static class DedupStream extends DedupScenario {
+
+        DedupStream() {
+            super("dedup-stream");
+        }
+
+        @Override
+        public long run() throws IOException {
+            return new StreamingDedup().dedup(infile.getPath(), outfile.getPath());
+        }
+    }
+
+    /*
+     * An intermediate file between two pipeline stages: the graph written
+     * out and read back into a new graph. hop-riot is RDFDataMgr.write to a
+     * FileOutputStream and Model.read, as in testModelRemovesDuplicateTriples;
+     * hop-nt and hop-trdf go through RdfFiles as N-Triples and RDF Thrift.
+     */
+    private static class HopRiot extends Scenario {
+
+        private File file;
+
+        HopRiot() {
+            super("hop-riot");
+        }
+
+        @Override
+        public void setUp(int size) throws Exception {
+            super.setUp(size);
+            file = File.createTempFile("bench-hop-", ".nt");
+        }
+
+        @Override
+        public long run() throws IOException {
+            try (OutputStream out = new FileOutputStream(file)) {
+                RDFDataMgr.write(out, graph, RDFFormat.NTRIPLES);
+            }
+            Model model = ModelFactory.createDefaultModel();
+            model.read(file.getPath());
+            return model.size();
+        }
+
+        @Override
+        public void tearDown() {
+            file.delete();
+        }
+    }
+
+    private static class Hop extends Scenario {
+
+        private final String extension;
+        private File file;
+
+        Hop(String extension) {
+            super("hop-" + extension);
+            this.extension = extension;
+        }
+
+        @Override
+        public void setUp(int size) throws Exception {
+            super.setUp(size);
+            file = File.createTempFile("bench-hop-", "." + extension);
+        }
+
+        @Override
+        public long run() throws IOException {
+            RdfFiles.write(graph, file.getPath());
+            Graph target = GraphFactory.createDefaultGraph();
+            RdfFiles.read(target, file.getPath());
+            return target.size();
+        }
+
+        @Override
+        public void tearDown() {
+            file.delete();
+        }
+    }
+
+    /*
+     * Loading one N-Triples file into a graph: nt-riot is Model.read, as
+     * in testModelRemovesDuplicateTriples; nt-parallel-N is
+     * ParallelNTriples on N threads.
+     */
+    private static class ParseNTriples extends Scenario {
+
+        private final int threads;
+        private File file;
+
+        ParseNTriples(int threads) {
+            super(threads == 0 ? "nt-riot" : "nt-parallel-" + threads);
+            this.threads = threads;
+        }
+
+        @Override
+        public void setUp(int size) throws Exception {
+            super.setUp(size);
+            file = File.createTempFile("bench-nt-", ".nt");
+            RdfFiles.write(graph, file.getPath());
+        }
+
+        @Override
+        public long run() throws IOException {
+            if (threads == 0) {
+                Model model = ModelFactory.createDefaultModel();
+                model.read(file.getPath());
+                return model.size();
+            }
+            Graph target = GraphFactory.createDefaultGraph();
+            new ParallelNTriples(threads).load(file.getPath(), target);
+            return target.size();
+        }
+
+        @Override
+        public void tearDown() {
+            file.delete();
+        }
+    }
+
+    /*
+     * Reading the graph from JSON-LD as Jena's writer produces it (compact,
+     * context inline, @graph). jsonld-riot is Model.read through
+     * jsonld-java; jsonld-stream is JsonLdStreamParser.
+     */
+    private static class JsonLd extends Scenario {
+
+        private final boolean stream;
+        private File file;
+
+        JsonLd(boolean stream) {
+            super(stream ? "jsonld-stream" : "jsonld-riot");
+            this.stream = stream;
+        }
+
+        @Override
+        public void setUp(int size) throws Exception {
+            super.setUp(size);
+            file = File.createTempFile("bench-jsonld-", ".jsonld");
+            try (OutputStream out = new FileOutputStream(file)) {
+                RDFDataMgr.write(out, graph, RDFFormat.JSONLD);
+            }
+        }
+
+        @Override
+        public long run() throws IOException {
+            if (stream) {
+                Graph target = GraphFactory.createDefaultGraph();
+                new JsonLdStreamParser().parse(file.getPath(),
+                        StreamRDFLib.graph(target));
+                return target.size();
+            }
+            Model model = ModelFactory.createDefaultModel();
+            model.read(file.getPath());
+            return model.size();
+        }
+
+        @Override
+        public void tearDown() {
+            file.delete();
+        }
+    }
+
+    private static class ExtractConstruct extends Scenario {
+
+        private Model model;
+
+        ExtractConstruct() {
+            super("extract-construct");
+        }
+
+        @Override
+        public void setUp(int size) throws Exception {
+            super.setUp(size);
+            model = ModelFactory.createModelForGraph(graph);
+        }
+
+        @Override
+        public long run() {
+            String iri = nextRecord();
+            Query query = QueryFactory.create("CONSTRUCT { ?s ?p ?o } WHERE { "
+                    + "?s ?p ?o FILTER (?s = <" + iri + "> || ?o = <" + iri
+                    + ">) }");
+            QueryExecution qexec = QueryExecutionFactory.create(query, model);
+            return qexec.execConstruct().size();
+        }
+    }
+
+    private static class ExtractDescribe extends Scenario {
+
+        private ResourceDescriber describer;
+
+        ExtractDescribe() {
+            super("extract-describe");
+        }
+
+        @Override
+        public void setUp(int size) throws Exception {
+            super.setUp(size);
+            describer = new ResourceDescriber(graph, 0);
+        }
+
+        @Override
+        public long run() {
+            return describer.describe(nextRecord()).size();
+        }
+    }
+
+    private static class InferOwl extends Scenario {
+
+        private Model ontology;
+        private Model data;
+
+        InferOwl() {
+            super("infer-owl");
+        }
+
+        @Override
+        public void setUp(int size) throws Exception {
+            super.setUp(size);
+            ontology = OntologyCache.getDefault().createOntModel(
+                    "http://bibframe.org/vocab/");
+            data = ModelFactory.createModelForGraph(graph);
+        }
+
+        @Override
+        public long run() {
+            InfModel infModel = ModelFactory.createInfModel(
+                    ReasonerRegistry.getOWLReasoner(), ontology, data);
+            return infModel.size();
+        }
+    }
+
+    private static class InferClosure extends Scenario {
+
+        private HierarchyClosure closure;
+
+        InferClosure() {
+            super("infer-closure");
+        }
+
+        @Override
+        public void setUp(int size) throws Exception {
+            super.setUp(size);
+            closure = HierarchyClosure.build(OntologyCache.getDefault().load(
+                    "http://bibframe.org/vocab/"));
+        }
+
+        @Override
+        public long run() {
+            Model data = copy();
+            closure.materialize(data);
+            return data.size();
+        }
+    }
+
+    private static final int RENAMES = 100;
+
+    private static class RenameResourceUtils extends Scenario {
+
+        RenameResourceUtils() {
+            super("rename-resourceutils");
+        }
+
+        @Override
+        public long run() {
+            Model model = copy();
+            for (int i = 0; i < RENAMES && i < records; i++) {
+                ResourceUtils.renameResource(
+                        model.getResource(SyntheticData.recordIri(i)),
+                        SyntheticData.recordIri(i) + "-renamed");
+            }
+            return model.size();
+        }
+    }
+
+    private static class RenameMigration extends Scenario {
+
+        private VocabularyMigration migration;
+
+        RenameMigration() {
+            super("rename-migration");
+        }
+
+        @Override
+        public void setUp(int size) throws Exception {
+            super.setUp(size);
+            migration = new VocabularyMigration();
+            for (int i = 0; i < RENAMES && i < records; i++) {
+                migration.rename(SyntheticData.recordIri(i),
+                        SyntheticData.recordIri(i) + "-renamed");
+            }
+        }
+
+        @Override
+        public long run() {
+            Model model = copy();
+            migration.apply(model);
+            return model.size();
+        }
+    }
+
+    /*
+     * Delta of 10% of the graph: retract the first tenth of the records and
+     * assert as many new ones, then undo it, so every invocation starts from
+     * the same state.
+     */
+    private static class DeltaModel extends Scenario {
+
+        private Model model;
+        private Model assertions;
+        private Model retractions;
+
+        DeltaModel() {
+            super("delta-model");
+        }
+
+        @Override
+        public void setUp(int size) throws Exception {
+            super.setUp(size);
+            model = ModelFactory.createModelForGraph(graph);
+            int delta = Math.max(1, records / 10);
+            retractions = ModelFactory.createModelForGraph(synth.generate(delta));
+            assertions = ModelFactory.createDefaultModel();
+            for (int i = 0; i < delta; i++) {
+                synth.addRecord(assertions.getGraph(), records + i);
+            }
+        }
+
+        @Override
+        public long run() {
+            model.remove(retractions);
+            model.add(assertions);
+            model.remove(assertions);
+            model.add(retractions);
+            return 2 * (assertions.size() + retractions.size());
+        }
+    }
+
+    private static class DeltaTdb extends Scenario {
+
+        private File dir;
+        private File changeset;
+        private Dataset dataset;
+        private ChangesetApplier applier;
+
+        DeltaTdb() {
+            super("delta-tdb");
+        }
+
+        @Override
+        public void setUp(int size) throws Exception {
+            super.setUp(size);
+            dir = Files.createTempDirectory("bench-tdb").toFile();
+            dataset = TDBFactory.createDataset(dir.getPath());
+            dataset.begin(ReadWrite.WRITE);
+            graph.find(Node.ANY, Node.ANY, Node.ANY).forEachRemaining(
+                    dataset.asDatasetGraph().getDefaultGraph()::add);
+            dataset.commit();
+            dataset.end();
+
+            int delta = Math.max(1, records / 10);
+            Model retractions = ModelFactory.createModelForGraph(
+                    synth.generate(delta));
+            Model assertions = ModelFactory.createDefaultModel();
+            for (int i = 0; i < delta; i++) {
+                synth.addRecord(assertions.getGraph(), records + i);
+            }
+            changeset = File.createTempFile("bench-", ".rdfp");
+            try (OutputStream out = new FileOutputStream(changeset)) {
+                ChangesetApplier.write(assertions, retractions, out);
+                ChangesetApplier.write(retractions, assertions, out);
+            }
+            applier = new ChangesetApplier(dataset);
+        }
+
+        @Override
+        public long run() throws IOException {
+            applier.clearCheckpoint(changeset.getPath());
+            return applier.apply(changeset.getPath());
+        }
+
+        @Override
+        public void tearDown() throws IOException {
+            TDBFactory.release(dataset);
+            FileUtils.deleteDirectory(dir);
+            changeset.delete();
+        }
+    }
+
+    private static class IterateToList extends Scenario {
+
+        private Model model;
+
+        IterateToList() {
+            super("iterate-tolist");
+        }
+
+        @Override
+        public void setUp(int size) throws Exception {
+            super.setUp(size);
+            model = ModelFactory.createModelForGraph(graph);
+        }
+
+        @Override
+        public long run() {
+            List<Statement> list = model.listStatements().toList();
+            return list.size();
+        }
+    }
+
+    private static class IterateForEachRemaining extends Scenario {
+
+        private Model model;
+
+        IterateForEachRemaining() {
+            super("iterate-foreachremaining");
+        }
+
+        @Override
+        public void setUp(int size) throws Exception {
+            super.setUp(size);
+            model = ModelFactory.createModelForGraph(graph);
+        }
+
+        @Override
+        public long run() {
+            StmtIterator it = model.listStatements();
+            List<Statement> list = new ArrayList<Statement>();
+            it.forEachRemaining(list::add);
+            return list.size();
+        }
+    }
+
+    /*
+     * The same statements as a stream split by subject, sequential or
+     * parallel, with no intermediate list.
+     */
+    private static class IterateStream extends Scenario {
+
+        private final boolean parallel;
+        private Model model;
+
+        IterateStream(boolean parallel) {
+            super(parallel ? "iterate-parallelstream" : "iterate-stream");
+            this.parallel = parallel;
+        }
+
+        @Override
+        public void setUp(int size) throws Exception {
+            super.setUp(size);
+            model = ModelFactory.createModelForGraph(graph);
+        }
+
+        @Override
+        public long run() {
+            return GraphStreams.stream(model, parallel).count();
+        }
+    }
+
+    /*
+     * Loading a graph from the synthetic data, then a lookup by subject and
+     * one by predicate and object, as record extraction does.
+     */
+    private abstract static class LoadScenario extends Scenario {
+
+        LoadScenario(String name) {
+            super(name);
+        }
+
+        protected abstract Graph createGraph();
+
+        @Override
+        public long run() {
+            Graph target = createGraph();
+            graph.find(Node.ANY, Node.ANY, Node.ANY).forEachRemaining(target::add);
+            Node record = NodeFactory.createURI(nextRecord());
+            long found = target.find(record, Node.ANY, Node.ANY).toList().size();
+            Triple t = target.find(record, Node.ANY, Node.ANY).next();
+            found += target.find(Node.ANY, t.getPredicate(), t.getObject())
+                    .toList().size();
+            found += target.size();
+            target.close();
+            return found;
+        }
+    }
+
+    private static class LoadDefault extends LoadScenario {
+
+        LoadDefault() {
+            super("load-default");
+        }
+
+        @Override
+        protected Graph createGraph() {
+            return GraphFactory.createDefaultGraph();
+        }
+    }
+
+    private static class LoadOffHeap extends LoadScenario {
+
+        LoadOffHeap() {
+            super("load-offheap");
+        }
+
+        @Override
+        protected Graph createGraph() {
+            return new OffHeapGraph();
+        }
+    }
+
+    /*
+     * Reader threads extracting records (a find by subject and a contains
+     * check) while the calling thread commits delta batches: a default
+     * graph behind a read-write lock, where a batch holds the write lock
+     * for its whole length, against a SnapshotGraph, where readers take a
+     * snapshot and never wait. Items are lookups plus changed triples.
+     * Allocation is only counted for the writer.
+     */
+    private static class MixedReadWrite extends Scenario {
+
+        private static final int LOOKUPS = 2000;
+        private static final int BATCHES = 10;
+
+        private final boolean snapshot;
+        private final int readers;
+        private SnapshotGraph snapshotGraph;
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private List<Triple> retractions;
+        private List<Triple> assertions;
+
+        MixedReadWrite(boolean snapshot, int readers) {
+            super((snapshot ? "mixed-snapshot-" : "mixed-locked-") + readers);
+            this.snapshot = snapshot;
+            this.readers = readers;
+        }
+
+        @Override
+        public void setUp(int size) throws Exception {
+            super.setUp(size);
+            if (snapshot) {
+                snapshotGraph = new SnapshotGraph();
+                snapshotGraph.commit(new ArrayList<Triple>(),
+                        graph.find(Node.ANY, Node.ANY, Node.ANY).toList());
+            }
+            int delta = Math.max(1, records / 100);
+            retractions = synth.generate(delta)
+                    .find(Node.ANY, Node.ANY, Node.ANY).toList();
+            Graph added = GraphFactory.createDefaultGraph();
+            for (int i = 0; i < delta; i++) {
+                synth.addRecord(added, records + i);
+            }
+            assertions = added.find(Node.ANY, Node.ANY, Node.ANY).toList();
+        }
+
+        @Override
+        public long run() throws InterruptedException {
+            Thread[] threads = new Thread[readers];
+            for (int r = 0; r < readers; r++) {
+                int seed = r;
+                threads[r] = new Thread(() -> read(seed));
+                threads[r].start();
+            }
+            for (int b = 0; b < BATCHES; b++) {
+                List<Triple> remove = b % 2 == 0 ? retractions : assertions;
+                List<Triple> add = b % 2 == 0 ? assertions : retractions;
+                if (snapshot) {
+                    snapshotGraph.commit(remove, add);
+                } else {
+                    lock.writeLock().lock();
+                    try {
+                        remove.forEach(graph::delete);
+                        add.forEach(graph::add);
+                    } finally {
+                        lock.writeLock().unlock();
+                    }
+                }
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            return (long) readers * LOOKUPS
+                    + BATCHES * (long) (retractions.size() + assertions.size());
+        }
+
+        private void read(int seed) {
+            Node type = NodeFactory.createURI(
+                    "http://www.w3.org/1999/02/22-rdf-syntax-ns#type");
+            for (int i = 0; i < LOOKUPS; i++) {
+                Node record = NodeFactory.createURI(SyntheticData.recordIri(
+                        (seed * 7919 + i * 104729) % records));
+                if (snapshot) {
+                    lookup(snapshotGraph.snapshot(), record, type);
+                } else {
+                    lock.readLock().lock();
+                    try {
+                        lookup(graph, record, type);
+                    } finally {
+                        lock.readLock().unlock();
+                    }
+                }
+            }
+        }
+
+        private static int lookup(Graph g, Node record, Node type) {
+            int found = g.find(record, Node.ANY, Node.ANY).toList().size();
+            return g.contains(record, type, Node.ANY) ? found + 1 : found;
+        }
+    }
+
+    /*
+     * The testEmptyObject files, in all four syntaxes. The size parameter
+     * doesn't apply; the JSON-LD file is known to fail and counts as zero.
+     */
+    private static class ParseFormats implements BenchmarkRunner.Benchmark {
+
+        private File[] files;
+
+        @Override
+        public String getName() {
+            return "parse-formats";
+        }
+
+        @Override
+        public void setUp(int size) {
+            files = new File("test-input/empty-object").listFiles();
+        }
+
+        @Override
+        public long run() {
+            long triples = 0;
+            for (File file : files) {
+                Model model = ModelFactory.createDefaultModel();
+                try {
+                    model.read(file.getPath());
+                } catch (RuntimeException e) {
+                    continue;
+                }
+                triples += model.size();
+            }
+            return triples;
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package jenatest;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.jena.atlas.lib.IRILib;
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.ReadWrite;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.riot.RiotException;
+import org.apache.jena.riot.out.NodeFmtLib;
+import org.apache.jena.riot.tokens.Token;
+import org.apache.jena.riot.tokens.TokenType;
+import org.apache.jena.riot.tokens.Tokenizer;
+import org.apache.jena.riot.tokens.TokenizerFactory;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/*
+ * Applies a changeset file of assertions and retractions to a dataset,
+ * instead of building in-memory assertions/retractions models and calling
+ * model.add() / model.remove().
+ *
+ * The file is in RDF Patch style, one change per line:
+ *
+ *   A <s> <p> <o> .
+ *   D <s> <p> <o> .
+ *
+ * with full IRIs (no prefixes). Records are streamed from the file and
+ * applied in batches, each in its own write transaction. Within a batch the
+ * records are grouped by subject so that index updates touch neighbouring
+ * entries; the sort is stable, so changes to the same triple keep their
+ * order. The number of records applied is stored in the dataset in the same
+ * transaction as the batch, so an interrupted run resumes after the last
+ * committed batch. The checkpoint also records the file's size and
+ * modification time, so a new file under the same name - a nightly feed,
+ * say - starts from the beginning instead of skipping records.
+ */
+public class ChangesetApplier {
+
+    private static final Logger LOGGER =
+            LogManager.getLogger(ChangesetApplier.class);
+
+    public static final int DEFAULT_BATCH_SIZE = 100000;
+
+    // Named graph that holds the resume checkpoints.
+    public static final String CHECKPOINT_GRAPH =
+            "urn:jenatest:changeset:checkpoints";
+    private static final Node APPLIED =
+            NodeFactory.createURI("urn:jenatest:changeset:applied");
+    private static final Node IDENTITY =
+            NodeFactory.createURI("urn:jenatest:changeset:identity");
+
+    private final Dataset dataset;
+    private final int batchSize;
+
+    private long added;
+    private long deleted;
+
+    public ChangesetApplier(Dataset dataset) {
+        this(dataset, DEFAULT_BATCH_SIZE);
+    }
+
+    public ChangesetApplier(Dataset dataset, int batchSize) {
+        this.dataset = dataset;
+        this.batchSize = batchSize;
+    }
+
+    /*
+     * Applies the changeset to the default graph, skipping records already
+     * applied by an earlier, interrupted run. Returns the number of records
+     * applied by this call. Timed as the "delta" Metrics operation.
+     */
+    public long apply(String changesetFile) throws IOException {
+        try (Metrics.Timer timer = Metrics.start("delta")) {
+            long applied = applyRecords(changesetFile);
+            timer.triples(added + deleted);
+            if (timer.isEnabled()) {
+                timer.bytes(new File(changesetFile).length());
+            }
+            return applied;
+        }
+    }
+
+    private long applyRecords(String changesetFile) throws IOException {
+
+        Node checkpoint = checkpointNode(changesetFile);
+        Node identity = identity(changesetFile);
+        long done = readCheckpoint(changesetFile, checkpoint, identity);
+        if (done > 0) {
+            LOGGER.info("Resuming " + changesetFile + " after " + done
+                    + " records");
+        }
+
+        added = 0;
+        deleted = 0;
+        long applied = 0;
+        long position = 0;
+        List<Change> batch = new ArrayList<Change>(batchSize);
+        try (InputStream in = new BufferedInputStream(
+                new FileInputStream(changesetFile), 1 << 16)) {
+            Tokenizer tokenizer = TokenizerFactory.makeTokenizerUTF8(in);
+            Change change;
+            while ((change = next(tokenizer)) != null) {
+                position++;
+                if (position <= done) {
+                    continue;
+                }
+                batch.add(change);
+                if (batch.size() == batchSize) {
+                    commit(batch, checkpoint, identity, position);
+                    applied += batch.size();
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                commit(batch, checkpoint, identity, position);
+                applied += batch.size();
+            }
+        }
+        LOGGER.info("Applied " + applied + " records from " + changesetFile
+                + ": " + added + " added, " + deleted + " deleted");
+        return applied;
+    }
+
+    /*
+     * Forgets how much of the changeset has been applied, so the next call
+     * to apply() starts from the beginning.
+     */
+    public void clearCheckpoint(String changesetFile) {
+        dataset.begin(ReadWrite.WRITE);
+        try {
+            Graph checkpoints = dataset.asDatasetGraph().getGraph(
+                    NodeFactory.createURI(CHECKPOINT_GRAPH));
+            checkpoints.remove(checkpointNode(changesetFile), APPLIED, Node.ANY);
+            checkpoints.remove(checkpointNode(changesetFile), IDENTITY, Node.ANY);
+            dataset.commit();
+        } finally {
+            dataset.end();
+        }
+    }
+
+    public long getAdded() {
+        return added;
+    }
+
+    public long getDeleted() {
+        return deleted;
+    }
+
+    /*
+     * Writes retractions then assertions as a changeset, matching the order
+     * in which testAssertionsAndRetractions applies them.
+     */
+    public static void write(Model assertions, Model retractions,
+            OutputStream out) {
+        PrintWriter writer = new PrintWriter(
+                new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        if (retractions != null) {
+            writeRecords(writer, "D", retractions.getGraph());
+        }
+        if (assertions != null) {
+            writeRecords(writer, "A", assertions.getGraph());
+        }
+        writer.flush();
+    }
+
+    private static void writeRecords(PrintWriter writer, String op,
+            Graph graph) {
+        ExtendedIterator<Triple> it = graph.find(Node.ANY, Node.ANY, Node.ANY);
+        try {
+            while (it.hasNext()) {
+                writer.print(op);
+                writer.print(' ');
+                writer.print(NodeFmtLib.str(it.next()));
+                writer.print(" .\n");
+            }
+        } finally {
+            it.close();
+        }
+    }
+
+    private void commit(List<Change> batch, Node checkpoint, Node identity,
+            long position) {
+
+        Collections.sort(batch, BY_SUBJECT);
+        dataset.begin(ReadWrite.WRITE);
+        try {
+            Graph graph = dataset.asDatasetGraph().getDefaultGraph();
+            for (Change change : batch) {
+                if (change.add) {
+                    graph.add(change.triple);
+                    added++;
+                } else {
+                    graph.delete(change.triple);
+                    deleted++;
+                }
+            }
+            Graph checkpoints = dataset.asDatasetGraph().getGraph(
+                    NodeFactory.createURI(CHECKPOINT_GRAPH));
+            checkpoints.remove(checkpoint, APPLIED, Node.ANY);
+            checkpoints.add(Triple.create(checkpoint, APPLIED,
+                    NodeFactory.createLiteral(Long.toString(position),
+                            XSDDatatype.XSDlong)));
+            checkpoints.remove(checkpoint, IDENTITY, Node.ANY);
+            checkpoints.add(Triple.create(checkpoint, IDENTITY, identity));
+            dataset.commit();
+        } finally {
+            dataset.end();
+        }
+        LOGGER.debug("Committed " + batch.size() + " records, checkpoint "
+                + position);
+    }
+
+    private static Node checkpointNode(String changesetFile) {
+        return NodeFactory.createURI("urn:jenatest:changeset:"
+                + IRILib.encodeUriComponent(changesetFile));
+    }
+
+    /*
+     * The file's size and modification time, to tell the file a checkpoint
+     * was made for from a new one under the same name.
+     */
+    private static Node identity(String changesetFile) throws IOException {
+        Path path = Paths.get(changesetFile);
+        return NodeFactory.createLiteral(Files.size(path) + ":"
+                + Files.getLastModifiedTime(path).toMillis());
+    }
+
+    /*
+     * The number of records applied, or 0 if there is no checkpoint or it
+     * was made for a different file.
+     */
+    private long readCheckpoint(String changesetFile, Node checkpoint,
+            Node identity) {
+        dataset.begin(ReadWrite.READ);
+        try {
+            Graph checkpoints = dataset.asDatasetGraph().getGraph(
+                    NodeFactory.createURI(CHECKPOINT_GRAPH));
+            ExtendedIterator<Triple> it =
+                    checkpoints.find(checkpoint, APPLIED, Node.ANY);
+            try {
+                if (!it.hasNext()) {
+                    return 0;
+                }
+                long done = Long.parseLong(
+                        it.next().getObject().getLiteralLexicalForm());
+                if (!checkpoints.contains(checkpoint, IDENTITY, identity)) {
+                    LOGGER.info(changesetFile + " has changed since its "
+                            + "checkpoint of " + done + " records: starting over");
+                    return 0;
+                }
+                return done;
+            } finally {
+                it.close();
+            }
+        } finally {
+            dataset.end();
+        }
+    }
+
+    private static Change next(Tokenizer tokenizer) {
+        if (!tokenizer.hasNext()) {
+            return null;
+        }
+        Token op = tokenizer.next();
+        boolean add;
+        if (op.isWord() && op.getImage().equals("A")) {
+            add = true;
+        } else if (op.isWord() && op.getImage().equals("D")) {
+            add = false;
+        } else {
+            throw new RiotException("Expected A or D at line "
+                    + op.getLine() + ", got " + op);
+        }
+        Node s = node(tokenizer);
+        Node p = node(tokenizer);
+        Node o = node(tokenizer);
+        if (!tokenizer.hasNext() || !tokenizer.next().hasType(TokenType.DOT)) {
+            throw new RiotException("Expected '.' after triple at line "
+                    + op.getLine());
+        }
+        return new Change(add, Triple.create(s, p, o));
+    }
+
+    private static Node node(Tokenizer tokenizer) {
+        if (!tokenizer.hasNext()) {
+            throw new RiotException("Unexpected end of changeset");
+        }
+        Token token = tokenizer.next();
+        if (!token.isNode()) {
+            throw new RiotException("Expected an RDF term at line "
+                    + token.getLine() + ", got " + token);
+        }
+        return token.asNode();
+    }
+
+    private static final Comparator<Change> BY_SUBJECT =
+            new Comparator<Change>() {
+                @Override
+                public int compare(Change c1, Change c2) {
+                    Node s1 = c1.triple.getSubject();
+                    Node s2 = c2.triple.getSubject();
+                    if (s1.equals(s2)) {
+                        return 0;
+                    }
+                    int cmp = Integer.compare(s1.hashCode(), s2.hashCode());
+                    return cmp != 0 ? cmp
+                            : s1.toString().compareTo(s2.toString());
+                }
+            };
+
+    private static class Change {
+
+        private final boolean add;
+        private final Triple triple;
+
+        Change(boolean add, Triple triple) {
+            this.add = add;
+            this.triple = triple;
+        }
+    }
+}
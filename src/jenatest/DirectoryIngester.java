@@ -0,0 +1,272 @@
+package jenatest;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/*
+ * Loads a directory of RDF files into one graph, parsing files concurrently.
+ *
+ * Each file's syntax is taken from its extension, or sniffed from its first
+ * bytes if the extension is unknown. Worker threads parse files into private
+ * buffers; the calling thread merges finished buffers into the target graph
+ * in batches, so the graph itself is only ever touched by one thread. A file
+ * that fails to parse is recorded in the report and skipped - none of its
+ * triples reach the graph - and the run carries on. The quads of N-Quads
+ * and TriG files go into the graph as triples, whatever their graph name.
+ */
+public class DirectoryIngester {
+
+    private static final Logger LOGGER =
+            LogManager.getLogger(DirectoryIngester.class);
+
+    public static final int DEFAULT_BATCH_SIZE = 10000;
+
+    private final int threads;
+    private final int batchSize;
+    private Skolemizer skolemizer;
+
+    public static class FileError {
+
+        public final File file;
+        public final String message;
+
+        FileError(File file, String message) {
+            this.file = file;
+            this.message = message;
+        }
+
+        @Override
+        public String toString() {
+            return file + ": " + message;
+        }
+    }
+
+    public static class Report {
+
+        public long files;
+        public long triples;
+        public long nanos;
+        public final List<FileError> errors = new ArrayList<FileError>();
+
+        public double filesPerSec() {
+            return files / (nanos / 1e9);
+        }
+
+        public double triplesPerSec() {
+            return triples / (nanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d files (%d failed), %d triples in %.2f s: "
+                    + "%.0f files/s, %.0f triples/s", files, errors.size(),
+                    triples, nanos / 1e9, filesPerSec(), triplesPerSec());
+        }
+    }
+
+    public DirectoryIngester() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_BATCH_SIZE);
+    }
+
+    public DirectoryIngester(int threads, int batchSize) {
+        this.threads = threads;
+        this.batchSize = batchSize;
+    }
+
+    /*
+     * Skolemizes blank nodes as files are parsed, so the same file ingested
+     * twice, or by two ingesters, gives the same triples.
+     */
+    public void setSkolemizer(Skolemizer skolemizer) {
+        this.skolemizer = skolemizer;
+    }
+
+    public Report ingest(File dir, Model target) throws IOException {
+        return ingest(dir, target.getGraph());
+    }
+
+    /*
+     * Parses every regular file under dir (recursively) into target.
+     */
+    public Report ingest(File dir, Graph target) throws IOException {
+
+        List<File> files;
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            files = paths.filter(Files::isRegularFile)
+                    .map(Path::toFile)
+                    .filter(f -> !f.getName().startsWith("."))
+                    .collect(Collectors.toList());
+        }
+        return ingest(files, target);
+    }
+
+    public Report ingest(List<File> files, Graph target) {
+
+        Report report = new Report();
+        long start = System.nanoTime();
+        // Bounded, so fast parsers can't run arbitrarily far ahead of the
+        // merge and fill the heap with buffers.
+        BlockingQueue<Parsed> done =
+                new ArrayBlockingQueue<Parsed>(Math.max(16, threads * 4));
+        ExecutorService pool = new ForkJoinPool(threads);
+        try {
+            for (File file : files) {
+                pool.execute(() -> {
+                    Parsed parsed;
+                    try {
+                        parsed = parse(file);
+                    } catch (Throwable e) {
+                        // Always hand something back, or the merge loop
+                        // would wait for this file forever.
+                        parsed = new Parsed(file);
+                        parsed.error = e.toString();
+                    }
+                    try {
+                        done.put(parsed);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+
+            List<Triple> batch = new ArrayList<Triple>(batchSize);
+            for (int i = 0; i < files.size(); i++) {
+                Parsed parsed = done.take();
+                report.files++;
+                if (parsed.error != null) {
+                    report.errors.add(new FileError(parsed.file, parsed.error));
+                    LOGGER.warn("Skipped " + parsed.file + ": " + parsed.error);
+                    continue;
+                }
+                batch.addAll(parsed.triples);
+                if (batch.size() >= batchSize) {
+                    report.triples += merge(batch, target);
+                }
+            }
+            report.triples += merge(batch, target);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            pool.shutdownNow();
+        }
+        report.nanos = System.nanoTime() - start;
+        LOGGER.info(report);
+        return report;
+    }
+
+    /*
+     * Syntax of a file: from the extension if known, otherwise guessed from
+     * the first non-blank characters. Returns null if nothing matches.
+     */
+    public static Lang detectLang(File file) {
+        Lang lang = RDFLanguages.filenameToLang(file.getName());
+        if (lang != null) {
+            return lang;
+        }
+        byte[] head = new byte[512];
+        int n;
+        try (InputStream in = new BufferedInputStream(
+                Files.newInputStream(file.toPath()))) {
+            n = in.read(head);
+        } catch (IOException e) {
+            return null;
+        }
+        if (n <= 0) {
+            return null;
+        }
+        String text = new String(head, 0, n, StandardCharsets.UTF_8).trim();
+        if (text.startsWith("{") || text.startsWith("[")) {
+            return Lang.JSONLD;
+        } else if (text.startsWith("<?xml") || text.startsWith("<rdf:RDF")) {
+            return Lang.RDFXML;
+        } else if (text.startsWith("@prefix") || text.startsWith("@base")
+                || text.startsWith("PREFIX") || text.startsWith("BASE")) {
+            return Lang.TURTLE;
+        } else if (text.startsWith("<") || text.startsWith("_:")
+                || text.startsWith("#")) {
+            // Turtle is a superset of N-Triples, so this is safe either way.
+            return Lang.TURTLE;
+        }
+        return null;
+    }
+
+    private static long merge(List<Triple> batch, Graph target) {
+        long n = batch.size();
+        for (Triple t : batch) {
+            target.add(t);
+        }
+        batch.clear();
+        return n;
+    }
+
+    private Parsed parse(File file) {
+        Parsed parsed = new Parsed(file);
+        Lang lang = detectLang(file);
+        if (lang == null) {
+            parsed.error = "Unrecognized RDF syntax";
+            return parsed;
+        }
+        StreamRDF dest = new StreamRDFBase() {
+            @Override
+            public void triple(Triple triple) {
+                parsed.triples.add(triple);
+            }
+
+            @Override
+            public void quad(Quad quad) {
+                parsed.triples.add(quad.asTriple());
+            }
+        };
+        try {
+            if (skolemizer == null) {
+                RdfFiles.parse(file.getPath(), lang, dest);
+            } else {
+                skolemizer.parse(file.getPath(), lang, file.getPath(), dest);
+            }
+        } catch (IOException | RuntimeException e) {
+            // RiotException for most syntaxes; JSON-LD errors come wrapped
+            // in other runtime exceptions.
+            parsed.triples = Collections.emptyList();
+            parsed.error = e.getMessage() != null
+                    ? e.getMessage() : e.getClass().getName();
+        }
+        return parsed;
+    }
+
+    private static class Parsed {
+
+        private final File file;
+        private List<Triple> triples = new ArrayList<Triple>();
+        private String error;
+
+        Parsed(File file) {
+            this.file = file;
+        }
+    }
+}
@@ -0,0 +1,372 @@
+package jenatest;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.util.iterator.ExtendedIterator;
+
+/*
+ * A 64-bit hash of a graph's contents that ignores blank node labels, for
+ * cheap "same data?" and "has this changed since last time?" checks in place
+ * of Model.isIsomorphicWith(), which can take a very long time on graphs
+ * with many blank nodes.
+ *
+ * The hash is the sum of the hashes of the graph's triples, so it doesn't
+ * depend on order, and a triple can be added or taken away in O(1). Blank
+ * nodes are hashed by what surrounds them rather than by label: starting
+ * from one colour for all of them, each round recolours a blank node from
+ * its own colour and the predicates and colours of its neighbours, until the
+ * rounds stop telling any more nodes apart (colour refinement). That is done
+ * separately for each component - blank nodes joined by triples, with the
+ * triples that have them as subject or object - and only re-run, at the
+ * next get(), for the components that changed. A record's blank nodes
+ * are usually a component of their own, so an edit costs about the size of
+ * the record, not of every blank node triple in the graph.
+ *
+ * Different fingerprints mean the graphs are not isomorphic. Equal
+ * fingerprints mean they are, except for hash collisions and graphs whose
+ * blank nodes colour refinement can't tell apart (e.g. one ring of six blank
+ * nodes vs. two rings of three) - both vanishingly rare in real data.
+ *
+ * Use of(graph) for a one-off hash, or attach() an instance to keep it up to
+ * date as the graph changes. Not thread-safe.
+ */
+public class GraphFingerprint extends TripleChangeListener {
+
+    private static final long URI_SEED = 0x9e3779b97f4a7c15L;
+    private static final long LITERAL_SEED = 0xc2b2ae3d27d4eb4fL;
+    private static final long BLANK_SEED = 0x165667b19e3779f9L;
+    private static final long OUT = 0x27d4eb2f165667c5L;
+    private static final long IN = 0x85ebca77c2b2ae63L;
+
+    // Triples with no blank subject or object, summed as they come and go
+    private long groundSum;
+    private final Map<Node, Component> components = new HashMap<Node, Component>();
+    // Sum of the components' sums, as of their last hashing
+    private long blankSum;
+    private final Set<Component> dirty =
+            Collections.newSetFromMap(new IdentityHashMap<Component, Boolean>());
+
+    /*
+     * Connected blank nodes and the triples with them as subject or object.
+     */
+    private static class Component {
+
+        final Set<Node> nodes = new HashSet<Node>();
+        final Set<Triple> triples = new HashSet<Triple>();
+        long sum;
+    }
+
+    public static long of(Graph graph) {
+        GraphFingerprint fingerprint = new GraphFingerprint();
+        fingerprint.resync(graph);
+        return fingerprint.get();
+    }
+
+    public static long of(Model model) {
+        return of(model.getGraph());
+    }
+
+    public long get() {
+        for (Component changed : dirty) {
+            // A deletion may have split it, or emptied it.
+            blankSum -= changed.sum;
+            for (Node node : changed.nodes) {
+                components.remove(node);
+            }
+            for (Component part : split(changed.triples)) {
+                for (Node node : part.nodes) {
+                    components.put(node, part);
+                }
+                part.sum = hashBlankTriples(part.triples);
+                blankSum += part.sum;
+            }
+        }
+        dirty.clear();
+        return groundSum + blankSum;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%016x", get());
+    }
+
+    @Override
+    protected void tripleAdded(Triple t) {
+        if (!hasBlank(t)) {
+            groundSum += hash(t);
+            return;
+        }
+        Component component = join(component(t.getSubject()),
+                component(t.getObject()));
+        if (component == null) {
+            component = new Component();
+        }
+        component.triples.add(t);
+        for (Node node : new Node[] { t.getSubject(), t.getObject() }) {
+            if (node.isBlank()) {
+                component.nodes.add(node);
+                components.put(node, component);
+            }
+        }
+        dirty.add(component);
+    }
+
+    @Override
+    protected void tripleDeleted(Triple t) {
+        if (!hasBlank(t)) {
+            groundSum -= hash(t);
+            return;
+        }
+        Component component = component(t.getSubject().isBlank()
+                ? t.getSubject() : t.getObject());
+        if (component != null && component.triples.remove(t)) {
+            dirty.add(component);
+        }
+    }
+
+    @Override
+    protected void resync(Graph graph) {
+        groundSum = 0;
+        blankSum = 0;
+        components.clear();
+        dirty.clear();
+        ExtendedIterator<Triple> it = graph.find(Node.ANY, Node.ANY, Node.ANY);
+        try {
+            while (it.hasNext()) {
+                tripleAdded(it.next());
+            }
+        } finally {
+            it.close();
+        }
+    }
+
+    private Component component(Node node) {
+        return node.isBlank() ? components.get(node) : null;
+    }
+
+    /*
+     * One component with the contents of both, either of which may be
+     * null. The smaller one is merged into the larger.
+     */
+    private Component join(Component a, Component b) {
+        if (a == null || a == b) {
+            return b == null ? a : b;
+        } else if (b == null) {
+            return a;
+        } else if (a.triples.size() < b.triples.size()) {
+            Component swap = a;
+            a = b;
+            b = swap;
+        }
+        a.triples.addAll(b.triples);
+        a.nodes.addAll(b.nodes);
+        for (Node node : b.nodes) {
+            components.put(node, a);
+        }
+        blankSum -= b.sum;
+        dirty.remove(b);
+        return a;
+    }
+
+    /*
+     * The connected components of the triples.
+     */
+    private static List<Component> split(Set<Triple> triples) {
+        Map<Node, List<Triple>> byNode = new HashMap<Node, List<Triple>>();
+        for (Triple t : triples) {
+            for (Node node : new Node[] { t.getSubject(), t.getObject() }) {
+                if (node.isBlank()) {
+                    byNode.computeIfAbsent(node, k -> new ArrayList<Triple>())
+                            .add(t);
+                }
+            }
+        }
+        List<Component> parts = new ArrayList<Component>();
+        Set<Node> seen = new HashSet<Node>();
+        for (Node start : byNode.keySet()) {
+            if (!seen.add(start)) {
+                continue;
+            }
+            Component part = new Component();
+            Deque<Node> pending = new ArrayDeque<Node>();
+            pending.push(start);
+            while (!pending.isEmpty()) {
+                Node node = pending.pop();
+                part.nodes.add(node);
+                for (Triple t : byNode.get(node)) {
+                    part.triples.add(t);
+                    for (Node next : new Node[] { t.getSubject(), t.getObject() }) {
+                        if (next.isBlank() && seen.add(next)) {
+                            pending.push(next);
+                        }
+                    }
+                }
+            }
+            parts.add(part);
+        }
+        return parts;
+    }
+
+    /*
+     * Colour refinement over the blank node triples, then the sum of their
+     * hashes using the final colours in place of the blank nodes.
+     */
+    private static long hashBlankTriples(Collection<Triple> blankTriples) {
+
+        int n = blankTriples.size();
+        Map<Node, Integer> ids = new HashMap<Node, Integer>();
+        // Per triple: subject and object index into colour[], or -1 if not
+        // blank; predicate hash; hash of the non-blank subject / object.
+        int[] subjects = new int[n];
+        int[] objects = new int[n];
+        long[] predicates = new long[n];
+        long[] subjectHashes = new long[n];
+        long[] objectHashes = new long[n];
+        int i = 0;
+        for (Triple t : blankTriples) {
+            subjects[i] = id(ids, t.getSubject());
+            objects[i] = id(ids, t.getObject());
+            predicates[i] = hash(t.getPredicate());
+            subjectHashes[i] = subjects[i] < 0 ? hash(t.getSubject()) : 0;
+            objectHashes[i] = objects[i] < 0 ? hash(t.getObject()) : 0;
+            i++;
+        }
+
+        int nodes = ids.size();
+        long[] colour = new long[nodes];
+        Arrays.fill(colour, BLANK_SEED);
+        int classes = 1;
+        // Each useful round splits at least one class, so this always ends
+        // well before the limit.
+        for (int round = 0; round <= nodes; round++) {
+            long[] next = new long[nodes];
+            for (i = 0; i < n; i++) {
+                long s = subjects[i] < 0 ? subjectHashes[i] : colour[subjects[i]];
+                long o = objects[i] < 0 ? objectHashes[i] : colour[objects[i]];
+                if (subjects[i] >= 0) {
+                    next[subjects[i]] += mix((predicates[i] ^ OUT) + mix(o));
+                }
+                if (objects[i] >= 0) {
+                    next[objects[i]] += mix((predicates[i] ^ IN) + mix(s));
+                }
+            }
+            for (int b = 0; b < nodes; b++) {
+                next[b] = mix(colour[b] * 31 + next[b]);
+            }
+            colour = next;
+            int count = distinct(colour);
+            if (count == classes) {
+                break;
+            }
+            classes = count;
+        }
+
+        long sum = 0;
+        for (i = 0; i < n; i++) {
+            long s = subjects[i] < 0 ? subjectHashes[i] : colour[subjects[i]];
+            long o = objects[i] < 0 ? objectHashes[i] : colour[objects[i]];
+            sum += hash(s, predicates[i], o);
+        }
+        return sum;
+    }
+
+    private static int id(Map<Node, Integer> ids, Node node) {
+        if (!node.isBlank()) {
+            return -1;
+        }
+        Integer id = ids.get(node);
+        if (id == null) {
+            id = ids.size();
+            ids.put(node, id);
+        }
+        return id;
+    }
+
+    private static int distinct(long[] values) {
+        if (values.length == 0) {
+            return 0;
+        }
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int count = 1;
+        for (int i = 1; i < sorted.length; i++) {
+            if (sorted[i] != sorted[i - 1]) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /*
+     * A blank predicate is hashed like any other blank node, and can't be
+     * told apart by colour, so only the subject and object count.
+     */
+    private static boolean hasBlank(Triple t) {
+        return t.getSubject().isBlank() || t.getObject().isBlank();
+    }
+
+    private static long hash(Triple t) {
+        return hash(hash(t.getSubject()), hash(t.getPredicate()),
+                hash(t.getObject()));
+    }
+
+    // Not symmetric, so (a p b) and (b p a) hash differently.
+    private static long hash(long s, long p, long o) {
+        return mix(mix(mix(s) * 31 + p) * 31 + o);
+    }
+
+    /*
+     * Hash of a node's term: IRI, or lexical form + language + datatype.
+     * All blank nodes hash the same here; they're told apart by colour.
+     */
+    private static long hash(Node node) {
+        if (node.isURI()) {
+            return mix(hash(URI_SEED, node.getURI()));
+        } else if (node.isLiteral()) {
+            long h = hash(LITERAL_SEED, node.getLiteralLexicalForm());
+            h = hash(h * 31, node.getLiteralLanguage().toLowerCase(Locale.ROOT));
+            return mix(hash(h * 31, node.getLiteralDatatypeURI()));
+        } else if (node.isBlank()) {
+            return BLANK_SEED;
+        }
+        return mix(hash(0, node.toString()));
+    }
+
+    // FNV-1a over the chars, without allocating.
+    private static long hash(long h, String s) {
+        h ^= 0xcbf29ce484222325L;
+        if (s != null) {
+            for (int i = 0; i < s.length(); i++) {
+                h ^= s.charAt(i);
+                h *= 0x100000001b3L;
+            }
+        }
+        return h;
+    }
+
+    // MurmurHash3 64-bit finalizer
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,213 @@
+package jenatest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.GraphUtil;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.jena.vocabulary.RDF;
+
+/*
+ * Copies selected triples of a graph into other graphs, working on Triples
+ * directly: newModel.add(model.listStatements(mary, null, null)) wraps
+ * every triple in a Statement, a Resource and an RDFNode only to unwrap it
+ * again, where this hands the source graph's own Triple objects straight to
+ * the target.
+ *
+ * Filters are plain Predicate<Triple>s, combined with and() / or() /
+ * negate(); the static factories below cover selection by subject,
+ * predicate, object and type. A find() pattern can be given as well, so
+ * the source's indexes narrow the scan before the filter sees anything.
+ * Triples are added to each target in batches, and triples the target
+ * already has are left out of the batch, so graph listeners see exactly
+ * what was added. fanOut() and split() fill many targets in one pass over
+ * the source.
+ */
+public class GraphProjection {
+
+    public static final int BATCH_SIZE = 1024;
+
+    private final Graph source;
+
+    public GraphProjection(Graph source) {
+        this.source = source;
+    }
+
+    public GraphProjection(Model source) {
+        this(source.getGraph());
+    }
+
+    /*
+     * Copies the triples accepted by the filter (null for all) into target.
+     * Returns the number of triples that were new to the target.
+     */
+    public long copy(Predicate<Triple> filter, Graph target) {
+        return copy(Node.ANY, Node.ANY, Node.ANY, filter, target);
+    }
+
+    /*
+     * Copies the triples matching the pattern and accepted by the filter.
+     */
+    public long copy(Node s, Node p, Node o, Predicate<Triple> filter,
+            Graph target) {
+        Batch batch = new Batch(target);
+        ExtendedIterator<Triple> it = find(s, p, o);
+        try {
+            while (it.hasNext()) {
+                Triple t = it.next();
+                if (filter == null || filter.test(t)) {
+                    batch.add(t);
+                }
+            }
+        } finally {
+            it.close();
+        }
+        return batch.flush();
+    }
+
+    /*
+     * Copies each triple into every target whose filter accepts it, in a
+     * single pass. Returns the total number of triples added.
+     */
+    public long fanOut(Map<Graph, Predicate<Triple>> targets) {
+        List<Batch> batches = new ArrayList<Batch>(targets.size());
+        List<Predicate<Triple>> filters =
+                new ArrayList<Predicate<Triple>>(targets.size());
+        for (Map.Entry<Graph, Predicate<Triple>> entry : targets.entrySet()) {
+            batches.add(new Batch(entry.getKey()));
+            filters.add(entry.getValue());
+        }
+        ExtendedIterator<Triple> it = find(Node.ANY, Node.ANY, Node.ANY);
+        try {
+            while (it.hasNext()) {
+                Triple t = it.next();
+                for (int i = 0; i < filters.size(); i++) {
+                    if (filters.get(i) == null || filters.get(i).test(t)) {
+                        batches.get(i).add(t);
+                    }
+                }
+            }
+        } finally {
+            it.close();
+        }
+        long added = 0;
+        for (Batch batch : batches) {
+            added += batch.flush();
+        }
+        return added;
+    }
+
+    /*
+     * Sends each triple to the graph the router picks for it (or nowhere,
+     * if it returns null), e.g. splitting a catalog into per-record graphs
+     * by subject. Returns the total number of triples added.
+     */
+    public long split(Function<Triple, Graph> router) {
+        Map<Graph, Batch> batches = new IdentityHashMap<Graph, Batch>();
+        ExtendedIterator<Triple> it = find(Node.ANY, Node.ANY, Node.ANY);
+        try {
+            while (it.hasNext()) {
+                Triple t = it.next();
+                Graph target = router.apply(t);
+                if (target != null) {
+                    batches.computeIfAbsent(target, Batch::new).add(t);
+                }
+            }
+        } finally {
+            it.close();
+        }
+        long added = 0;
+        for (Batch batch : batches.values()) {
+            added += batch.flush();
+        }
+        return added;
+    }
+
+    public static Predicate<Triple> subject(Node... subjects) {
+        Set<Node> set = new HashSet<Node>(Arrays.asList(subjects));
+        return t -> set.contains(t.getSubject());
+    }
+
+    public static Predicate<Triple> predicate(Node... predicates) {
+        Set<Node> set = new HashSet<Node>(Arrays.asList(predicates));
+        return t -> set.contains(t.getPredicate());
+    }
+
+    public static Predicate<Triple> object(Node... objects) {
+        Set<Node> set = new HashSet<Node>(Arrays.asList(objects));
+        return t -> set.contains(t.getObject());
+    }
+
+    public static Predicate<Triple> literalObject() {
+        return t -> t.getObject().isLiteral();
+    }
+
+    /*
+     * Triples whose subject has one of these rdf:types in the source graph.
+     * Each subject is looked up once.
+     */
+    public Predicate<Triple> subjectTyped(Node... types) {
+        Map<Node, Boolean> typed = new HashMap<Node, Boolean>();
+        return t -> typed.computeIfAbsent(t.getSubject(), s -> {
+            for (Node type : types) {
+                if (source.contains(s, RDF.type.asNode(), type)) {
+                    return true;
+                }
+            }
+            return false;
+        });
+    }
+
+    private ExtendedIterator<Triple> find(Node s, Node p, Node o) {
+        return source.find(s == null ? Node.ANY : s, p == null ? Node.ANY : p,
+                o == null ? Node.ANY : o);
+    }
+
+    /*
+     * Triples on their way to one target graph.
+     */
+    private class Batch {
+
+        private final Graph target;
+        private final List<Triple> triples = new ArrayList<Triple>();
+        private long added;
+
+        Batch(Graph target) {
+            if (target == source) {
+                throw new IllegalArgumentException(
+                        "Can't copy a graph into itself");
+            }
+            this.target = target;
+        }
+
+        void add(Triple t) {
+            if (!target.contains(t)) {
+                triples.add(t);
+                if (triples.size() == BATCH_SIZE) {
+                    flush();
+                }
+            }
+        }
+
+        long flush() {
+            if (!triples.isEmpty()) {
+                GraphUtil.add(target, triples);
+                added += triples.size();
+                triples.clear();
+            }
+            return added;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package jenatest;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.GraphUtil;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.mem.GraphMemBase;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.util.iterator.ExtendedIterator;
+
+/*
+ * java.util.stream access to the triples of a graph or the statements of a
+ * model, including parallel streams.
+ *
+ * A StmtIterator can only be walked from start to end by one thread, so
+ * spreading the work over threads used to mean toList() first. Here the
+ * graph is split by subject instead: the spliterator holds the graph's
+ * subjects (for the default in-memory graph, straight from its subject
+ * index, which is a hash table, so ranges of it are subject hash buckets)
+ * and each split takes a range of them and finds their triples as it goes.
+ * Only the subject nodes are collected; triples are never copied into a
+ * list. OffHeapGraph is split by position in its sorted SPO array.
+ *
+ * As with any concurrent reading, the graph must not be changed while a
+ * stream is open.
+ */
+public class GraphStreams {
+
+    // Don't split ranges smaller than this many subjects
+    private static final int MIN_SPLIT = 64;
+
+    public static Stream<Triple> stream(Graph graph, boolean parallel) {
+        return StreamSupport.stream(spliterator(graph), parallel);
+    }
+
+    public static Stream<Triple> stream(Graph graph) {
+        return stream(graph, false);
+    }
+
+    public static Stream<Triple> parallelStream(Graph graph) {
+        return stream(graph, true);
+    }
+
+    public static Stream<Statement> stream(Model model, boolean parallel) {
+        return stream(model.getGraph(), parallel).map(model::asStatement);
+    }
+
+    public static Stream<Statement> stream(Model model) {
+        return stream(model, false);
+    }
+
+    public static Stream<Statement> parallelStream(Model model) {
+        return stream(model, true);
+    }
+
+    public static Spliterator<Triple> spliterator(Graph graph) {
+        if (graph instanceof OffHeapGraph) {
+            return ((OffHeapGraph) graph).spliterator();
+        }
+        ExtendedIterator<Node> it = graph instanceof GraphMemBase
+                ? ((GraphMemBase) graph).store.listSubjects()
+                : GraphUtil.listSubjects(graph, Node.ANY, Node.ANY);
+        Node[] subjects;
+        try {
+            subjects = it.toList().toArray(new Node[0]);
+        } finally {
+            it.close();
+        }
+        return new BySubject(graph, subjects, 0, subjects.length,
+                graph.size());
+    }
+
+    private static class BySubject implements Spliterator<Triple> {
+
+        private final Graph graph;
+        private final Node[] subjects;
+        private int at;
+        private final int end;
+        private long estimate;
+        private ExtendedIterator<Triple> current;
+
+        BySubject(Graph graph, Node[] subjects, int at, int end, long estimate) {
+            this.graph = graph;
+            this.subjects = subjects;
+            this.at = at;
+            this.end = end;
+            this.estimate = estimate;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Triple> action) {
+            while (current == null || !current.hasNext()) {
+                if (current != null) {
+                    current.close();
+                    current = null;
+                }
+                if (at >= end) {
+                    return false;
+                }
+                current = graph.find(subjects[at++], Node.ANY, Node.ANY);
+            }
+            action.accept(current.next());
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Triple> action) {
+            if (current != null) {
+                current.forEachRemaining(action);
+                current.close();
+                current = null;
+            }
+            while (at < end) {
+                ExtendedIterator<Triple> it =
+                        graph.find(subjects[at++], Node.ANY, Node.ANY);
+                try {
+                    it.forEachRemaining(action);
+                } finally {
+                    it.close();
+                }
+            }
+        }
+
+        /*
+         * Hands off the first half of the subjects not yet started on.
+         */
+        @Override
+        public Spliterator<Triple> trySplit() {
+            int remaining = end - at;
+            if (remaining < MIN_SPLIT * 2) {
+                return null;
+            }
+            int mid = at + remaining / 2;
+            long half = estimate / 2;
+            BySubject first = new BySubject(graph, subjects, at, mid, half);
+            at = mid;
+            estimate -= half;
+            return first;
+        }
+
+        @Override
+        public long estimateSize() {
+            return estimate;
+        }
+
+        @Override
+        public int characteristics() {
+            return DISTINCT | NONNULL;
+        }
+    }
+}
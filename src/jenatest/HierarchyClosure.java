@@ -0,0 +1,479 @@
+package jenatest;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.jena.vocabulary.OWL;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+
+/*
+ * Precomputed rdfs:subClassOf / rdfs:subPropertyOf closure of an ontology,
+ * with the domain and range of each property folded in. Classes and
+ * properties are numbered and each closure row is a BitSet, so a type check
+ * is a couple of array lookups and a bit test.
+ *
+ * This covers the part of OWL entailment we actually rely on for record
+ * data: rdf:type from subclasses, domains and ranges, super-property
+ * triples, and owl:inverseOf. owl:equivalentClass and
+ * owl:equivalentProperty are treated as subclass/subproperty in both
+ * directions. Anything else (restrictions, sameAs, cardinality) is not
+ * inferred. hasType() answers true for rdfs:Resource and owl:Thing, but
+ * materialize() doesn't add those types to every resource.
+ */
+public class HierarchyClosure {
+
+    private static final Node TYPE = RDF.type.asNode();
+    private static final Node RESOURCE = RDFS.Resource.asNode();
+    private static final Node THING = OWL.Thing.asNode();
+
+    private final Map<Node, Integer> classIds = new HashMap<Node, Integer>();
+    private final List<Node> classes = new ArrayList<Node>();
+    private final Map<Node, Integer> propertyIds = new HashMap<Node, Integer>();
+    private final List<Node> properties = new ArrayList<Node>();
+
+    // Reflexive-transitive closures, indexed by class/property id.
+    private BitSet[] superClasses;
+    private BitSet[] superProperties;
+    // Closed domain and range classes of each property, including those
+    // inherited from its super-properties.
+    private BitSet[] domains;
+    private BitSet[] ranges;
+    // Inverse properties of each property (not closed).
+    private BitSet[] inverses;
+    // Every class the subject and the object of a triple with the property
+    // get, through any chain of super-properties and inverses.
+    private BitSet[] subjectTypes;
+    private BitSet[] objectTypes;
+
+    private HierarchyClosure() {
+    }
+
+    public static HierarchyClosure build(Model... ontologies) {
+        Graph[] graphs = new Graph[ontologies.length];
+        for (int i = 0; i < ontologies.length; i++) {
+            graphs[i] = ontologies[i].getGraph();
+        }
+        return build(graphs);
+    }
+
+    public static HierarchyClosure build(Graph... ontologies) {
+
+        HierarchyClosure closure = new HierarchyClosure();
+        List<int[]> subClass = new ArrayList<int[]>();
+        List<int[]> subProperty = new ArrayList<int[]>();
+        List<int[]> domain = new ArrayList<int[]>();
+        List<int[]> range = new ArrayList<int[]>();
+        List<int[]> inverse = new ArrayList<int[]>();
+
+        for (Graph ont : ontologies) {
+            closure.collect(ont, RDFS.subClassOf, subClass, false, false);
+            closure.collect(ont, OWL.equivalentClass, subClass, false, true);
+            closure.collect(ont, RDFS.subPropertyOf, subProperty, true, false);
+            closure.collect(ont, OWL.equivalentProperty, subProperty, true, true);
+            closure.collectDomainRange(ont, RDFS.domain, domain);
+            closure.collectDomainRange(ont, RDFS.range, range);
+            closure.collectInverses(ont, inverse);
+        }
+
+        int nClasses = closure.classes.size();
+        int nProperties = closure.properties.size();
+        closure.superClasses = transitiveClosure(nClasses, subClass);
+        closure.superProperties = transitiveClosure(nProperties, subProperty);
+
+        BitSet[] directDomains = edgeRows(nProperties, domain);
+        BitSet[] directRanges = edgeRows(nProperties, range);
+        closure.domains = new BitSet[nProperties];
+        closure.ranges = new BitSet[nProperties];
+        for (int p = 0; p < nProperties; p++) {
+            closure.domains[p] = closure.closeClasses(
+                    closure.superProperties[p], directDomains);
+            closure.ranges[p] = closure.closeClasses(
+                    closure.superProperties[p], directRanges);
+        }
+        closure.inverses = edgeRows(nProperties, inverse);
+        closure.subjectTypes = new BitSet[nProperties];
+        closure.objectTypes = new BitSet[nProperties];
+        for (int p = 0; p < nProperties; p++) {
+            closure.closeEnds(p);
+        }
+        return closure;
+    }
+
+    /*
+     * Follows super-properties and inverses from p the way infer() does,
+     * to the properties a triple with p ends up as with the same subject
+     * and with subject and object swapped, and takes their domains and
+     * ranges.
+     */
+    private void closeEnds(int p) {
+        BitSet same = (BitSet) superProperties[p].clone();
+        BitSet swapped = new BitSet();
+        boolean changed = true;
+        while (changed) {
+            int before = same.cardinality() + swapped.cardinality();
+            swapped.or(unionOver(unionOver(same, inverses), superProperties));
+            same.or(unionOver(unionOver(swapped, inverses), superProperties));
+            changed = same.cardinality() + swapped.cardinality() != before;
+        }
+        subjectTypes[p] = unionOver(same, domains);
+        subjectTypes[p].or(unionOver(swapped, ranges));
+        objectTypes[p] = unionOver(same, ranges);
+        objectTypes[p].or(unionOver(swapped, domains));
+    }
+
+    public int getClassCount() {
+        return classes.size();
+    }
+
+    public int getPropertyCount() {
+        return properties.size();
+    }
+
+    public boolean isSubClassOf(Node sub, Node sup) {
+        Integer s = classIds.get(sub);
+        Integer t = classIds.get(sup);
+        return s != null && t != null && superClasses[s].get(t);
+    }
+
+    public boolean isSubPropertyOf(Node sub, Node sup) {
+        Integer s = propertyIds.get(sub);
+        Integer t = propertyIds.get(sup);
+        return s != null && t != null && superProperties[s].get(t);
+    }
+
+    public List<Node> getSuperClasses(Node cls) {
+        Integer id = classIds.get(cls);
+        return id == null ? new ArrayList<Node>() : nodes(superClasses[id], classes);
+    }
+
+    public List<Node> getSuperProperties(Node prop) {
+        Integer id = propertyIds.get(prop);
+        return id == null
+                ? new ArrayList<Node>() : nodes(superProperties[id], properties);
+    }
+
+    /*
+     * Answers whether the data entails resource rdf:type cls, without
+     * materializing anything: looks at the resource's asserted types and at
+     * the domains/ranges of the properties it is used with, and of every
+     * property those triples entail through super-properties and inverses.
+     */
+    public boolean hasType(Graph data, Node resource, Node cls) {
+
+        if (cls.equals(RESOURCE) || cls.equals(THING)) {
+            return !resource.isLiteral();
+        }
+        Integer target = classIds.get(cls);
+        if (target == null) {
+            return data.contains(resource, TYPE, cls);
+        }
+        ExtendedIterator<Triple> it = data.find(resource, Node.ANY, Node.ANY);
+        try {
+            while (it.hasNext()) {
+                Triple t = it.next();
+                if (t.getPredicate().equals(TYPE)) {
+                    Integer type = classIds.get(t.getObject());
+                    if (type != null && superClasses[type].get(target)) {
+                        return true;
+                    } else if (t.getObject().equals(cls)) {
+                        return true;
+                    }
+                } else {
+                    Integer p = propertyIds.get(t.getPredicate());
+                    // A literal object has no inverse triples.
+                    if (p != null && (t.getObject().isLiteral() ? domains[p]
+                            : subjectTypes[p]).get(target)) {
+                        return true;
+                    }
+                }
+            }
+        } finally {
+            it.close();
+        }
+        if (resource.isLiteral()) {
+            return false;
+        }
+        it = data.find(Node.ANY, Node.ANY, resource);
+        try {
+            while (it.hasNext()) {
+                Integer p = propertyIds.get(it.next().getPredicate());
+                if (p != null && objectTypes[p].get(target)) {
+                    return true;
+                }
+            }
+        } finally {
+            it.close();
+        }
+        return false;
+    }
+
+    public boolean hasType(Model data, Resource resource, Resource cls) {
+        return hasType(data.getGraph(), resource.asNode(), cls.asNode());
+    }
+
+    /*
+     * Adds the entailed rdf:type, super-property and inverse triples to the
+     * model in a single forward pass. Returns the number of triples added.
+     */
+    public int materialize(Model data) {
+        return materialize(data.getGraph());
+    }
+
+    public int materialize(Graph data) {
+        try (Metrics.Timer timer = Metrics.start("infer")) {
+            int added = addEntailments(data);
+            timer.triples(added);
+            if (timer.isEnabled()) {
+                timer.size(data.size());
+            }
+            return added;
+        }
+    }
+
+    private int addEntailments(Graph data) {
+
+        List<Triple> pending = new ArrayList<Triple>();
+        ExtendedIterator<Triple> it = data.find(Node.ANY, Node.ANY, Node.ANY);
+        try {
+            while (it.hasNext()) {
+                infer(it.next(), pending);
+            }
+        } finally {
+            it.close();
+        }
+        // Inferred triples go through the rules again: an inverse triple can
+        // have its own super-properties, domain and range. Every rule output
+        // is already closed, so this terminates quickly.
+        Set<Triple> inferred = new LinkedHashSet<Triple>();
+        while (!pending.isEmpty()) {
+            Triple t = pending.remove(pending.size() - 1);
+            if (!data.contains(t) && inferred.add(t)) {
+                infer(t, pending);
+            }
+        }
+        for (Triple t : inferred) {
+            data.add(t);
+        }
+        return inferred.size();
+    }
+
+    /*
+     * Everything the rules derive from this one triple, directly or through
+     * other derived triples, not counting the triple itself. Every rule has
+     * a single data premise, so what a graph entails is exactly the union of
+     * what its triples entail one at a time.
+     */
+    public Set<Triple> entailments(Triple t) {
+        Set<Triple> derived = new LinkedHashSet<Triple>();
+        List<Triple> pending = new ArrayList<Triple>();
+        infer(t, pending);
+        while (!pending.isEmpty()) {
+            Triple d = pending.remove(pending.size() - 1);
+            if (!d.equals(t) && derived.add(d)) {
+                infer(d, pending);
+            }
+        }
+        return derived;
+    }
+
+    private void infer(Triple t, List<Triple> inferred) {
+
+        Node s = t.getSubject();
+        Node o = t.getObject();
+        if (t.getPredicate().equals(TYPE)) {
+            Integer cls = classIds.get(o);
+            if (cls != null) {
+                addTypes(s, superClasses[cls], inferred);
+            }
+            return;
+        }
+        Integer p = propertyIds.get(t.getPredicate());
+        if (p == null) {
+            return;
+        }
+        BitSet supers = superProperties[p];
+        for (int q = supers.nextSetBit(0); q >= 0; q = supers.nextSetBit(q + 1)) {
+            if (q != p) {
+                inferred.add(Triple.create(s, properties.get(q), o));
+            }
+            if (!inverses[q].isEmpty() && !o.isLiteral()) {
+                for (int r = inverses[q].nextSetBit(0); r >= 0;
+                        r = inverses[q].nextSetBit(r + 1)) {
+                    inferred.add(Triple.create(o, properties.get(r), s));
+                }
+            }
+        }
+        addTypes(s, domains[p], inferred);
+        if (!o.isLiteral()) {
+            addTypes(o, ranges[p], inferred);
+        }
+    }
+
+    private void addTypes(Node s, BitSet types, List<Triple> inferred) {
+        for (int c = types.nextSetBit(0); c >= 0; c = types.nextSetBit(c + 1)) {
+            Node cls = classes.get(c);
+            if (!cls.equals(RESOURCE) && !cls.equals(THING)) {
+                inferred.add(Triple.create(s, TYPE, cls));
+            }
+        }
+    }
+
+    private static BitSet unionOver(BitSet ids, BitSet[] rows) {
+        BitSet union = new BitSet();
+        for (int i = ids.nextSetBit(0); i >= 0; i = ids.nextSetBit(i + 1)) {
+            union.or(rows[i]);
+        }
+        return union;
+    }
+
+    private BitSet closeClasses(BitSet props, BitSet[] direct) {
+        BitSet result = new BitSet();
+        for (int q = props.nextSetBit(0); q >= 0; q = props.nextSetBit(q + 1)) {
+            BitSet cls = direct[q];
+            for (int c = cls.nextSetBit(0); c >= 0; c = cls.nextSetBit(c + 1)) {
+                result.or(superClasses[c]);
+            }
+        }
+        return result;
+    }
+
+    private void collect(Graph ont, Resource predicate, List<int[]> edges,
+            boolean isProperty, boolean symmetric) {
+        ExtendedIterator<Triple> it =
+                ont.find(Node.ANY, predicate.asNode(), Node.ANY);
+        try {
+            while (it.hasNext()) {
+                Triple t = it.next();
+                if (!t.getSubject().isURI() || !t.getObject().isURI()) {
+                    // Anonymous class expressions are out of scope.
+                    continue;
+                }
+                int sub = isProperty ? propertyId(t.getSubject())
+                        : classId(t.getSubject());
+                int sup = isProperty ? propertyId(t.getObject())
+                        : classId(t.getObject());
+                edges.add(new int[] { sub, sup });
+                if (symmetric) {
+                    edges.add(new int[] { sup, sub });
+                }
+            }
+        } finally {
+            it.close();
+        }
+    }
+
+    private void collectDomainRange(Graph ont, Resource predicate,
+            List<int[]> edges) {
+        ExtendedIterator<Triple> it =
+                ont.find(Node.ANY, predicate.asNode(), Node.ANY);
+        try {
+            while (it.hasNext()) {
+                Triple t = it.next();
+                if (t.getSubject().isURI() && t.getObject().isURI()) {
+                    edges.add(new int[] { propertyId(t.getSubject()),
+                            classId(t.getObject()) });
+                }
+            }
+        } finally {
+            it.close();
+        }
+    }
+
+    private void collectInverses(Graph ont, List<int[]> edges) {
+        ExtendedIterator<Triple> it =
+                ont.find(Node.ANY, OWL.inverseOf.asNode(), Node.ANY);
+        try {
+            while (it.hasNext()) {
+                Triple t = it.next();
+                if (t.getSubject().isURI() && t.getObject().isURI()) {
+                    int p = propertyId(t.getSubject());
+                    int q = propertyId(t.getObject());
+                    edges.add(new int[] { p, q });
+                    edges.add(new int[] { q, p });
+                }
+            }
+        } finally {
+            it.close();
+        }
+    }
+
+    private int classId(Node node) {
+        Integer id = classIds.get(node);
+        if (id == null) {
+            id = classes.size();
+            classIds.put(node, id);
+            classes.add(node);
+        }
+        return id;
+    }
+
+    private int propertyId(Node node) {
+        Integer id = propertyIds.get(node);
+        if (id == null) {
+            id = properties.size();
+            propertyIds.put(node, id);
+            properties.add(node);
+        }
+        return id;
+    }
+
+    private static BitSet[] edgeRows(int n, List<int[]> edges) {
+        BitSet[] rows = new BitSet[n];
+        for (int i = 0; i < n; i++) {
+            rows[i] = new BitSet();
+        }
+        for (int[] edge : edges) {
+            rows[edge[0]].set(edge[1]);
+        }
+        return rows;
+    }
+
+    /*
+     * Reflexive-transitive closure by repeated row unions until nothing
+     * changes. The hierarchies are shallow, so this converges in a few
+     * passes and copes with cycles from equivalence axioms.
+     */
+    private static BitSet[] transitiveClosure(int n, List<int[]> edges) {
+        BitSet[] rows = edgeRows(n, edges);
+        for (int i = 0; i < n; i++) {
+            rows[i].set(i);
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < n; i++) {
+                BitSet row = rows[i];
+                int before = row.cardinality();
+                for (int j = row.nextSetBit(0); j >= 0; j = row.nextSetBit(j + 1)) {
+                    if (j != i) {
+                        row.or(rows[j]);
+                    }
+                }
+                if (row.cardinality() != before) {
+                    changed = true;
+                }
+            }
+        }
+        return rows;
+    }
+
+    private static List<Node> nodes(BitSet ids, List<Node> table) {
+        List<Node> result = new ArrayList<Node>(ids.cardinality());
+        for (int i = ids.nextSetBit(0); i >= 0; i = ids.nextSetBit(i + 1)) {
+            result.add(table.get(i));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,138 @@
+package jenatest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.graph.compose.Union;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.sparql.graph.GraphFactory;
+import org.apache.jena.util.iterator.ExtendedIterator;
+
+/*
+ * Materialized HierarchyClosure entailments that follow the raw data as it
+ * changes, instead of an InfModel that has to be rebound and re-run from
+ * scratch after every retraction.
+ *
+ * Maintenance is by counting: every entailed triple has a count of the raw
+ * triples it is derived from. Adding a raw triple adds one to each of its
+ * entailments (HierarchyClosure.entailments()) and deleting it takes one
+ * away; an entailment is added to the inferred graph when its count goes
+ * above zero and removed when it drops back to zero. The closure's rules
+ * each have a single data premise, so counting is exact - there are no
+ * derivations that need several raw triples, and so nothing to over-delete
+ * and re-derive as DRed would. The cost of a change is the size of the
+ * changed triples' entailments, whatever the size of the graph.
+ *
+ * getModel() is the raw data plus the entailments, as one model. Adds and
+ * removes on it go to the raw data, like on an InfModel. The ontology is
+ * fixed when the closure is built; a changed ontology means a new closure
+ * and a new IncrementalInference.
+ */
+public class IncrementalInference extends TripleChangeListener {
+
+    private final HierarchyClosure closure;
+    private final Graph inferred = GraphFactory.createDefaultGraph();
+    private final Map<Triple, Integer> support = new HashMap<Triple, Integer>();
+    private Graph raw;
+
+    public IncrementalInference(HierarchyClosure closure) {
+        this.closure = closure;
+    }
+
+    /*
+     * Inference attached to the raw model, with the current entailments
+     * already computed.
+     */
+    public static IncrementalInference on(Model raw, HierarchyClosure closure) {
+        IncrementalInference inference = new IncrementalInference(closure);
+        inference.attach(raw.getGraph());
+        return inference;
+    }
+
+    @Override
+    public void attach(Graph graph) {
+        raw = graph;
+        super.attach(graph);
+    }
+
+    /*
+     * The entailed triples only. Some of them may be asserted in the raw
+     * data as well.
+     */
+    public Graph getInferredGraph() {
+        return inferred;
+    }
+
+    public Model getModel() {
+        return ModelFactory.createModelForGraph(new View(raw, inferred));
+    }
+
+    /*
+     * Number of raw triples that entail this triple.
+     */
+    public int getSupport(Triple t) {
+        Integer count = support.get(t);
+        return count == null ? 0 : count;
+    }
+
+    @Override
+    protected void tripleAdded(Triple t) {
+        for (Triple d : closure.entailments(t)) {
+            if (support.merge(d, 1, Integer::sum) == 1) {
+                inferred.add(d);
+            }
+        }
+    }
+
+    @Override
+    protected void tripleDeleted(Triple t) {
+        for (Triple d : closure.entailments(t)) {
+            if (support.computeIfPresent(d, (k, n) -> n == 1 ? null : n - 1)
+                    == null) {
+                inferred.delete(d);
+            }
+        }
+    }
+
+    @Override
+    protected void resync(Graph graph) {
+        try (Metrics.Timer timer = Metrics.start("infer")) {
+            support.clear();
+            inferred.clear();
+            ExtendedIterator<Triple> it = graph.find(Node.ANY, Node.ANY, Node.ANY);
+            try {
+                while (it.hasNext()) {
+                    tripleAdded(it.next());
+                }
+            } finally {
+                it.close();
+            }
+            timer.triples(inferred.size()).size(inferred.size());
+        }
+    }
+
+    /*
+     * Union that writes to the raw graph only: the inferred graph is
+     * changed by the counts, never directly.
+     */
+    private static class View extends Union {
+
+        View(Graph raw, Graph inferred) {
+            super(raw, inferred);
+        }
+
+        @Override
+        public void performAdd(Triple t) {
+            L.add(t);
+        }
+
+        @Override
+        public void performDelete(Triple t) {
+            L.delete(t);
+        }
+    }
+}
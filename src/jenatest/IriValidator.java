@@ -0,0 +1,628 @@
+package jenatest;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.jena.atlas.lib.IRILib;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFWrapper;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/*
+ * Checks the IRIs in triples on their way into a model, and repairs or
+ * drops the bad ones before anything is built from them.
+ *
+ * These are the problems behind the empty-object test files: "<>" in
+ * N-Triples is an empty IRI, rdf:resource="" in RDF/XML resolves to the
+ * file: IRI of the document itself, and the Turtle export has
+ * <unknown:namespace>. Also caught are IRIs with characters that can't
+ * appear in an IRI (spaces, quotes, braces...) and broken %-escapes.
+ *
+ * What happens to a triple with a bad object is chosen by its predicate,
+ * falling back to a default: keep it, drop it, %-encode the bad characters,
+ * or replace the object with a given IRI. A bad subject or predicate is
+ * %-encoded if that fixes it and dropped otherwise, whatever the object
+ * rules say. Dropped triples go to a quarantine stream or file instead of
+ * disappearing.
+ *
+ * wrap() puts the check into any RIOT parse; validate() runs it over an
+ * N-Triples file in parallel, a chunk of lines per task, without building
+ * any nodes. There, the UCHAR escapes of an IRI (a backslash and u with
+ * 4 hex digits or U with 8) are checked as the characters they stand for.
+ */
+public class IriValidator {
+
+    private static final Logger LOGGER = LogManager.getLogger(IriValidator.class);
+
+    public static final List<String> DEFAULT_SCHEMES = Arrays.asList(
+            "http", "https", "urn", "mailto", "info", "tag", "ftp");
+
+    public static final int CHUNK_LINES = 8192;
+
+    public enum Problem {
+        EMPTY, RELATIVE, UNKNOWN_SCHEME, DOCUMENT_BASE, BAD_CHARACTER,
+        BAD_ESCAPE, SYNTAX
+    }
+
+    public enum Action {
+        KEEP, DROP, ENCODE, REPLACE
+    }
+
+    private static class Rule {
+
+        private final Action action;
+        private final String replacement;
+
+        Rule(Action action, String replacement) {
+            this.action = action;
+            this.replacement = replacement;
+        }
+    }
+
+    public static class Report {
+
+        public long triples;
+        public long repaired;
+        public long quarantined;
+        public long nanos;
+        public final long[] problems = new long[Problem.values().length];
+
+        public long count(Problem problem) {
+            return problems[problem.ordinal()];
+        }
+
+        void add(Report other) {
+            triples += other.triples;
+            repaired += other.repaired;
+            quarantined += other.quarantined;
+            for (int i = 0; i < problems.length; i++) {
+                problems[i] += other.problems[i];
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(String.format(
+                    "%d triples, %d repaired, %d quarantined", triples,
+                    repaired, quarantined));
+            for (Problem problem : Problem.values()) {
+                if (count(problem) > 0) {
+                    sb.append(", ").append(problem).append(": ")
+                            .append(count(problem));
+                }
+            }
+            if (nanos > 0) {
+                sb.append(String.format(" in %.2f s", nanos / 1e9));
+            }
+            return sb.toString();
+        }
+    }
+
+    private List<String> schemes = DEFAULT_SCHEMES;
+    private Rule defaultRule = new Rule(Action.ENCODE, null);
+    private final Map<String, Rule> rules = new HashMap<String, Rule>();
+
+    /*
+     * Accept only these URI schemes (case-insensitive).
+     */
+    public IriValidator schemes(String... schemes) {
+        this.schemes = Arrays.asList(schemes);
+        return this;
+    }
+
+    /*
+     * What to do with a bad object when there's no rule for its predicate.
+     */
+    public IriValidator onBadObject(Action action) {
+        this.defaultRule = new Rule(action, null);
+        return this;
+    }
+
+    public IriValidator onBadObject(String predicate, Action action) {
+        rules.put(predicate, new Rule(action, null));
+        return this;
+    }
+
+    /*
+     * Replace a bad object of this predicate with the given IRI, e.g. the
+     * MADS scheme that an empty isMemberOfMADSScheme should have named.
+     */
+    public IriValidator replaceBadObject(String predicate, String iri) {
+        rules.put(predicate, new Rule(Action.REPLACE, iri));
+        return this;
+    }
+
+    public Problem check(String iri) {
+        return check(iri, 0, iri.length());
+    }
+
+    /*
+     * Checks iri[start, end) without allocating. Returns null if it's fine.
+     */
+    public Problem check(String iri, int start, int end) {
+        if (start == end) {
+            return Problem.EMPTY;
+        }
+        // scheme = ALPHA *( ALPHA / DIGIT / "+" / "-" / "." ) ":"
+        int colon = -1;
+        for (int i = start; i < end; i++) {
+            char c = iri.charAt(i);
+            if (c == ':') {
+                colon = i;
+                break;
+            }
+            boolean alpha = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+            if (!(alpha || (i > start && ((c >= '0' && c <= '9')
+                    || c == '+' || c == '-' || c == '.')))) {
+                break;
+            }
+        }
+        if (colon <= start) {
+            return Problem.RELATIVE;
+        }
+        boolean known = false;
+        for (String scheme : schemes) {
+            if (scheme.length() == colon - start
+                    && iri.regionMatches(true, start, scheme, 0, scheme.length())) {
+                known = true;
+                break;
+            }
+        }
+        if (!known) {
+            return Problem.UNKNOWN_SCHEME;
+        }
+        for (int i = colon + 1; i < end; i++) {
+            char c = iri.charAt(i);
+            if (isBadChar(c)) {
+                return Problem.BAD_CHARACTER;
+            }
+            if (c == '%' && (i + 2 >= end || !isHex(iri.charAt(i + 1))
+                    || !isHex(iri.charAt(i + 2)))) {
+                return Problem.BAD_ESCAPE;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * %-encodes the characters that can't be in an IRI, and '%' where it
+     * doesn't start an escape. Only fixes BAD_CHARACTER and BAD_ESCAPE.
+     */
+    public static String encode(String iri) {
+        StringBuilder sb = new StringBuilder(iri.length() + 16);
+        for (int i = 0; i < iri.length(); i++) {
+            char c = iri.charAt(i);
+            if (isBadChar(c) || (c == '%' && (i + 2 >= iri.length()
+                    || !isHex(iri.charAt(i + 1)) || !isHex(iri.charAt(i + 2))))) {
+                sb.append('%').append(Character.toUpperCase(
+                        Character.forDigit(c >> 4, 16)))
+                        .append(Character.toUpperCase(
+                                Character.forDigit(c & 0xF, 16)));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /*
+     * A stream stage that checks each triple before passing it to dest.
+     * Dropped triples go to quarantine, which may be null. base is the base
+     * IRI of the document being parsed, if any, so that a reference to ""
+     * resolved against it can be told from a real IRI.
+     */
+    public Stage wrap(StreamRDF dest, StreamRDF quarantine, String base) {
+        return new Stage(dest, quarantine, base);
+    }
+
+    /*
+     * Parses a file of any syntax through a Stage into dest.
+     */
+    public Report parse(String filename, StreamRDF dest, StreamRDF quarantine)
+            throws IOException {
+        long start = System.nanoTime();
+        String base = IRILib.filenameToIRI(filename);
+        Stage stage = wrap(dest, quarantine, base);
+        RdfFiles.parse(filename, stage);
+        stage.report.nanos = System.nanoTime() - start;
+        return stage.report;
+    }
+
+    public class Stage extends StreamRDFWrapper {
+
+        private final StreamRDF quarantine;
+        private final String base;
+        private final Report report = new Report();
+
+        Stage(StreamRDF dest, StreamRDF quarantine, String base) {
+            super(dest);
+            this.quarantine = quarantine;
+            this.base = base;
+        }
+
+        public Report getReport() {
+            return report;
+        }
+
+        @Override
+        public void triple(Triple triple) {
+            report.triples++;
+            Node s = fix(triple.getSubject(), null);
+            Node p = s == null ? null : fix(triple.getPredicate(), null);
+            Node o = p == null ? null
+                    : fix(triple.getObject(), rule(triple.getPredicate()));
+            if (o == null) {
+                report.quarantined++;
+                if (quarantine != null) {
+                    quarantine.triple(triple);
+                }
+            } else if (s != triple.getSubject() || p != triple.getPredicate()
+                    || o != triple.getObject()) {
+                report.repaired++;
+                super.triple(Triple.create(s, p, o));
+            } else {
+                super.triple(triple);
+            }
+        }
+
+        @Override
+        public void quad(Quad quad) {
+            report.triples++;
+            Node s = fix(quad.getSubject(), null);
+            Node p = s == null ? null : fix(quad.getPredicate(), null);
+            Node o = p == null ? null
+                    : fix(quad.getObject(), rule(quad.getPredicate()));
+            if (o == null) {
+                report.quarantined++;
+                if (quarantine != null) {
+                    quarantine.quad(quad);
+                }
+            } else if (s != quad.getSubject() || p != quad.getPredicate()
+                    || o != quad.getObject()) {
+                report.repaired++;
+                super.quad(Quad.create(quad.getGraph(), s, p, o));
+            } else {
+                super.quad(quad);
+            }
+        }
+
+        /*
+         * The node itself if it's fine or kept, a repaired node, or null if
+         * the triple should be dropped. A null rule means subject/predicate.
+         */
+        private Node fix(Node node, Rule rule) {
+            if (!node.isURI()) {
+                return node;
+            }
+            String iri = node.getURI();
+            Problem problem = base != null && iri.equals(base)
+                    ? Problem.DOCUMENT_BASE : check(iri);
+            if (problem == null) {
+                return node;
+            }
+            report.problems[problem.ordinal()]++;
+            String fixed = repair(iri, problem, rule);
+            return fixed == null ? null
+                    : fixed == iri ? node : NodeFactory.createURI(fixed);
+        }
+    }
+
+    /*
+     * Validates an N-Triples file, writing the good and repaired triples to
+     * outfile and the dropped ones, each followed by a comment saying what
+     * was wrong, to quarantineFile. Lines are handed out to the threads in
+     * chunks and written back in their original order.
+     */
+    public Report validate(String infile, String outfile,
+            String quarantineFile, int threads) throws IOException {
+        try (Writer out = new BufferedWriter(Files.newBufferedWriter(
+                Paths.get(outfile), StandardCharsets.UTF_8), 1 << 16);
+                Writer bad = Files.newBufferedWriter(Paths.get(quarantineFile),
+                        StandardCharsets.UTF_8)) {
+            return validate(infile, out, bad, threads);
+        }
+    }
+
+    /*
+     * As validate(infile, outfile, quarantineFile, threads), writing to out
+     * and bad, which are flushed but not closed.
+     */
+    public Report validate(String infile, Writer out, Writer bad, int threads)
+            throws IOException {
+
+        long start = System.nanoTime();
+        Report report = new Report();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Deque<Future<Chunk>> inFlight = new ArrayDeque<Future<Chunk>>();
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(infile),
+                StandardCharsets.UTF_8)) {
+            List<String> lines = new ArrayList<String>(CHUNK_LINES);
+            for (String line; (line = in.readLine()) != null; ) {
+                lines.add(line);
+                if (lines.size() == CHUNK_LINES) {
+                    List<String> chunk = lines;
+                    inFlight.add(pool.submit(() -> validate(chunk)));
+                    lines = new ArrayList<String>(CHUNK_LINES);
+                    // Don't read further ahead than the threads can use
+                    if (inFlight.size() > threads * 2) {
+                        write(inFlight.poll().get(), out, bad, report);
+                    }
+                }
+            }
+            List<String> chunk = lines;
+            inFlight.add(pool.submit(() -> validate(chunk)));
+            while (!inFlight.isEmpty()) {
+                write(inFlight.poll().get(), out, bad, report);
+            }
+            out.flush();
+            bad.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        report.nanos = System.nanoTime() - start;
+        LOGGER.info(new File(infile).getName() + ": " + report);
+        return report;
+    }
+
+    public Report validate(String infile, String outfile, String quarantineFile)
+            throws IOException {
+        return validate(infile, outfile, quarantineFile,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    private static void write(Chunk chunk, Writer out, Writer bad, Report report)
+            throws IOException {
+        out.append(chunk.out);
+        bad.append(chunk.bad);
+        report.add(chunk.report);
+    }
+
+    private static class Chunk {
+
+        private final StringBuilder out = new StringBuilder();
+        private final StringBuilder bad = new StringBuilder();
+        private final Report report = new Report();
+    }
+
+    private Chunk validate(List<String> lines) {
+        Chunk chunk = new Chunk();
+        int[] terms = new int[6];
+        for (String line : lines) {
+            validate(line, terms, chunk);
+        }
+        return chunk;
+    }
+
+    /*
+     * Finds the three terms of an N-Triples line (as start/end offsets in
+     * terms[]) and checks the IRIs in place. The line is copied through
+     * untouched unless something was repaired.
+     */
+    private void validate(String line, int[] terms, Chunk chunk) {
+
+        int i = skipSpace(line, 0);
+        if (i == line.length() || line.charAt(i) == '#') {
+            return;
+        }
+        chunk.report.triples++;
+        for (int t = 0; t < 3; t++) {
+            int end = i < line.length() ? termEnd(line, i) : -1;
+            if (end < 0) {
+                quarantine(line, Problem.SYNTAX, chunk);
+                return;
+            }
+            terms[t * 2] = i;
+            terms[t * 2 + 1] = end;
+            i = skipSpace(line, end);
+        }
+        if (i == line.length() || line.charAt(i) != '.') {
+            quarantine(line, Problem.SYNTAX, chunk);
+            return;
+        }
+
+        String[] fixed = null;
+        for (int t = 0; t < 3; t++) {
+            int start = terms[t * 2];
+            int end = terms[t * 2 + 1];
+            if (line.charAt(start) != '<') {
+                continue;
+            }
+            int escape = line.indexOf('\\', start);
+            String iri = escape >= 0 && escape < end
+                    ? unescape(line.substring(start + 1, end - 1)) : null;
+            Problem problem = iri != null ? check(iri)
+                    : check(line, start + 1, end - 1);
+            if (problem == null) {
+                continue;
+            }
+            chunk.report.problems[problem.ordinal()]++;
+            Rule rule = null;
+            if (t == 2) {
+                rule = line.charAt(terms[2]) == '<' ? rules.getOrDefault(
+                        unescape(line.substring(terms[2] + 1, terms[3] - 1)),
+                        defaultRule) : defaultRule;
+            }
+            if (iri == null) {
+                iri = line.substring(start + 1, end - 1);
+            }
+            String repaired = repair(iri, problem, rule);
+            if (repaired == null) {
+                quarantine(line, problem, chunk);
+                return;
+            }
+            if (repaired != iri) {
+                if (fixed == null) {
+                    fixed = new String[3];
+                }
+                fixed[t] = "<" + repaired + ">";
+            }
+        }
+        if (fixed == null) {
+            chunk.out.append(line).append('\n');
+            return;
+        }
+        chunk.report.repaired++;
+        for (int t = 0; t < 3; t++) {
+            if (fixed[t] != null) {
+                chunk.out.append(fixed[t]);
+            } else {
+                chunk.out.append(line, terms[t * 2], terms[t * 2 + 1]);
+            }
+            chunk.out.append(' ');
+        }
+        chunk.out.append(".\n");
+    }
+
+    private static void quarantine(String line, Problem problem, Chunk chunk) {
+        chunk.report.quarantined++;
+        chunk.bad.append(line).append(" # ").append(problem).append('\n');
+    }
+
+    private Rule rule(Node predicate) {
+        return predicate.isURI()
+                ? rules.getOrDefault(predicate.getURI(), defaultRule)
+                : defaultRule;
+    }
+
+    /*
+     * The repaired IRI, the same String if it's kept as it is, or null to
+     * drop the triple. A null rule (subject, predicate) is always ENCODE,
+     * which drops what encoding can't fix.
+     */
+    private String repair(String iri, Problem problem, Rule rule) {
+        Action action = rule == null ? Action.ENCODE : rule.action;
+        switch (action) {
+        case KEEP:
+            return iri;
+        case REPLACE:
+            return rule.replacement;
+        case ENCODE:
+            return problem == Problem.BAD_CHARACTER || problem == Problem.BAD_ESCAPE
+                    ? encode(iri) : null;
+        default:
+            return null;
+        }
+    }
+
+    /*
+     * End offset (exclusive) of the N-Triples term starting at i, or -1.
+     */
+    private static int termEnd(String line, int i) {
+        char c = line.charAt(i);
+        int n = line.length();
+        if (c == '<') {
+            int close = line.indexOf('>', i + 1);
+            return close < 0 ? -1 : close + 1;
+        } else if (c == '_' && i + 1 < n && line.charAt(i + 1) == ':') {
+            int j = i + 2;
+            while (j < n && !Character.isWhitespace(line.charAt(j))) {
+                j++;
+            }
+            // A label can't end with '.', which belongs to the triple
+            while (j > i + 2 && line.charAt(j - 1) == '.') {
+                j--;
+            }
+            return j > i + 2 ? j : -1;
+        } else if (c == '"') {
+            int j = i + 1;
+            while (j < n && line.charAt(j) != '"') {
+                j += line.charAt(j) == '\\' ? 2 : 1;
+            }
+            if (j >= n) {
+                return -1;
+            }
+            j++;
+            if (j < n && line.charAt(j) == '@') {
+                j++;
+                while (j < n && (Character.isLetterOrDigit(line.charAt(j))
+                        || line.charAt(j) == '-')) {
+                    j++;
+                }
+            } else if (line.startsWith("^^<", j)) {
+                int close = line.indexOf('>', j + 3);
+                return close < 0 ? -1 : close + 1;
+            }
+            return j;
+        }
+        return -1;
+    }
+
+    /*
+     * The IRI with its N-Triples UCHAR escapes replaced by the characters
+     * they stand for. Any other backslash is left, to be caught as a bad
+     * character.
+     */
+    static String unescape(String iri) {
+        int i = iri.indexOf('\\');
+        if (i < 0) {
+            return iri;
+        }
+        StringBuilder sb = new StringBuilder(iri.length());
+        sb.append(iri, 0, i);
+        for (; i < iri.length(); i++) {
+            char c = iri.charAt(i);
+            int digits = c != '\\' || i + 1 == iri.length() ? 0
+                    : iri.charAt(i + 1) == 'u' ? 4
+                    : iri.charAt(i + 1) == 'U' ? 8 : 0;
+            if (digits > 0 && i + 2 + digits <= iri.length()) {
+                long code = 0;
+                for (int j = i + 2; j < i + 2 + digits && code >= 0; j++) {
+                    int digit = Character.digit(iri.charAt(j), 16);
+                    code = digit < 0 ? -1 : code * 16 + digit;
+                }
+                if (code >= 0 && Character.isValidCodePoint((int) code)) {
+                    sb.appendCodePoint((int) code);
+                    i += 1 + digits;
+                    continue;
+                }
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private static int skipSpace(String line, int i) {
+        while (i < line.length() && (line.charAt(i) == ' ' || line.charAt(i) == '\t')) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isBadChar(char c) {
+        return c <= ' ' || c == '<' || c == '>' || c == '"' || c == '{'
+                || c == '}' || c == '|' || c == '\\' || c == '^' || c == '`'
+                || c == 0x7F;
+    }
+
+    private static boolean isHex(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f')
+                || (c >= 'A' && c <= 'F');
+    }
+}
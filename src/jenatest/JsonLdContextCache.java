@@ -0,0 +1,399 @@
+package jenatest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.jena.riot.RiotException;
+import org.apache.jena.riot.system.IRIResolver;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/*
+ * Remote JSON-LD contexts, read from local copies and kept pre-parsed for
+ * every document and every parser thread that refers to them.
+ *
+ * Context IRIs map to files through an OASIS catalog, the same format
+ * OntologyCache uses for ontologies. A context IRI that is not in the
+ * catalog is an error: nothing is fetched over the network, so parsing a
+ * directory of documents never waits on, or depends on, someone else's
+ * server.
+ */
+public class JsonLdContextCache {
+
+    public static final String DEFAULT_CATALOG = "rdf/contexts/catalog-v001.xml";
+
+    private static JsonLdContextCache defaultCache;
+
+    private final JsonFactory factory = new JsonFactory();
+    private final Map<String, File> catalog;
+    private final Map<String, Context> contexts =
+            new ConcurrentHashMap<String, Context>();
+
+    public JsonLdContextCache(String catalogFile) {
+        catalog = OntologyCache.readCatalog(new File(catalogFile));
+    }
+
+    public static synchronized JsonLdContextCache getDefault() {
+        if (defaultCache == null) {
+            defaultCache = new JsonLdContextCache(DEFAULT_CATALOG);
+        }
+        return defaultCache;
+    }
+
+    /*
+     * Adds a context under an IRI, in place of or in addition to the
+     * catalog's.
+     */
+    public void put(String iri, Context context) {
+        contexts.put(iri, context);
+    }
+
+    /*
+     * The context at the IRI, parsed the first time it is asked for. Two
+     * threads asking at once may both parse it; one copy wins.
+     */
+    public Context get(String iri) {
+        Context context = contexts.get(iri);
+        if (context == null) {
+            File file = catalog.get(iri);
+            if (file == null) {
+                throw new RiotException("No local copy of JSON-LD context "
+                        + iri);
+            }
+            context = load(file);
+            Context existing = contexts.putIfAbsent(iri, context);
+            if (existing != null) {
+                context = existing;
+            }
+        }
+        return context;
+    }
+
+    /*
+     * The @context member of a context document.
+     */
+    private Context load(File file) {
+        try (JsonParser parser = factory.createParser(file)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new RiotException("Not a JSON-LD context: " + file);
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String key = parser.getCurrentName();
+                parser.nextToken();
+                if (key.equals("@context")) {
+                    return Context.EMPTY.process(parser, this);
+                }
+                parser.skipChildren();
+            }
+            throw new RiotException("No @context in " + file);
+        } catch (IOException e) {
+            throw new RiotException("Can't read JSON-LD context " + file + ": "
+                    + e.getMessage());
+        }
+    }
+
+    /*
+     * A processed, immutable active context: base IRI, default vocabulary
+     * and language, and term definitions. Processing a local context
+     * returns a new Context and leaves this one as it was, so a cached
+     * context is shared safely.
+     */
+    public static class Context {
+
+        public static final Context EMPTY = new Context(null, null, null,
+                Collections.<String, Term> emptyMap());
+
+        private final String base;
+        private final String vocab;
+        private final String language;
+        private final Map<String, Term> terms;
+
+        private Context(String base, String vocab, String language,
+                Map<String, Term> terms) {
+            this.base = base;
+            this.vocab = vocab;
+            this.language = language;
+            this.terms = terms;
+        }
+
+        /*
+         * This context with the base a document's relative IRIs resolve
+         * against.
+         */
+        public Context withBase(String base) {
+            return new Context(base, vocab, language, terms);
+        }
+
+        public String getLanguage() {
+            return language;
+        }
+
+        /*
+         * The term's definition, or null if it is not a term.
+         */
+        public Term term(String key) {
+            return terms.get(key);
+        }
+
+        /*
+         * The keyword the key is an alias of, or null.
+         */
+        public String keyword(String key) {
+            if (key.startsWith("@")) {
+                return key;
+            }
+            Term term = terms.get(key);
+            return term != null && term.id != null && term.id.startsWith("@")
+                    ? term.id : null;
+        }
+
+        /*
+         * Expands a term, compact IRI, blank node label or relative IRI.
+         * With vocab, terms and the default vocabulary apply (property and
+         * type positions); with documentRelative, relative IRIs resolve
+         * against the base (@id positions). Returns null where the value
+         * expands to nothing, as for a term mapped to null.
+         */
+        public String expandIri(String value, boolean vocab,
+                boolean documentRelative) {
+            if (value.startsWith("@")) {
+                return value;
+            }
+            if (vocab && terms.containsKey(value)) {
+                Term term = terms.get(value);
+                return term == null ? null : term.id;
+            }
+            int colon = value.indexOf(':');
+            if (colon > 0) {
+                String prefix = value.substring(0, colon);
+                String suffix = value.substring(colon + 1);
+                if (prefix.equals("_") || suffix.startsWith("//")) {
+                    return value;
+                }
+                Term term = terms.get(prefix);
+                if (term != null && term.id != null) {
+                    return term.id + suffix;
+                }
+                return value;
+            }
+            if (vocab && this.vocab != null) {
+                return this.vocab + value;
+            }
+            if (documentRelative) {
+                return base == null ? value : IRIResolver.resolveString(value, base);
+            }
+            return null;
+        }
+
+        /*
+         * Processes the local context at the parser's current token - null,
+         * a context IRI, an array of contexts or a context definition - and
+         * returns the resulting active context. The parser is left on the
+         * context's last token.
+         */
+        public Context process(JsonParser parser, JsonLdContextCache cache)
+                throws IOException {
+            switch (parser.getCurrentToken()) {
+            case VALUE_NULL:
+                return new Context(base, null, null,
+                        Collections.<String, Term> emptyMap());
+            case VALUE_STRING:
+                String iri = expandIri(parser.getText(), false, true);
+                return merge(cache.get(iri));
+            case START_ARRAY:
+                Context context = this;
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    context = context.process(parser, cache);
+                }
+                return context;
+            case START_OBJECT:
+                return define(parser);
+            default:
+                throw new RiotException("Invalid @context: " + parser.getText());
+            }
+        }
+
+        /*
+         * A remote context applied over this one. The remote context was
+         * processed on its own, so its relative IRIs are left as they were;
+         * this context's base still applies.
+         */
+        private Context merge(Context remote) {
+            Map<String, Term> merged = new HashMap<String, Term>(terms);
+            merged.putAll(remote.terms);
+            return new Context(remote.base != null ? remote.base : base,
+                    remote.vocab != null ? remote.vocab : vocab,
+                    remote.language != null ? remote.language : language,
+                    merged);
+        }
+
+        /*
+         * Reads the definitions in a context object first, then expands
+         * them, because a definition can use a prefix defined after it.
+         */
+        private Context define(JsonParser parser) throws IOException {
+            String newBase = base;
+            String newVocab = vocab;
+            String newLanguage = language;
+            Map<String, Raw> raw = new LinkedHashMap<String, Raw>();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String key = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                boolean isNull = token == JsonToken.VALUE_NULL;
+                if (key.equals("@base")) {
+                    newBase = isNull ? null
+                            : base == null ? parser.getText()
+                            : IRIResolver.resolveString(parser.getText(), base);
+                } else if (key.equals("@vocab")) {
+                    newVocab = isNull ? null : parser.getText();
+                } else if (key.equals("@language")) {
+                    newLanguage = isNull ? null
+                            : parser.getText().toLowerCase(Locale.ROOT);
+                } else if (key.startsWith("@")) {
+                    parser.skipChildren();
+                } else {
+                    raw.put(key, Raw.read(parser));
+                }
+            }
+            Context context = new Context(newBase, newVocab, newLanguage,
+                    new HashMap<String, Term>(terms));
+            for (String term : new ArrayList<String>(raw.keySet())) {
+                context.define(term, raw);
+            }
+            return context;
+        }
+
+        /*
+         * Defines the term if it is still waiting in raw. A definition is
+         * taken out of raw before its IRI is expanded, so a term that refers
+         * to itself, directly or not, sees the definition it had before.
+         */
+        private void define(String term, Map<String, Raw> raw) {
+            Raw definition = raw.remove(term);
+            if (definition == null) {
+                return;
+            }
+            String id;
+            if (definition.isNull) {
+                id = null;
+            } else if (definition.reverse != null) {
+                id = expandDefinition(definition.reverse, raw);
+            } else if (definition.id != null) {
+                id = expandDefinition(definition.id, raw);
+            } else {
+                id = expandDefinition(term, raw);
+            }
+            String type = definition.type == null || definition.type.startsWith("@")
+                    ? definition.type
+                    : expandDefinition(definition.type, raw);
+            terms.put(term, definition.isNull ? null
+                    : new Term(id, type, definition.language,
+                            definition.hasLanguage, definition.container,
+                            definition.reverse != null));
+        }
+
+        /*
+         * Expands an IRI in a definition, defining the terms and prefixes it
+         * uses first.
+         */
+        private String expandDefinition(String value, Map<String, Raw> raw) {
+            int colon = value.indexOf(':');
+            define(colon > 0 ? value.substring(0, colon) : value, raw);
+            return expandIri(value, true, false);
+        }
+    }
+
+    /*
+     * An expanded term definition. The container is null, "@list", "@set",
+     * "@language" or "@index".
+     */
+    public static class Term {
+
+        public final String id;
+        public final String type;
+        public final String language;
+        public final boolean hasLanguage;
+        public final String container;
+        public final boolean reverse;
+
+        Term(String id, String type, String language, boolean hasLanguage,
+                String container, boolean reverse) {
+            this.id = id;
+            this.type = type;
+            this.language = language;
+            this.hasLanguage = hasLanguage;
+            this.container = container;
+            this.reverse = reverse;
+        }
+
+        /*
+         * The definition that applies to the members of a container.
+         */
+        public Term member() {
+            return container == null ? this
+                    : new Term(id, type, language, hasLanguage, null, reverse);
+        }
+    }
+
+    /*
+     * A term definition as written, before expansion.
+     */
+    private static class Raw {
+
+        boolean isNull;
+        String id;
+        String type;
+        String language;
+        boolean hasLanguage;
+        String container;
+        String reverse;
+
+        static Raw read(JsonParser parser) throws IOException {
+            Raw raw = new Raw();
+            switch (parser.getCurrentToken()) {
+            case VALUE_NULL:
+                raw.isNull = true;
+                break;
+            case VALUE_STRING:
+                raw.id = parser.getText();
+                break;
+            case START_OBJECT:
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String key = parser.getCurrentName();
+                    JsonToken token = parser.nextToken();
+                    String value = token == JsonToken.VALUE_STRING
+                            ? parser.getText() : null;
+                    if (key.equals("@id")) {
+                        raw.id = value;
+                        raw.isNull = token == JsonToken.VALUE_NULL;
+                    } else if (key.equals("@type")) {
+                        raw.type = value;
+                    } else if (key.equals("@language")) {
+                        raw.language = value == null ? null : value.toLowerCase(Locale.ROOT);
+                        raw.hasLanguage = true;
+                    } else if (key.equals("@container")) {
+                        raw.container = value;
+                    } else if (key.equals("@reverse")) {
+                        raw.reverse = value;
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                break;
+            default:
+                throw new RiotException("Invalid term definition: "
+                        + parser.getText());
+            }
+            return raw;
+        }
+    }
+}
@@ -0,0 +1,708 @@
+package jenatest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import org.apache.jena.atlas.lib.IRILib;
+import org.apache.jena.datatypes.TypeMapper;
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.RiotException;
+import org.apache.jena.riot.lang.BlankNodeAllocator;
+import org.apache.jena.riot.lang.BlankNodeAllocatorHash;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import jenatest.JsonLdContextCache.Context;
+import jenatest.JsonLdContextCache.Term;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/*
+ * JSON-LD to RDF straight off the Jackson token stream, without building
+ * the document as a tree and without jsonld-java's expansion and
+ * node-map passes. Triples go to the StreamRDF as soon as their subject is
+ * known, so memory use is bounded by the nesting depth of the document and
+ * what of an object comes before its @id - its properties, and the members
+ * of its @graph - not by the size of the document. Remote contexts come pre-parsed from a
+ * JsonLdContextCache and are never fetched.
+ *
+ * This covers the JSON-LD 1.0 that data is written in: node and value
+ * objects, @id, @type, @value, @language, @list, @set, @reverse, @graph
+ * (named graphs become quads), @index, type and language coercion,
+ * @container @list/@set/@language/@index, keyword aliases, @vocab and
+ * @base. The limits that come with streaming:
+ *
+ * - @context must be the first member of its object. Every other member
+ *   is interpreted as it is read, so a context after them would have to
+ *   change what has already been emitted. The one exception is the
+ *   top-level object of a file, whose context is looked for ahead of
+ *   parsing when it is not first.
+ * - Blank node identifiers are scoped to the document, as in jsonld-java,
+ *   but labels are hashed rather than renumbered, so they differ from the
+ *   ones jsonld-java would produce; the graphs are isomorphic.
+ * - An @graph is the named graph of its node wherever the node's @id
+ *   comes. When the @id comes later - Jena's JSON-LD writer puts it after
+ *   the @graph - the graph's members are held until the end of the node.
+ *   A top-level @graph whose object has no @id, @type or property is the
+ *   default graph.
+ * - Nothing is checked that doesn't change the triples: invalid keyword
+ *   combinations and the like are ignored rather than reported.
+ *
+ * Numbers are converted as jsonld-java converts them: integers to
+ * xsd:integer, anything with a fraction or exponent to xsd:double in
+ * canonical form.
+ */
+public class JsonLdStreamParser {
+
+    private static final Logger LOGGER =
+            LogManager.getLogger(JsonLdStreamParser.class);
+
+    // Triples handed from a parallel parse to the shared destination at once.
+    private static final int BATCH_SIZE = 10000;
+
+    private static final Node FIRST = RDF.first.asNode();
+    private static final Node REST = RDF.rest.asNode();
+    private static final Node NIL = RDF.nil.asNode();
+    private static final Node TYPE = RDF.type.asNode();
+    private static final String XSD_DOUBLE = XSDDatatype.XSDdouble.getURI();
+
+    private final JsonFactory factory = new JsonFactory();
+    private final JsonLdContextCache contexts;
+
+    public JsonLdStreamParser() {
+        this(JsonLdContextCache.getDefault());
+    }
+
+    public JsonLdStreamParser(JsonLdContextCache contexts) {
+        this.contexts = contexts;
+    }
+
+    /*
+     * Parses the file into dest, relative IRIs resolving against the file.
+     * Returns the number of triples and quads emitted.
+     */
+    public long parse(String filename, StreamRDF dest) throws IOException {
+        Context context = Context.EMPTY.withBase(IRILib.filenameToIRI(filename));
+        Context late = lateContext(filename, context);
+        try (InputStream in = RdfFiles.openMapped(filename)) {
+            return parse(in, late != null ? late : context, late != null, dest);
+        }
+    }
+
+    /*
+     * Parses the stream into dest. The top-level @context, if any, has to
+     * come first: use parse(filename, dest) for documents that put it last.
+     */
+    public long parse(InputStream in, String base, StreamRDF dest)
+            throws IOException {
+        return parse(in, Context.EMPTY.withBase(base), false, dest);
+    }
+
+    private long parse(InputStream in, Context context, boolean hoisted,
+            StreamRDF dest) throws IOException {
+        try (JsonParser parser = factory.createParser(in)) {
+            Document document = new Document(parser, context, hoisted, dest);
+            dest.start();
+            document.parse();
+            dest.finish();
+            return document.emitted;
+        }
+    }
+
+    /*
+     * The top-level object's @context when it is not the object's first
+     * member - Jena's own JSON-LD writer puts it last, after @graph. It is
+     * found by skipping over the members before it, which tokenizes them
+     * but builds nothing. Null if the context comes first or there is none.
+     */
+    private Context lateContext(String filename, Context context)
+            throws IOException {
+        try (InputStream in = RdfFiles.openMapped(filename);
+                JsonParser parser = factory.createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            boolean first = true;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String key = parser.getCurrentName();
+                parser.nextToken();
+                if (key.equals("@context")) {
+                    return first ? null : context.process(parser, contexts);
+                }
+                parser.skipChildren();
+                first = false;
+            }
+            return null;
+        }
+    }
+
+    /*
+     * Parses the files on a pool of threads into one destination, which
+     * need not be thread-safe: each parse hands its triples over in batches
+     * while holding the destination's lock. Returns the number of triples
+     * and quads emitted, and fails with the first file that fails.
+     */
+    public long parseAll(List<File> files, int threads, StreamRDF dest)
+            throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Long>> results = new ArrayList<Future<Long>>();
+        dest.start();
+        try {
+            for (File file : files) {
+                results.add(pool.submit(() -> {
+                    Batches batches = new Batches(dest);
+                    long emitted = parse(file.getPath(), batches);
+                    LOGGER.debug("Parsed " + emitted + " triples from " + file);
+                    return emitted;
+                }));
+            }
+            long emitted = 0;
+            for (Future<Long> result : results) {
+                emitted += result.get();
+            }
+            dest.finish();
+            return emitted;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RiotException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /*
+     * The state of one document: its parser, blank nodes and destination.
+     */
+    private class Document {
+
+        private final JsonParser parser;
+        private final Context initial;
+        // Whether initial already has the top-level object's @context.
+        private final boolean hoisted;
+        private final StreamRDF dest;
+        private final BlankNodeAllocator bnodes = new BlankNodeAllocatorHash();
+        // Members of graphs whose name isn't known yet, by a stand-in name
+        private final Map<Node, List<Triple>> held = new HashMap<Node, List<Triple>>();
+        private final DecimalFormat doubles = new DecimalFormat(
+                "0.0###############E0", DecimalFormatSymbols.getInstance(Locale.US));
+        private long emitted;
+
+        Document(JsonParser parser, Context initial, boolean hoisted,
+                StreamRDF dest) {
+            this.parser = parser;
+            this.initial = initial;
+            this.hoisted = hoisted;
+            this.dest = dest;
+        }
+
+        void parse() throws IOException {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_ARRAY) {
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    top(initial);
+                }
+            } else if (token != null) {
+                top(initial);
+            }
+        }
+
+        private void top(Context context) throws IOException {
+            if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+                throw error("Expected a node object");
+            }
+            object(context, null, true, node -> { });
+        }
+
+        /*
+         * The object at the current token: a node, value, list or set
+         * object. Its value - the subject, the literal, the list head, the
+         * set's members - goes to out. The parser is left on its END_OBJECT.
+         */
+        private void object(Context context, Node graph, boolean top,
+                Consumer<Node> out) throws IOException {
+            NodeObject node = new NodeObject(graph);
+            List<String> types = new ArrayList<String>();
+            JsonToken valueToken = null;
+            String value = null;
+            String language = null;
+            boolean isValue = false;
+            boolean isNode = false;
+            boolean isSet = false;
+            Node list = null;
+            boolean contextAllowed = true;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String key = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                String keyword = context.keyword(key);
+                if ("@context".equals(keyword)) {
+                    if (top && hoisted) {
+                        parser.skipChildren();
+                        continue;
+                    } else if (!contextAllowed) {
+                        throw error("@context must come first in its object");
+                    }
+                    context = context.process(parser, contexts);
+                    continue;
+                }
+                contextAllowed = false;
+                if (keyword == null) {
+                    isNode = true;
+                    property(context, node, key, false);
+                    continue;
+                }
+                switch (keyword) {
+                case "@id":
+                    isNode = true;
+                    node.identify(iri(context.expandIri(string(), false, true)));
+                    break;
+                case "@type":
+                    if (token == JsonToken.START_ARRAY) {
+                        while (parser.nextToken() != JsonToken.END_ARRAY) {
+                            types.add(context.expandIri(string(), true, true));
+                        }
+                    } else {
+                        types.add(context.expandIri(string(), true, true));
+                    }
+                    break;
+                case "@value":
+                    isValue = true;
+                    valueToken = token;
+                    value = token == JsonToken.VALUE_NULL ? null : parser.getText();
+                    break;
+                case "@language":
+                    language = token == JsonToken.VALUE_NULL ? null : string();
+                    break;
+                case "@list":
+                    list = list(context, graph, null);
+                    break;
+                case "@set":
+                    isSet = true;
+                    values(context, graph, null, out);
+                    break;
+                case "@reverse":
+                    isNode = true;
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String reverseKey = parser.getCurrentName();
+                        parser.nextToken();
+                        property(context, node, reverseKey, true);
+                    }
+                    break;
+                case "@graph":
+                    if (node.subject != null) {
+                        values(context, node.subject, null, member -> { });
+                    } else {
+                        // Named when the node is, at the end of the object.
+                        values(context, node.holdGraph(), null, member -> { });
+                    }
+                    if (!top) {
+                        isNode = true;
+                    }
+                    break;
+                default:
+                    parser.skipChildren();
+                }
+            }
+            if (list != null) {
+                out.accept(list);
+            } else if (isValue) {
+                if (value != null) {
+                    out.accept(literal(valueToken, value,
+                            types.isEmpty() ? null : types.get(0), language));
+                }
+            } else if (!isSet && (isNode || !types.isEmpty() || !top)) {
+                Node subject = node.subject();
+                for (String type : types) {
+                    Node object = iri(type);
+                    if (object != null) {
+                        node.edge(TYPE, object, false);
+                    }
+                }
+                out.accept(subject);
+            }
+            if (node.held != null) {
+                // Only there to hold a context: the default graph.
+                boolean named = !top || isNode || !types.isEmpty();
+                release(node.held, named ? node.subject() : null);
+            }
+        }
+
+        /*
+         * The values of a property at the current token, to the node as
+         * edges.
+         */
+        private void property(Context context, NodeObject node, String key,
+                boolean reverse) throws IOException {
+            Term term = context.term(key);
+            String iri = term != null ? term.id : context.expandIri(key, true, false);
+            if (iri == null || iri.startsWith("@") || iri.startsWith("_:")
+                    || iri.indexOf(':') < 0) {
+                // Not mapped to an IRI: dropped, as in expansion.
+                parser.skipChildren();
+                return;
+            }
+            Node predicate = NodeFactory.createURI(iri);
+            boolean inverse = reverse != (term != null && term.reverse);
+            values(context, node.graph, term,
+                    object -> node.edge(predicate, object, inverse));
+        }
+
+        /*
+         * The value at the current token - a scalar, an object, or an array
+         * of them - coerced by the term, each node to out.
+         */
+        private void values(Context context, Node graph, Term term,
+                Consumer<Node> out) throws IOException {
+            switch (parser.getCurrentToken()) {
+            case START_ARRAY:
+                if (term != null && "@list".equals(term.container)) {
+                    out.accept(list(context, graph, term.member()));
+                } else {
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        values(context, graph, term, out);
+                    }
+                }
+                break;
+            case START_OBJECT:
+                if (term != null && "@language".equals(term.container)) {
+                    languageMap(out);
+                } else if (term != null && "@index".equals(term.container)) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        parser.nextToken();
+                        values(context, graph, term.member(), out);
+                    }
+                } else {
+                    object(context, graph, false, out);
+                }
+                break;
+            case VALUE_NULL:
+                break;
+            case VALUE_STRING:
+                Node node = string(context, term, parser.getText());
+                if (node != null) {
+                    out.accept(node);
+                }
+                break;
+            default:
+                String type = term == null || term.type == null
+                        || term.type.startsWith("@") ? null : term.type;
+                out.accept(literal(parser.getCurrentToken(), parser.getText(),
+                        type, null));
+            }
+        }
+
+        /*
+         * An RDF list of the values at the current token, emitted cell by
+         * cell. Returns the head.
+         */
+        private Node list(Context context, Node graph, Term term)
+                throws IOException {
+            ListBuilder list = new ListBuilder(graph);
+            if (parser.getCurrentToken() == JsonToken.START_ARRAY) {
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    if (parser.getCurrentToken() == JsonToken.START_ARRAY) {
+                        throw error("Lists of lists are not allowed");
+                    }
+                    values(context, graph, term, list);
+                }
+            } else {
+                values(context, graph, term, list);
+            }
+            if (list.last != null) {
+                emit(graph, list.last, REST, NIL);
+            }
+            return list.head;
+        }
+
+        private void languageMap(Consumer<Node> out) throws IOException {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String language = parser.getCurrentName().toLowerCase(Locale.ROOT);
+                JsonToken token = parser.nextToken();
+                if (token == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        out.accept(NodeFactory.createLiteral(string(), language));
+                    }
+                } else if (token != JsonToken.VALUE_NULL) {
+                    out.accept(NodeFactory.createLiteral(string(), language));
+                }
+            }
+        }
+
+        /*
+         * A string value, coerced by the term.
+         */
+        private Node string(Context context, Term term, String value) {
+            String type = term == null ? null : term.type;
+            if ("@id".equals(type)) {
+                return iri(context.expandIri(value, false, true));
+            } else if ("@vocab".equals(type)) {
+                return iri(context.expandIri(value, true, true));
+            } else if (type != null) {
+                return NodeFactory.createLiteral(value,
+                        TypeMapper.getInstance().getSafeTypeByName(type));
+            }
+            String language = term != null && term.hasLanguage ? term.language
+                    : context.getLanguage();
+            return language == null ? NodeFactory.createLiteral(value)
+                    : NodeFactory.createLiteral(value, language);
+        }
+
+        /*
+         * A literal from a scalar token: strings as they are, numbers and
+         * booleans as their native datatypes unless a type is given.
+         */
+        private Node literal(JsonToken token, String value, String type,
+                String language) {
+            if (token == JsonToken.VALUE_NUMBER_FLOAT
+                    && (type == null || type.equals(XSD_DOUBLE))) {
+                value = doubles.format(Double.parseDouble(value));
+                type = XSD_DOUBLE;
+            } else if (type == null && token == JsonToken.VALUE_NUMBER_INT) {
+                type = XSDDatatype.XSDinteger.getURI();
+            } else if (type == null && (token == JsonToken.VALUE_TRUE
+                    || token == JsonToken.VALUE_FALSE)) {
+                type = XSDDatatype.XSDboolean.getURI();
+            }
+            if (type != null) {
+                return NodeFactory.createLiteral(value,
+                        TypeMapper.getInstance().getSafeTypeByName(type));
+            }
+            return language == null ? NodeFactory.createLiteral(value)
+                    : NodeFactory.createLiteral(value, language.toLowerCase(Locale.ROOT));
+        }
+
+        /*
+         * An IRI or a blank node from an expanded identifier, null for none
+         * or a relative IRI that could not be resolved.
+         */
+        private Node iri(String iri) {
+            if (iri == null) {
+                return null;
+            } else if (iri.startsWith("_:")) {
+                return bnodes.alloc(iri.substring(2));
+            } else if (iri.startsWith("@") || iri.indexOf(':') < 0) {
+                return null;
+            }
+            return NodeFactory.createURI(iri);
+        }
+
+        private String string() throws IOException {
+            if (parser.getCurrentToken() != JsonToken.VALUE_STRING) {
+                throw error("Expected a string");
+            }
+            return parser.getText();
+        }
+
+        private void emit(Node graph, Node s, Node p, Node o) {
+            if (s.isLiteral()) {
+                return;
+            }
+            List<Triple> members = graph == null || held.isEmpty() ? null
+                    : held.get(graph);
+            if (members != null) {
+                members.add(Triple.create(s, p, o));
+            } else if (graph == null) {
+                dest.triple(Triple.create(s, p, o));
+            } else {
+                dest.quad(Quad.create(graph, s, p, o));
+            }
+            emitted++;
+        }
+
+        /*
+         * Emits the members held under the stand-in, in the named graph, or
+         * the default graph if name is null.
+         */
+        private void release(Node standIn, Node name) {
+            for (Triple triple : held.remove(standIn)) {
+                if (name == null) {
+                    dest.triple(triple);
+                } else {
+                    dest.quad(Quad.create(name, triple));
+                }
+            }
+        }
+
+        private RiotException error(String message) {
+            return new RiotException(message + " at line "
+                    + parser.getCurrentLocation().getLineNr() + ", column "
+                    + parser.getCurrentLocation().getColumnNr());
+        }
+
+        /*
+         * The subject of a node object, and the edges and graph members read
+         * before its @id that wait for it.
+         */
+        private class NodeObject {
+
+            final Node graph;
+            Node subject;
+            List<Edge> pending;
+            // The stand-in name of the node's @graph, while held
+            Node held;
+
+            NodeObject(Node graph) {
+                this.graph = graph;
+            }
+
+            /*
+             * The subject, a new blank node if there was no @id.
+             */
+            Node subject() {
+                if (subject == null) {
+                    identify(bnodes.create());
+                }
+                return subject;
+            }
+
+            void identify(Node id) {
+                if (subject != null) {
+                    throw error("@id after the node's subject was decided");
+                }
+                subject = id == null ? bnodes.create() : id;
+                if (pending != null) {
+                    for (Edge edge : pending) {
+                        edge(edge.predicate, edge.object, edge.reverse);
+                    }
+                    pending = null;
+                }
+            }
+
+            /*
+             * The name to parse the node's @graph into before the subject is
+             * known; its members are held until release().
+             */
+            Node holdGraph() {
+                if (held == null) {
+                    held = bnodes.create();
+                    Document.this.held.put(held, new ArrayList<Triple>());
+                }
+                return held;
+            }
+
+            void edge(Node predicate, Node object, boolean reverse) {
+                if (subject == null) {
+                    if (pending == null) {
+                        pending = new ArrayList<Edge>();
+                    }
+                    pending.add(new Edge(predicate, object, reverse));
+                } else if (reverse) {
+                    emit(graph, object, predicate, subject);
+                } else {
+                    emit(graph, subject, predicate, object);
+                }
+            }
+        }
+
+        private class Edge {
+
+            final Node predicate;
+            final Node object;
+            final boolean reverse;
+
+            Edge(Node predicate, Node object, boolean reverse) {
+                this.predicate = predicate;
+                this.object = object;
+                this.reverse = reverse;
+            }
+        }
+
+        private class ListBuilder implements Consumer<Node> {
+
+            final Node graph;
+            Node head = NIL;
+            Node last;
+
+            ListBuilder(Node graph) {
+                this.graph = graph;
+            }
+
+            @Override
+            public void accept(Node value) {
+                Node cell = bnodes.create();
+                if (last == null) {
+                    head = cell;
+                } else {
+                    emit(graph, last, REST, cell);
+                }
+                emit(graph, cell, FIRST, value);
+                last = cell;
+            }
+        }
+    }
+
+    /*
+     * Passes triples and quads on to a shared destination in batches,
+     * under its lock.
+     */
+    private static class Batches extends StreamRDFBase {
+
+        private final StreamRDF dest;
+        private final List<Object> batch = new ArrayList<Object>(BATCH_SIZE);
+
+        Batches(StreamRDF dest) {
+            this.dest = dest;
+        }
+
+        @Override
+        public void triple(Triple triple) {
+            add(triple);
+        }
+
+        @Override
+        public void quad(Quad quad) {
+            add(quad);
+        }
+
+        private void add(Object tuple) {
+            batch.add(tuple);
+            if (batch.size() == BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        private void flush() {
+            synchronized (dest) {
+                for (Object tuple : batch) {
+                    if (tuple instanceof Triple) {
+                        dest.triple((Triple) tuple);
+                    } else {
+                        dest.quad((Quad) tuple);
+                    }
+                }
+            }
+            batch.clear();
+        }
+
+        @Override
+        public void finish() {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package jenatest;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.util.iterator.ExtendedIterator;
+
+/*
+ * Index of the literal objects in a graph by text, for finding the subjects
+ * with a given label or title without scanning every statement.
+ *
+ * Text is matched after normalization: Unicode NFC, lower case, runs of
+ * whitespace collapsed to one space and trimmed. Language is matched as a
+ * BCP 47 basic language range (RFC 4647), so "fr" finds "Bonjour"@fr and
+ * "Bonjour"@fr-ca but "fr-ca" finds only the latter; "*" finds any tagged
+ * literal; "" finds only untagged ones; null means any language or none.
+ * A plain literal and an xsd:string literal are the same thing, as they are
+ * in RDF 1.1, and a literal created with a null or empty language has no
+ * tag.
+ *
+ * Attach it to the graph and it follows every add and delete.
+ */
+public class LiteralIndex extends TripleChangeListener {
+
+    private final Map<String, List<Triple>> byText =
+            new HashMap<String, List<Triple>>();
+    private long size;
+
+    /*
+     * An index attached to the model's graph.
+     */
+    public static LiteralIndex on(Model model) {
+        LiteralIndex index = new LiteralIndex();
+        index.attach(model.getGraph());
+        return index;
+    }
+
+    public static String normalize(String text) {
+        String nfc = Normalizer.normalize(text, Normalizer.Form.NFC);
+        StringBuilder sb = new StringBuilder(nfc.length());
+        boolean space = false;
+        for (int i = 0; i < nfc.length(); i++) {
+            char c = nfc.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = sb.length() > 0;
+            } else {
+                if (space) {
+                    sb.append(' ');
+                    space = false;
+                }
+                sb.append(c);
+            }
+        }
+        return sb.toString().toLowerCase(Locale.ROOT);
+    }
+
+    /*
+     * RFC 4647 basic filtering: the range equals the tag, or is a prefix of
+     * it ending at a '-'. Case-insensitive.
+     */
+    public static boolean matchesRange(String tag, String range) {
+        if (range == null) {
+            return true;
+        } else if (range.equals("*")) {
+            return !tag.isEmpty();
+        } else if (range.isEmpty()) {
+            return tag.isEmpty();
+        }
+        return tag.regionMatches(true, 0, range, 0, range.length())
+                && (tag.length() == range.length()
+                        || tag.charAt(range.length()) == '-');
+    }
+
+    /*
+     * Number of literal triples indexed.
+     */
+    public long size() {
+        return size;
+    }
+
+    /*
+     * Triples whose object matches the text, with a language in the range.
+     */
+    public List<Triple> find(String text, String languageRange) {
+        return find(null, text, languageRange, null);
+    }
+
+    /*
+     * Triples with this predicate (null for any) whose object matches the
+     * text, with a language in the range and this datatype (null for any;
+     * xsd:string for untagged strings).
+     */
+    public List<Triple> find(Node predicate, String text, String languageRange,
+            String datatypeURI) {
+        List<Triple> triples = byText.get(normalize(text));
+        if (triples == null) {
+            return Collections.emptyList();
+        }
+        List<Triple> found = new ArrayList<Triple>();
+        for (Triple t : triples) {
+            Node o = t.getObject();
+            if ((predicate == null || predicate.equals(t.getPredicate()))
+                    && matchesRange(o.getLiteralLanguage(), languageRange)
+                    && (datatypeURI == null
+                            || datatypeURI.equals(datatype(o)))) {
+                found.add(t);
+            }
+        }
+        return found;
+    }
+
+    /*
+     * Subjects with a property value that matches the text and language
+     * range, e.g. subjects(model, bf:label, "1894", null).
+     */
+    public List<Resource> subjects(Model model, Property property, String text,
+            String languageRange) {
+        Set<Node> nodes = new LinkedHashSet<Node>();
+        for (Triple t : find(property == null ? null : property.asNode(), text,
+                languageRange, null)) {
+            nodes.add(t.getSubject());
+        }
+        List<Resource> subjects = new ArrayList<Resource>(nodes.size());
+        for (Node node : nodes) {
+            subjects.add(model.wrapAsResource(node));
+        }
+        return subjects;
+    }
+
+    @Override
+    protected void tripleAdded(Triple t) {
+        if (t.getObject().isLiteral()) {
+            byText.computeIfAbsent(normalize(t.getObject().getLiteralLexicalForm()),
+                    k -> new ArrayList<Triple>(1)).add(t);
+            size++;
+        }
+    }
+
+    @Override
+    protected void tripleDeleted(Triple t) {
+        if (t.getObject().isLiteral()) {
+            String key = normalize(t.getObject().getLiteralLexicalForm());
+            List<Triple> triples = byText.get(key);
+            if (triples != null && triples.remove(t)) {
+                size--;
+                if (triples.isEmpty()) {
+                    byText.remove(key);
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void resync(Graph graph) {
+        byText.clear();
+        size = 0;
+        ExtendedIterator<Triple> it = graph.find(Node.ANY, Node.ANY, Node.ANY);
+        try {
+            while (it.hasNext()) {
+                tripleAdded(it.next());
+            }
+        } finally {
+            it.close();
+        }
+    }
+
+    // Untagged literals without a datatype count as xsd:string.
+    private static String datatype(Node literal) {
+        String uri = literal.getLiteralDatatypeURI();
+        return uri == null ? XSDDatatype.XSDstring.getURI() : uri;
+    }
+}
@@ -1,23 +1,49 @@
 package jenatest;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
 import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.GraphUtil;
 import org.apache.jena.graph.Node;
 import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.graph.compose.Union;
 import org.apache.jena.ontology.OntModel;
+import org.apache.jena.query.Dataset;
 import org.apache.jena.query.Query;
 import org.apache.jena.query.QueryExecution;
 import org.apache.jena.query.QueryExecutionFactory;
 import org.apache.jena.query.QueryFactory;
+import org.apache.jena.query.ReadWrite;
 import org.apache.jena.rdf.model.InfModel;
 import org.apache.jena.rdf.model.Literal;
 import org.apache.jena.rdf.model.Model;
@@ -32,8 +58,18 @@ import org.apache.jena.reasoner.Reasoner;
 import org.apache.jena.reasoner.ReasonerRegistry;
 import org.apache.jena.riot.RDFDataMgr;
 import org.apache.jena.riot.RDFFormat;
+import org.apache.jena.riot.RDFLanguages;
 import org.apache.jena.riot.RiotException;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.riot.system.StreamRDFLib;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.sparql.graph.GraphFactory;
+import org.apache.jena.sparql.vocabulary.FOAF;
+import org.apache.jena.tdb.TDBFactory;
 import org.apache.jena.util.ResourceUtils;
+import org.apache.jena.vocabulary.OWL;
 import org.apache.jena.vocabulary.RDF;
 import org.apache.jena.vocabulary.RDFS;
 import org.apache.logging.log4j.LogManager;
@@ -43,25 +79,53 @@ import org.junit.Assert;
 public class Main {
     
     private static final Logger LOGGER = LogManager.getLogger(Main.class);
+    // printModel output: in line with LOGGER's, without its %L (log4j2.xml)
+    private static final Logger DUMP_LOGGER = 
+            LogManager.getLogger(Main.class.getName() + ".dump");
+    private static final long PRINT_LIMIT = 1000;
     
     public static void main(String[] args) {
         
         LOGGER.info("Start");
         // testResourceRenaming();
+        // testVocabularyMigration();
         // testAddStmtIteratorToModel();
+        // testGraphProjection();
         // testEmptyObject();
+        // testIriValidator();
+        // testDirectoryIngester();
+        // testSkolemizer();
+        // testScenarioRunner();
         // testModifyLiteralString();
         // testLiteralSameValueAs();
+        // testLiteralIndex();
         // testLiteralNoLanguage();
         // testNodeGetLiteral();
         // testIteratorToList();
         // testIteratorToListAndForeachRemaining();
+        // testGraphStreams();
         // testAssertionsAndRetractions();
+        // testChangesetApplier();
         // testUriChars();
         // testModelRemovesDuplicateTriples();
+        // testParallelNTriples();
+        // testStreamingDedup();
+        // testTurtleStreamWriter();
+        // testRdfFiles();
+        // testJsonLdStreamParser();
         // testEmptyIteratorToList();
         // testInfModel();
+        // testMetrics();
         // testAddModel();
+        // testModelDumper();
+        // testOntologyCache();
+        // testHierarchyClosure();
+        // testIncrementalInference();
+        // testDescribeByIri();
+        // testQueryCache();
+        // testGraphFingerprint();
+        // testOffHeapGraph();
+        // testSnapshotGraph();
         testChangeString();
 
         LOGGER.info("End tests.");
@@ -100,6 +164,569 @@ public class Main {
         printModel(data, "added empty model");
     }
     
+    private static void testModelDumper() {
+        
+        Model data = ModelFactory.createDefaultModel(); 
+        data.read("rdf/data/102063.nt");
+        
+        // Sampled log output
+        long size = data.size();
+        Assert.assertEquals(2, new ModelDumper().limit(2).log(data, "first two:"));
+        Assert.assertEquals((size + 2) / 3, 
+                new ModelDumper().every(3).log(data, "every third:"));
+        Assert.assertEquals(data.listStatements(null, RDF.type, (RDFNode) null)
+                .toList().size(), 
+                new ModelDumper().predicate(RDF.type).log(data, "types only:"));
+        
+        // Straight to a stream, no per-statement strings; pretty Turtle is
+        // written as streaming Turtle
+        for (RDFFormat format : new RDFFormat[] { RDFFormat.TURTLE_BLOCKS, 
+                RDFFormat.TURTLE, RDFFormat.NTRIPLES }) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            Assert.assertEquals(size, new ModelDumper().write(data, bytes, format));
+            Model back = ModelFactory.createDefaultModel();
+            back.read(new ByteArrayInputStream(bytes.toByteArray()), null, 
+                    format.getLang().getName());
+            Assert.assertTrue(back.isIsomorphicWith(data));
+        }
+        
+        Model big = ModelFactory.createModelForGraph(
+                new SyntheticData().generateTriples(200000));
+        long start = System.nanoTime();
+        Assert.assertEquals(big.size(), new ModelDumper().write(big, 
+                new NullOutputStream(), RDFFormat.NTRIPLES));
+        LOGGER.info(big.size() + " statements written in " 
+                + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+
+    private static void testOntologyCache() {
+        /**
+         * The first load of each ontology parses the source file and writes a
+         * Thrift snapshot; a fresh cache then reads the snapshot instead.
+         */
+        for (int i = 0; i < 2; i++) {
+            OntologyCache cache = new OntologyCache(
+                    OntologyCache.DEFAULT_CATALOG, OntologyCache.DEFAULT_CACHE_DIR);
+            for (String iri : cache.getCatalog().keySet()) {
+                long start = System.nanoTime();
+                Model ont = cache.load(iri);
+                LOGGER.info(iri + ": " + ont.size() + " triples in " 
+                        + (System.nanoTime() - start) / 1000000 + " ms");
+            }
+        }
+        
+        Model parsed = ModelFactory.createDefaultModel();
+        parsed.read("rdf/ontologies/bibframe.2014-12-10.rdf");
+        Model cached = OntologyCache.getDefault().load("http://bibframe.org/vocab/");
+        Assert.assertTrue(parsed.isIsomorphicWith(cached));
+    }
+
+    private static void testHierarchyClosure() {
+        
+        Model data = ModelFactory.createDefaultModel(); 
+        data.read("rdf/data/102063.nt");
+        
+        OntologyCache cache = OntologyCache.getDefault();
+        Model bfOnt = cache.load("http://bibframe.org/vocab/");
+        
+        long start = System.nanoTime();
+        HierarchyClosure closure = HierarchyClosure.build(bfOnt);
+        LOGGER.info("Closure over " + closure.getClassCount() + " classes and " 
+                + closure.getPropertyCount() + " properties built in " 
+                + (System.nanoTime() - start) / 1000000 + " ms");
+        
+        start = System.nanoTime();
+        InfModel infModel = ModelFactory.createInfModel(
+                ReasonerRegistry.getOWLReasoner(), bfOnt, data);
+        infModel.prepare();
+        LOGGER.info("OWL inf model: " + infModel.size() + " triples in " 
+                + (System.nanoTime() - start) / 1000000 + " ms");
+        
+        Model materialized = ModelFactory.createDefaultModel().add(data);
+        start = System.nanoTime();
+        int added = closure.materialize(materialized);
+        LOGGER.info("Materialized: " + added + " triples added in " 
+                + (System.nanoTime() - start) / 1000 + " us");
+        
+        // Every type the closure knows about must agree with the reasoner,
+        // both for the lazy check and the materialized model.
+        Resource work = data.getResource("http://draft.ld4l.org/cornell/102063");
+        Resource workClass = data.getResource("http://bibframe.org/vocab/Work");
+        Assert.assertTrue(closure.hasType(data, work, workClass));
+        Assert.assertTrue(materialized.contains(work, RDF.type, workClass));
+        
+        int checked = 0;
+        for (RDFNode node : data.listObjects().andThen(data.listSubjects()).toSet()) {
+            if (!node.isURIResource()) {
+                continue;
+            }
+            Resource r = node.asResource();
+            for (Statement stmt : infModel.listStatements(
+                    null, RDF.type, (RDFNode) null).toList()) {
+                Resource cls = stmt.getObject().asResource();
+                if (!cls.isURIResource() || closure.getSuperClasses(cls.asNode()).isEmpty()) {
+                    continue;
+                }
+                boolean expected = infModel.contains(r, RDF.type, cls);
+                Assert.assertEquals(r + " a " + cls, expected, 
+                        closure.hasType(data, r, cls));
+                if (!cls.equals(RDFS.Resource) && !cls.equals(OWL.Thing)) {
+                    Assert.assertEquals(r + " a " + cls, expected, 
+                            materialized.contains(r, RDF.type, cls));
+                }
+                checked++;
+            }
+        }
+        LOGGER.info("Checked " + checked + " type questions against the OWL reasoner");
+        
+        // The inverse of a super-property types both ends too, and so does
+        // the domain of an inverse of a super-property of an inverse
+        Model ont = ModelFactory.createDefaultModel();
+        String ex = "http://example.org/";
+        Property p = ont.createProperty(ex + "p");
+        Property q = ont.createProperty(ex + "q");
+        Property r = ont.createProperty(ex + "r");
+        Resource c = ont.createResource(ex + "C");
+        Resource d = ont.createResource(ex + "D");
+        ont.add(p, RDFS.subPropertyOf, q);
+        ont.add(q, OWL.inverseOf, r);
+        ont.add(r, RDFS.range, c);
+        ont.add(r, RDFS.domain, d);
+        ont.add(c, RDFS.subClassOf, OWL.Thing);
+        ont.add(d, RDFS.subClassOf, OWL.Thing);
+        Property u = ont.createProperty(ex + "u");
+        Property v = ont.createProperty(ex + "v");
+        Property w = ont.createProperty(ex + "w");
+        Property x = ont.createProperty(ex + "x");
+        Resource e = ont.createResource(ex + "E");
+        ont.add(u, OWL.inverseOf, v);
+        ont.add(v, RDFS.subPropertyOf, w);
+        ont.add(w, OWL.inverseOf, x);
+        ont.add(x, RDFS.domain, e);
+        ont.add(e, RDFS.subClassOf, OWL.Thing);
+        HierarchyClosure inverse = HierarchyClosure.build(ont);
+        Model small = ModelFactory.createDefaultModel();
+        Resource s = small.createResource(ex + "s");
+        Resource o = small.createResource(ex + "o");
+        small.add(s, p, o);
+        Resource s2 = small.createResource(ex + "s2");
+        Resource o2 = small.createResource(ex + "o2");
+        small.add(s2, u, o2);
+        materialized = ModelFactory.createDefaultModel().add(small);
+        inverse.materialize(materialized);
+        for (Resource node : new Resource[] { s, o, s2, o2 }) {
+            for (Resource cls : new Resource[] { c, d, e }) {
+                Assert.assertEquals(node + " a " + cls, 
+                        materialized.contains(node, RDF.type, cls), 
+                        inverse.hasType(small, node, cls));
+            }
+        }
+        Assert.assertTrue(inverse.hasType(small, s, c));
+        Assert.assertTrue(inverse.hasType(small, s2, e));
+    }
+
+    private static void testIncrementalInference() {
+        
+        Model bfOnt = OntologyCache.getDefault().load("http://bibframe.org/vocab/");
+        HierarchyClosure closure = HierarchyClosure.build(bfOnt);
+        Resource workClass = bfOnt.getResource("http://bibframe.org/vocab/Work");
+        Resource text = bfOnt.getResource("http://bibframe.org/vocab/Text");
+        
+        Model raw = ModelFactory.createModelForGraph(
+                new SyntheticData().generate(20000));
+        long start = System.nanoTime();
+        IncrementalInference inference = IncrementalInference.on(raw, closure);
+        Model inf = inference.getModel();
+        LOGGER.info("Initial inference over " + raw.size() + " triples: " 
+                + inference.getInferredGraph().size() + " entailments in " 
+                + (System.nanoTime() - start) / 1000000 + " ms");
+        
+        // A small changeset: retract the type of a few works, and give a
+        // few others a new contributor.
+        Model retractions = ModelFactory.createDefaultModel();
+        Model assertions = ModelFactory.createDefaultModel();
+        Property contributor = bfOnt.getProperty("http://bibframe.org/vocab/contributor");
+        for (int i = 0; i < 10; i++) {
+            Resource work = raw.getResource(SyntheticData.recordIri(i));
+            retractions.add(work, RDF.type, text);
+            assertions.add(raw.getResource(SyntheticData.recordIri(i + 100)), 
+                    contributor, raw.getResource(SyntheticData.recordIri(i) + "person"));
+        }
+        
+        start = System.nanoTime();
+        raw.remove(retractions);
+        raw.add(assertions);
+        LOGGER.info("Incremental update for " + (retractions.size() + assertions.size()) 
+                + " changed triples: " + (System.nanoTime() - start) / 1000 + " us");
+        
+        Model recomputed = ModelFactory.createDefaultModel().add(raw);
+        start = System.nanoTime();
+        closure.materialize(recomputed);
+        LOGGER.info("Full recompute: " + (System.nanoTime() - start) / 1000 + " us");
+        Assert.assertEquals(recomputed.size(), inf.size());
+        Assert.assertTrue(recomputed.containsAll(inf));
+        
+        // Without its own rdf:type the work is still a Work: the domain of
+        // bf:workTitle says so. A resource that was typed only through the
+        // retracted triple loses the type.
+        Resource work0 = inf.getResource(SyntheticData.recordIri(0));
+        Assert.assertFalse(inf.contains(work0, RDF.type, text));
+        Assert.assertTrue(inf.contains(work0, RDF.type, workClass));
+        Assert.assertTrue(inference.getSupport(Triple.create(work0.asNode(), 
+                RDF.type.asNode(), workClass.asNode())) > 1);
+        
+        // Changes made through the inference model go to the raw data.
+        inf.remove(assertions);
+        inf.add(retractions);
+        Assert.assertFalse(raw.containsAny(assertions));
+        Assert.assertTrue(raw.containsAll(retractions));
+        recomputed = ModelFactory.createDefaultModel().add(raw);
+        closure.materialize(recomputed);
+        Assert.assertTrue(recomputed.isIsomorphicWith(inf));
+        LOGGER.info("Inference model: " + inf.size() + " triples, matches recompute");
+    }
+
+    private static void testGraphFingerprint() {
+        
+        // Each read gets new blank node labels
+        Model first = ModelFactory.createDefaultModel();
+        first.read("test-input/empty-object/72topic11.nt");
+        Model second = ModelFactory.createDefaultModel();
+        second.read("test-input/empty-object/72topic11.nt");
+        Assert.assertTrue(first.isIsomorphicWith(second));
+        Assert.assertEquals(GraphFingerprint.of(first), 
+                GraphFingerprint.of(second));
+        
+        // Kept up to date as the model changes
+        GraphFingerprint fingerprint = new GraphFingerprint();
+        fingerprint.attach(first.getGraph());
+        long loaded = fingerprint.get();
+        Statement stmt = first.listStatements().next();
+        first.remove(stmt);
+        Assert.assertNotEquals(loaded, fingerprint.get());
+        Assert.assertEquals(GraphFingerprint.of(first), fingerprint.get());
+        first.remove(stmt);
+        first.add(stmt);
+        first.add(stmt);
+        Assert.assertEquals(loaded, fingerprint.get());
+        
+        // Same shape, one blank node's literal changed
+        Resource bnode = first.listSubjects().filterKeep(r -> r.isAnon())
+                .next();
+        Property label = first.createProperty("urn:jenatest:label");
+        first.add(bnode, label, "x");
+        second.add(second.listSubjects().filterKeep(r -> r.isAnon()).next(), 
+                label, "y");
+        Assert.assertNotEquals(fingerprint.get(), GraphFingerprint.of(second));
+        Assert.assertEquals(first.isIsomorphicWith(second), 
+                fingerprint.get() == GraphFingerprint.of(second));
+        fingerprint.detach(first.getGraph());
+        
+        // Larger data: a whole-graph hash vs. an isomorphism check
+        Graph graph = new SyntheticData().generate(20000);
+        Graph copy = GraphFactory.createDefaultGraph();
+        GraphUtil.addInto(copy, graph);
+        long start = System.nanoTime();
+        long hash = GraphFingerprint.of(graph);
+        LOGGER.info("Fingerprint of " + graph.size() + " triples: " 
+                + (System.nanoTime() - start) / 1000000 + " ms");
+        start = System.nanoTime();
+        Assert.assertTrue(graph.isIsomorphicWith(copy));
+        LOGGER.info("Isomorphism check: " 
+                + (System.nanoTime() - start) / 1000000 + " ms");
+        Assert.assertEquals(hash, GraphFingerprint.of(copy));
+        
+        // Edits that join and split blank node components
+        graph = GraphFactory.createDefaultGraph();
+        Node link = NodeFactory.createURI("urn:jenatest:link");
+        List<Node> bnodes = new ArrayList<Node>();
+        for (int i = 0; i < 1000; i++) {
+            Node blank = NodeFactory.createBlankNode();
+            bnodes.add(blank);
+            graph.add(Triple.create(NodeFactory.createURI("urn:jenatest:" + i), 
+                    link, blank));
+            graph.add(Triple.create(blank, label.asNode(), 
+                    NodeFactory.createLiteral(String.valueOf(i % 10))));
+        }
+        fingerprint = new GraphFingerprint();
+        fingerprint.attach(graph);
+        fingerprint.get();
+        Triple join = Triple.create(bnodes.get(0), link, bnodes.get(1));
+        Triple other = Triple.create(bnodes.get(1), link, bnodes.get(2));
+        graph.add(join);
+        Assert.assertEquals(GraphFingerprint.of(graph), fingerprint.get());
+        graph.add(other);
+        graph.delete(join);
+        Assert.assertEquals(GraphFingerprint.of(graph), fingerprint.get());
+        graph.delete(other);
+        graph.remove(bnodes.get(2), Node.ANY, Node.ANY);
+        Assert.assertEquals(GraphFingerprint.of(graph), fingerprint.get());
+        fingerprint.detach(graph);
+    }
+
+    private static void testOffHeapGraph() {
+        
+        Model expected = ModelFactory.createDefaultModel();
+        expected.read("rdf/data/102063.nt");
+        Model model = OffHeapGraph.createModel();
+        model.read("rdf/data/102063.nt");
+        Assert.assertEquals(expected.size(), model.size());
+        Assert.assertTrue(model.isIsomorphicWith(expected));
+        
+        // Same answers to the same lookups
+        Resource work = model.getResource("http://draft.ld4l.org/cornell/102063");
+        Assert.assertEquals(expected.listStatements(work, null, (RDFNode) null).toList().size(),
+                model.listStatements(work, null, (RDFNode) null).toList().size());
+        Assert.assertEquals(expected.listStatements(null, RDF.type, (RDFNode) null).toList().size(),
+                model.listStatements(null, RDF.type, (RDFNode) null).toList().size());
+        for (Statement stmt : expected.listStatements().toList()) {
+            Assert.assertTrue(model.contains(stmt));
+            Assert.assertEquals(1, model.listStatements(stmt.getSubject(), 
+                    stmt.getPredicate(), stmt.getObject()).toList().size());
+        }
+        
+        // Removing, re-adding and adding twice
+        Statement stmt = expected.listStatements().next();
+        model.remove(stmt);
+        Assert.assertFalse(model.contains(stmt));
+        Assert.assertEquals(expected.size() - 1, model.size());
+        model.add(stmt);
+        model.add(stmt);
+        Assert.assertTrue(model.isIsomorphicWith(expected));
+        model.removeAll(work, null, null);
+        expected.removeAll(work, null, null);
+        Assert.assertTrue(model.isIsomorphicWith(expected));
+        
+        // Heap used by many records, with the default graph and off heap
+        SyntheticData synth = new SyntheticData();
+        int records = 200000;
+        for (int i = 0; i < 2; i++) {
+            long before = usedHeap();
+            Graph graph = i == 0 ? GraphFactory.createDefaultGraph() 
+                    : new OffHeapGraph();
+            long start = System.nanoTime();
+            for (int r = 0; r < records; r++) {
+                synth.addRecord(graph, r);
+            }
+            Assert.assertEquals(records * synth.getTriplesPerRecord(), 
+                    graph.size());
+            long millis = (System.nanoTime() - start) / 1000000;
+            long heap = usedHeap() - before;
+            LOGGER.info(graph.getClass().getSimpleName() + ": " + graph.size() 
+                    + " triples in " + millis + " ms, " 
+                    + heap / graph.size() + " heap bytes/triple" 
+                    + (graph instanceof OffHeapGraph 
+                            ? ", " + ((OffHeapGraph) graph).offHeapBytes() 
+                                    / graph.size() + " off-heap bytes/triple" 
+                            : ""));
+            graph.close();
+        }
+    }
+    
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void testSnapshotGraph() {
+        
+        SyntheticData synth = new SyntheticData();
+        SnapshotGraph graph = new SnapshotGraph();
+        Graph initial = synth.generate(5000);
+        graph.commit(new ArrayList<Triple>(), 
+                initial.find(Node.ANY, Node.ANY, Node.ANY).toList());
+        int size = graph.size();
+        SnapshotGraph.Snapshot before = graph.snapshot();
+        Node record0 = NodeFactory.createURI(SyntheticData.recordIri(0));
+        
+        // Each commit swaps a record for a new one, so every consistent
+        // view has the same number of triples.
+        AtomicLong reads = new AtomicLong();
+        AtomicLong torn = new AtomicLong();
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 500; i++) {
+                Graph retract = GraphFactory.createDefaultGraph();
+                Graph assert_ = GraphFactory.createDefaultGraph();
+                synth.addRecord(retract, i);
+                synth.addRecord(assert_, 5000 + i);
+                graph.commit(retract.find(Node.ANY, Node.ANY, Node.ANY).toList(), 
+                        assert_.find(Node.ANY, Node.ANY, Node.ANY).toList());
+            }
+        });
+        List<Thread> readers = new ArrayList<Thread>();
+        for (int r = 0; r < 3; r++) {
+            // At least one read each, even if the writer is already done
+            readers.add(new Thread(() -> {
+                do {
+                    SnapshotGraph.Snapshot snapshot = graph.snapshot();
+                    long count = snapshot.find(Node.ANY, Node.ANY, Node.ANY)
+                            .toList().size();
+                    if (count != size || snapshot.size() != size) {
+                        torn.incrementAndGet();
+                    }
+                    reads.incrementAndGet();
+                } while (writer.isAlive());
+            }));
+        }
+        long start = System.nanoTime();
+        writer.start();
+        readers.forEach(Thread::start);
+        try {
+            writer.join();
+            for (Thread reader : readers) {
+                reader.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        LOGGER.info("500 commits with " + reads.get() + " concurrent full reads in " 
+                + (System.nanoTime() - start) / 1000000 + " ms, version " 
+                + graph.getVersion());
+        Assert.assertTrue(reads.get() > 0);
+        Assert.assertEquals(0, torn.get());
+        Assert.assertEquals(size, graph.size());
+        
+        // The old snapshot still sees the graph as it was.
+        Assert.assertEquals(size, before.size());
+        Assert.assertTrue(before.contains(record0, Node.ANY, Node.ANY));
+        Assert.assertFalse(graph.contains(record0, Node.ANY, Node.ANY));
+        
+        // SPARQL over a snapshot
+        Query query = QueryFactory.create(
+                "SELECT (COUNT(*) AS ?n) WHERE { ?s a <http://bibframe.org/vocab/Text> }");
+        QueryExecution qexec = QueryExecutionFactory.create(
+                query, graph.snapshot().getDataset());
+        LOGGER.info("Texts in the latest snapshot: " 
+                + qexec.execSelect().next().getLiteral("n").getInt());
+        qexec.close();
+        
+        // Single adds and deletes commit one at a time, through a Model.
+        Model model = ModelFactory.createModelForGraph(graph);
+        Resource mary = model.createResource("http://example.com/people/mary");
+        Property loves = model.createProperty("http://example.com/vocab/loves");
+        model.add(mary, loves, mary);
+        Assert.assertTrue(graph.snapshot().getModel().contains(mary, loves, mary));
+        model.remove(mary, loves, mary);
+        Assert.assertEquals(size, graph.size());
+    }
+
+    private static void testQueryCache() {
+        
+        QueryCache cache = new QueryCache();
+        Query template = QueryCache.recordTemplate();
+        LOGGER.info(template);
+        QueryCache.Prepared prepared = cache.prepare(template);
+        Assert.assertSame(prepared, cache.prepare(template));
+        Assert.assertEquals(1, cache.getHits());
+        
+        // Same result as the CONSTRUCT in testInfModel
+        Model data = ModelFactory.createDefaultModel(); 
+        data.read("rdf/data/102063.nt");
+        String iri = "http://draft.ld4l.org/cornell/102063";
+        Model expected = QueryExecutionFactory.create(
+                describeQuery(iri), data).execConstruct();
+        Assert.assertTrue(expected.isIsomorphicWith(
+                prepared.construct(data, "record", iri)));
+        
+        // SELECT with a bound parameter
+        QueryCache.Prepared types = cache.prepare(
+                "SELECT ?type WHERE { ?record a ?type }");
+        Map<String, Node> params = new HashMap<String, Node>();
+        params.put("record", NodeFactory.createURI(iri));
+        Assert.assertEquals(data.listObjectsOfProperty(
+                data.getResource(iri), RDF.type).toList().size(), 
+                types.select(data, params).size());
+        
+        // Per-record loop: parse each query vs. bind a prepared one. Both
+        // use the UNION form, so only parse/optimize cost differs.
+        int records = 20000;
+        Model big = ModelFactory.createModelForGraph(
+                new SyntheticData().generate(records));
+        String text = template.serialize();
+        int sample = 2000;
+        long start = System.nanoTime();
+        for (int i = 0; i < sample; i++) {
+            QueryExecutionFactory.create(QueryFactory.create(text.replace(
+                    "?record", "<" + SyntheticData.recordIri(i) + ">")), big)
+                    .execConstruct();
+        }
+        double parsedPerIri = (System.nanoTime() - start) / (double) sample;
+        start = System.nanoTime();
+        for (int i = 0; i < sample; i++) {
+            Assert.assertEquals(6, cache.prepare(template).construct(
+                    big, "record", SyntheticData.recordIri(i)).size());
+        }
+        double preparedPerIri = (System.nanoTime() - start) / (double) sample;
+        
+        int threads = Runtime.getRuntime().availableProcessors();
+        AtomicLong triples = new AtomicLong();
+        start = System.nanoTime();
+        prepared.constructAll(big, "record", 
+                new SyntheticData().recordIris(records), threads, 
+                (record, model) -> triples.addAndGet(model.size()));
+        double concurrentPerIri = (System.nanoTime() - start) / (double) records;
+        Assert.assertEquals(big.size(), triples.get());
+        LOGGER.info(String.format("parse per IRI: %.1f us; prepared: %.1f us; "
+                + "prepared, %d threads: %.1f us", parsedPerIri / 1000, 
+                preparedPerIri / 1000, threads, concurrentPerIri / 1000));
+    }
+
+    private static void testDescribeByIri() {
+
+        // Same result as the CONSTRUCT in testInfModel
+        Model data = ModelFactory.createDefaultModel(); 
+        data.read("rdf/data/102063.nt");
+        String iri = "http://draft.ld4l.org/cornell/102063";
+        Model expected = QueryExecutionFactory.create(
+                describeQuery(iri), data).execConstruct();
+        Model described = new ResourceDescriber(data).describe(iri);
+        Assert.assertTrue(described.isIsomorphicWith(expected));
+        
+        // Benchmark on a synthetic graph of about a million triples. The 
+        // CONSTRUCT scans the whole graph per IRI, so only time a sample.
+        SyntheticData synth = new SyntheticData();
+        Model big = ModelFactory.createModelForGraph(
+                synth.generateTriples(1000000));
+        int records = (int) (big.size() / synth.getTriplesPerRecord());
+        LOGGER.info("Synthetic graph: " + big.size() + " triples, " 
+                + records + " records");
+        
+        int sample = 20;
+        long start = System.nanoTime();
+        for (int i = 0; i < sample; i++) {
+            QueryExecutionFactory.create(describeQuery(
+                    SyntheticData.recordIri(i)), big).execConstruct();
+        }
+        double sparqlPerIri = (System.nanoTime() - start) / (double) sample;
+        
+        List<String> iris = synth.recordIris(records);
+        int threads = Runtime.getRuntime().availableProcessors();
+        ResourceDescriber describer = new ResourceDescriber(big.getGraph(), 1);
+        AtomicLong triples = new AtomicLong();
+        start = System.nanoTime();
+        describer.describeAll(iris, threads, 
+                (record, model) -> triples.addAndGet(model.size()));
+        double describePerIri = (System.nanoTime() - start) / (double) records;
+        Assert.assertEquals(big.size(), triples.get());
+        
+        LOGGER.info(String.format(
+                "CONSTRUCT: %.1f us/IRI; describeAll (%d threads): %.2f us/IRI;"
+                + " speedup %.0fx", sparqlPerIri / 1000, threads, 
+                describePerIri / 1000, sparqlPerIri / describePerIri));
+    }
+    
+    private static Query describeQuery(String iri) {
+        return QueryFactory.create("CONSTRUCT { ?s ?p ?o } WHERE { " 
+                + "?s ?p ?o "
+                + "FILTER (?s = <" + iri + "> || "
+                + "?o = <" + iri + ">)"
+                + " }");
+    }
+
     private static void testInfModel() {
 
         // Read the data into a model
@@ -123,13 +750,10 @@ public class Main {
         Model dataModel = qexec.execConstruct(); 
         LOGGER.info("Data model size: " + dataModel.size());
         
-        // Read the ontology into a model
-        OntModel bfOnt = ModelFactory.createOntologyModel(); 
-        try {
-            bfOnt.read("http://bibframe.org/vocab/");
-        } catch (RiotException e) {
-           e.printStackTrace();
-        }
+        // Read the ontology into a model from the local cache rather than
+        // fetching it from bibframe.org
+        OntModel bfOnt = 
+                OntologyCache.getDefault().createOntModel("http://bibframe.org/vocab/");
         
         Reasoner owlReasoner = ReasonerRegistry.getOWLReasoner();
         InfModel infModel = 
@@ -153,6 +777,89 @@ public class Main {
      
     }
 
+    private static void testMetrics() {
+        
+        // Loaded up front: a snapshot read or write would count as file I/O
+        // only the first time.
+        OntologyCache.getDefault().load("http://bibframe.org/vocab/");
+        Metrics metrics = Metrics.getDefault();
+        metrics.reset();
+        Metrics.setEnabled(true);
+        String events = "test-output/metrics-events.jsonl";
+        String nt = "test-output/metrics.nt";
+        try (Metrics.EventLog log = new Metrics.EventLog(events)) {
+            Closeable reporter = metrics.startReporter(1, TimeUnit.SECONDS);
+            metrics.addListener(log);
+            
+            // The steps of testInfModel, each one timed
+            Graph data = GraphFactory.createDefaultGraph();
+            RdfFiles.read(data, "rdf/data/102063.nt");
+            Model record = new QueryCache().prepare(QueryCache.recordTemplate())
+                    .construct(ModelFactory.createModelForGraph(data), "record", 
+                            "http://draft.ld4l.org/cornell/102063");
+            OntModel bfOnt;
+            try (Metrics.Timer timer = Metrics.start("ontology")) {
+                bfOnt = OntologyCache.getDefault().createOntModel(
+                        "http://bibframe.org/vocab/");
+                timer.size(bfOnt.size());
+            }
+            try (Metrics.Timer timer = Metrics.start("infer-owl")) {
+                InfModel infModel = ModelFactory.createInfModel(
+                        ReasonerRegistry.getOWLReasoner(), bfOnt, record);
+                timer.size(infModel.size());
+            }
+            HierarchyClosure.build(bfOnt).materialize(record);
+            
+            // And a bigger graph through write, read and a changeset
+            Graph graph = new SyntheticData().generate(20000);
+            RdfFiles.write(graph, nt);
+            RdfFiles.read(GraphFactory.createDefaultGraph(), nt);
+            String changeset = "test-output/metrics.rdfp";
+            try (FileOutputStream out = new FileOutputStream(changeset)) {
+                ChangesetApplier.write(ModelFactory.createModelForGraph(
+                        new SyntheticData().generate(1000)), null, out);
+            }
+            new ChangesetApplier(TDBFactory.createDataset()).apply(changeset);
+            new File(changeset).delete();
+            
+            metrics.removeListener(log);
+            reporter.close();
+            LOGGER.info("Metrics:\n" + metrics.report());
+            Assert.assertEquals(2, metrics.getStats("read").getCount());
+            Assert.assertEquals(data.size() + graph.size(), 
+                    metrics.getStats("read").getTriples());
+            Assert.assertEquals(graph.size(), metrics.getStats("write").getTriples());
+            Assert.assertEquals(record.size(), metrics.getStats("infer").getSize());
+            Assert.assertTrue(metrics.getStats("delta").getTriples() > 0);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            Metrics.setEnabled(false);
+            new File(nt).delete();
+        }
+        
+        try (Stream<String> lines = Files.lines(Paths.get(events))) {
+            long count = lines.count();
+            LOGGER.info(count + " events recorded in " + events);
+            Assert.assertEquals(8, count);
+            new File(events).delete();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        
+        // Switched off, a timed operation is a volatile read
+        long start = System.nanoTime();
+        int n = 10000000;
+        for (int i = 0; i < n; i++) {
+            try (Metrics.Timer timer = Metrics.start("off")) {
+                timer.triples(i);
+            }
+        }
+        LOGGER.info(String.format("Disabled timer: %.1f ns", 
+                (System.nanoTime() - start) / (double) n));
+        Assert.assertNull(metrics.getStats("off"));
+    }
+
     private static void testModelRemovesDuplicateTriples() {
         /**
          * Test whether reading in and/or writing out a Jena model removes 
@@ -181,6 +888,380 @@ public class Main {
     }
     
     
+    private static void testParallelNTriples() {
+        
+        try {
+            // Synthetic records plus the awkward cases: escapes, non-ASCII,
+            // language tags, datatypes, blank nodes, comments and blank lines
+            File nt = File.createTempFile("parallel-", ".nt");
+            RdfFiles.write(new SyntheticData().generateTriples(20000), 
+                    nt.getPath());
+            Files.write(nt.toPath(), Arrays.asList(
+                    "# a comment",
+                    "",
+                    "<http://example.org/a> <http://example.org/p> \"say \\\"hi\\\"\\n\\tbye\" .",
+                    "<http://example.org/a> <http://example.org/p> \"\u014Csaka\"@ja-Latn .",
+                    "<http://example.org/a> <http://example.org/p> \"\\u014Csaka \\U0001F600\" . # trailing",
+                    "<http://example.org/\\u00E9> <http://example.org/p> \"42\"^^<http://www.w3.org/2001/XMLSchema#integer> .",
+                    "_:b1 <http://example.org/p> _:b2.",
+                    "\t_:b2  <http://example.org/p>  _:b1 ."),
+                    StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+            
+            Model expected = ModelFactory.createDefaultModel();
+            long start = System.nanoTime();
+            expected.read(nt.getPath());
+            LOGGER.info("Model.read: " + expected.size() + " triples in " 
+                    + (System.nanoTime() - start) / 1000000 + " ms");
+            
+            Graph loaded = GraphFactory.createDefaultGraph();
+            start = System.nanoTime();
+            long parsed = new ParallelNTriples(4).load(nt.getPath(), loaded);
+            LOGGER.info("ParallelNTriples: " + parsed + " triples in " 
+                    + (System.nanoTime() - start) / 1000000 + " ms");
+            Assert.assertEquals(expected.size(), parsed);
+            Assert.assertTrue(loaded.isIsomorphicWith(expected.getGraph()));
+            
+            // One sink per chunk
+            List<AtomicLong> counts = new ArrayList<AtomicLong>();
+            new ParallelNTriples(2).parse(nt.getPath(), chunk -> {
+                AtomicLong count = new AtomicLong();
+                synchronized (counts) {
+                    counts.add(count);
+                }
+                return new StreamRDFBase() {
+                    @Override
+                    public void triple(Triple triple) {
+                        count.incrementAndGet();
+                    }
+                };
+            });
+            LOGGER.info("Chunks: " + counts);
+            Assert.assertEquals(parsed, 
+                    counts.stream().mapToLong(AtomicLong::get).sum());
+            
+            // Errors give the offset
+            Files.write(nt.toPath(), Arrays.asList(
+                    "<http://example.org/a> <http://example.org/p> \"open ."),
+                    StandardCharsets.UTF_8);
+            try {
+                new ParallelNTriples(2).load(nt.getPath(), 
+                        GraphFactory.createDefaultGraph());
+                Assert.fail();
+            } catch (RiotException e) {
+                LOGGER.info("Bad line: " + e.getMessage());
+            }
+            nt.delete();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    private static void testStreamingDedup() {
+        /**
+         * Test that the streaming dedup produces the same triples as reading
+         * the file into a model, both in memory and when a tiny memory budget
+         * forces spilled runs and a merge.
+         */
+        String infile = "test-input/input.nt";
+        String outfile = "test-output/output-dedup.nt";
+        try {
+            Model expected = ModelFactory.createDefaultModel();
+            expected.read(infile);
+
+            StreamingDedup dedup = new StreamingDedup();
+            Assert.assertEquals(11, dedup.dedup(infile, outfile));
+            Assert.assertEquals(13, dedup.getTriplesRead());
+            Assert.assertEquals(0, dedup.getRunCount());
+            Model model = ModelFactory.createDefaultModel();
+            model.read(outfile);
+            Assert.assertTrue(model.isIsomorphicWith(expected));
+
+            dedup = new StreamingDedup(512, null);
+            Assert.assertEquals(11, dedup.dedup(infile, outfile));
+            Assert.assertTrue(dedup.getRunCount() > 1);
+            model = ModelFactory.createDefaultModel();
+            model.read(outfile);
+            Assert.assertTrue(model.isIsomorphicWith(expected));
+            try (Stream<String> lines = Files.lines(Paths.get(outfile))) {
+                Assert.assertEquals(11, lines.count());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void testTurtleStreamWriter() {
+        
+        try {
+            // Sorted dedup output as Turtle: one statement per subject
+            Model expected = ModelFactory.createDefaultModel();
+            expected.read("test-input/input.nt");
+            String ttl = "test-output/output-dedup.ttl";
+            new StreamingDedup().dedup("test-input/input.nt", ttl);
+            Model model = ModelFactory.createDefaultModel();
+            model.read(ttl);
+            Assert.assertTrue(model.isIsomorphicWith(expected));
+            LOGGER.info(new String(Files.readAllBytes(Paths.get(ttl)), 
+                    StandardCharsets.UTF_8));
+            
+            // A large graph with prefixes, against N-Triples
+            Graph graph = new SyntheticData().generateTriples(50000);
+            Map<String, String> prefixes = new LinkedHashMap<String, String>();
+            prefixes.put("bf", "http://bibframe.org/vocab/");
+            prefixes.put("synth", "http://draft.ld4l.org/cornell/");
+            prefixes.put("xsd", "http://www.w3.org/2001/XMLSchema#");
+            File nt = File.createTempFile("turtle-", ".nt");
+            File turtle = File.createTempFile("turtle-", ".ttl");
+            RdfFiles.write(graph, nt.getPath());
+            try (OutputStream out = RdfFiles.create(turtle.getPath())) {
+                StreamRDF writer = new TurtleStreamWriter(out, prefixes, false);
+                writer.start();
+                graph.find(Node.ANY, Node.ANY, Node.ANY)
+                        .forEachRemaining(writer::triple);
+                writer.finish();
+            }
+            LOGGER.info("N-Triples " + nt.length() + " bytes, Turtle " 
+                    + turtle.length());
+            Assert.assertTrue(turtle.length() < nt.length());
+            Graph reread = GraphFactory.createDefaultGraph();
+            RdfFiles.read(reread, turtle.getPath());
+            Assert.assertTrue(reread.isIsomorphicWith(graph));
+            nt.delete();
+            turtle.delete();
+            
+            // Nested blank nodes, written inline from a depth-first walk
+            String nested = String.join("\n",
+                    "@prefix bf: <http://bibframe.org/vocab/> .",
+                    "<http://draft.ld4l.org/cornell/102063> a bf:Work ;",
+                    "    bf:workTitle [ bf:titleValue \"Physiology\\n\\\"2nd\\\"\"@en ;",
+                    "        bf:partNumber 2, 2.5, 2.5e0, true, \"x\"^^bf:Code ] ;",
+                    "    bf:contributor ( [ bf:label \"Gordon\" ] [ bf:label \"Andrews\" ] ) .",
+                    "[] bf:label \"orphan\" .");
+            Model source = ModelFactory.createDefaultModel();
+            source.read(new StringReader(nested), null, "TTL");
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            StreamRDF writer = new TurtleStreamWriter(bytes, 
+                    source.getNsPrefixMap(), true);
+            writer.start();
+            for (Node subject : GraphUtil.listSubjects(source.getGraph(), 
+                    Node.ANY, Node.ANY).toList()) {
+                if (subject.isURI() || !source.getGraph().contains(
+                        Node.ANY, Node.ANY, subject)) {
+                    walk(source.getGraph(), subject, writer);
+                }
+            }
+            writer.finish();
+            String written = bytes.toString("UTF-8");
+            LOGGER.info(written);
+            Assert.assertFalse(written.contains("_:"));
+            Model back = ModelFactory.createDefaultModel();
+            back.read(new StringReader(written), null, "TTL");
+            Assert.assertTrue(back.isIsomorphicWith(source));
+            
+            // A prefix bound again part way through, as a parser passes on
+            bytes = new ByteArrayOutputStream();
+            writer = new TurtleStreamWriter(bytes);
+            Node p = NodeFactory.createURI("http://example.org/p");
+            Graph rebound = GraphFactory.createDefaultGraph();
+            rebound.add(Triple.create(NodeFactory.createURI("http://a/x"), p, 
+                    NodeFactory.createURI("http://a/y")));
+            rebound.add(Triple.create(NodeFactory.createURI("http://b/x"), p, 
+                    NodeFactory.createURI("http://a/z")));
+            writer.start();
+            writer.prefix("ex", "http://a/");
+            List<Triple> triples = rebound.find(Node.ANY, Node.ANY, Node.ANY).toList();
+            writer.triple(triples.get(0));
+            writer.prefix("ex", "http://b/");
+            writer.triple(triples.get(1));
+            writer.finish();
+            written = bytes.toString("UTF-8");
+            LOGGER.info(written);
+            back = ModelFactory.createDefaultModel();
+            back.read(new StringReader(written), null, "TTL");
+            Assert.assertTrue(back.getGraph().isIsomorphicWith(rebound));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    /*
+     * The subject's triples, each blank object's straight after its own.
+     */
+    private static void walk(Graph graph, Node subject, StreamRDF dest) {
+        for (Triple t : graph.find(subject, Node.ANY, Node.ANY).toList()) {
+            dest.triple(t);
+            if (t.getObject().isBlank()) {
+                walk(graph, t.getObject(), dest);
+            }
+        }
+    }
+    
+    private static void testRdfFiles() {
+        
+        Graph graph = new SyntheticData().generate(20000);
+        Node odd = NodeFactory.createLiteral("01", XSDDatatype.XSDint);
+        graph.add(Triple.create(NodeFactory.createURI(SyntheticData.recordIri(0)), 
+                NodeFactory.createURI("http://example.com/vocab/count"), odd));
+        graph.add(Triple.create(NodeFactory.createBlankNode(), 
+                RDFS.label.asNode(), NodeFactory.createLiteral("\u014Csaka", "ja-Latn")));
+        
+        try {
+            for (String ext : new String[] { "nt", "trdf" }) {
+                File file = File.createTempFile("rdffiles-", "." + ext);
+                long start = System.nanoTime();
+                RdfFiles.write(graph, file.getPath());
+                long written = System.nanoTime() - start;
+                
+                Graph copy = GraphFactory.createDefaultGraph();
+                start = System.nanoTime();
+                RdfFiles.read(copy, file.getPath());
+                LOGGER.info(ext + ": " + file.length() / 1024 + " KB, written in " 
+                        + written / 1000000 + " ms, read in " 
+                        + (System.nanoTime() - start) / 1000000 + " ms");
+                Assert.assertTrue(copy.isIsomorphicWith(graph));
+                // Lexical forms come back exactly, not as values
+                Assert.assertTrue(copy.contains(Node.ANY, Node.ANY, odd));
+                file.delete();
+            }
+            
+            // Dedup from and to Thrift: duplicated input, distinct output
+            File in = File.createTempFile("rdffiles-dup-", ".trdf");
+            File out = File.createTempFile("rdffiles-dedup-", ".trdf");
+            Graph deduped = GraphFactory.createDefaultGraph();
+            try (OutputStream os = RdfFiles.create(in.getPath())) {
+                StreamRDF stream = RdfFiles.writer(os, RdfFiles.lang(in.getPath()));
+                stream.start();
+                for (int i = 0; i < 2; i++) {
+                    graph.find(Node.ANY, Node.ANY, Node.ANY).forEachRemaining(
+                            stream::triple);
+                }
+                stream.finish();
+            }
+            StreamingDedup dedup = new StreamingDedup();
+            long distinct = dedup.dedup(in.getPath(), out.getPath());
+            RdfFiles.read(deduped, out.getPath());
+            LOGGER.info("Dedup " + dedup.getTriplesRead() + " -> " + distinct);
+            Assert.assertEquals(2 * graph.size(), dedup.getTriplesRead());
+            Assert.assertEquals(graph.size(), distinct);
+            Assert.assertTrue(deduped.isIsomorphicWith(graph));
+            in.delete();
+            out.delete();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void testJsonLdStreamParser() {
+        
+        JsonLdStreamParser parser = new JsonLdStreamParser();
+        try {
+            // Remote context from the local catalog, never fetched
+            Graph work = GraphFactory.createDefaultGraph();
+            parser.parse("test-input/jsonld/102063.jsonld", 
+                    StreamRDFLib.graph(work));
+            Model expected = ModelFactory.createDefaultModel();
+            expected.read("rdf/data/102063.nt");
+            Assert.assertTrue(work.isIsomorphicWith(expected.getGraph()));
+            
+            // Containers, coercion, @reverse and a named graph, against jsonld-java
+            String features = "test-input/jsonld/features.jsonld";
+            DatasetGraph dataset = DatasetGraphFactory.createMem();
+            parser.parse(features, StreamRDFLib.dataset(dataset));
+            assertIsomorphic(RDFDataMgr.loadDatasetGraph(features), dataset);
+            
+            // Named graphs as Jena writes them, @graph before @id
+            DatasetGraph source = DatasetGraphFactory.createMem();
+            Node p = NodeFactory.createURI("http://ex/p");
+            Node q = NodeFactory.createURI("http://ex/q");
+            Node g = NodeFactory.createURI("http://g");
+            source.getDefaultGraph().add(Triple.create(g, p, 
+                    NodeFactory.createLiteral("v")));
+            source.add(g, NodeFactory.createURI("http://x"), q, 
+                    NodeFactory.createLiteral("w"));
+            source.add(g, NodeFactory.createURI("http://x"), p, 
+                    NodeFactory.createBlankNode());
+            source.add(NodeFactory.createURI("http://h"), g, q, 
+                    NodeFactory.createLiteral("u"));
+            File written = File.createTempFile("jsonld-", ".jsonld");
+            try (OutputStream out = new FileOutputStream(written)) {
+                RDFDataMgr.write(out, source, RDFFormat.JSONLD);
+            }
+            DatasetGraph roundTrip = DatasetGraphFactory.createMem();
+            parser.parse(written.getPath(), StreamRDFLib.dataset(roundTrip));
+            DatasetGraph reference = RDFDataMgr.loadDatasetGraph(written.getPath());
+            written.delete();
+            assertIsomorphic(reference, roundTrip);
+            assertIsomorphic(source, roundTrip);
+            
+            // And nested, with a property before the @graph
+            String nested = "{\"@id\": \"http://a\", \"http://ex/p\": {"
+                    + "\"http://ex/q\": \"v\", \"@graph\": [{\"@id\": \"http://x\", "
+                    + "\"http://ex/q\": \"w\"}], \"@id\": \"http://g\"}}";
+            roundTrip = DatasetGraphFactory.createMem();
+            parser.parse(new ByteArrayInputStream(nested.getBytes(
+                    StandardCharsets.UTF_8)), "http://base/", 
+                    StreamRDFLib.dataset(roundTrip));
+            reference = DatasetGraphFactory.createMem();
+            RDFDataMgr.read(reference, new ByteArrayInputStream(nested.getBytes(
+                    StandardCharsets.UTF_8)), "http://base/", RDFLanguages.JSONLD);
+            assertIsomorphic(reference, roundTrip);
+            Assert.assertTrue(roundTrip.contains(Node.ANY, 
+                    NodeFactory.createURI("http://a"), p, g));
+            
+            // Jena's own JSON-LD output, context inline
+            Graph graph = new SyntheticData().generate(20000);
+            graph.add(Triple.create(NodeFactory.createURI(SyntheticData.recordIri(0)), 
+                    RDFS.label.asNode(), NodeFactory.createLiteral("\u014Csaka", "ja-Latn")));
+            List<File> files = new ArrayList<File>();
+            for (int i = 0; i < 4; i++) {
+                File file = File.createTempFile("jsonld-", ".jsonld");
+                try (OutputStream out = new FileOutputStream(file)) {
+                    RDFDataMgr.write(out, graph, RDFFormat.JSONLD);
+                }
+                files.add(file);
+            }
+            
+            long start = System.nanoTime();
+            Model riot = ModelFactory.createDefaultModel();
+            riot.read(files.get(0).getPath());
+            LOGGER.info("jsonld-java: " + riot.size() + " triples in " 
+                    + (System.nanoTime() - start) / 1000000 + " ms");
+            
+            start = System.nanoTime();
+            Graph streamed = GraphFactory.createDefaultGraph();
+            long emitted = parser.parse(files.get(0).getPath(), 
+                    StreamRDFLib.graph(streamed));
+            LOGGER.info("Streaming: " + emitted + " triples in " 
+                    + (System.nanoTime() - start) / 1000000 + " ms");
+            Assert.assertEquals(graph.size(), emitted);
+            Assert.assertTrue(streamed.isIsomorphicWith(riot.getGraph()));
+            // JSON-LD 1.0 lower-cases language tags, in both parsers
+            Assert.assertTrue(streamed.contains(Node.ANY, RDFS.label.asNode(), 
+                    NodeFactory.createLiteral("\u014Csaka", "ja-latn")));
+            
+            // Four files on two threads into one graph
+            Graph all = GraphFactory.createDefaultGraph();
+            emitted = parser.parseAll(files, 2, StreamRDFLib.graph(all));
+            Assert.assertEquals(4 * graph.size(), emitted);
+            Assert.assertEquals(graph.size(), all.size());
+            for (File file : files) {
+                file.delete();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void assertIsomorphic(DatasetGraph expected, 
+            DatasetGraph actual) {
+        Assert.assertTrue(actual.getDefaultGraph().isIsomorphicWith(
+                expected.getDefaultGraph()));
+        expected.listGraphNodes().forEachRemaining(name -> 
+                Assert.assertTrue(name.toString(), actual.getGraph(name)
+                        .isIsomorphicWith(expected.getGraph(name))));
+        Assert.assertEquals(expected.size(), actual.size());
+    }
+
     private static void testEmptyIteratorToList() {
         Model model = ModelFactory.createDefaultModel();
         List<Statement> stmts = model.listStatements().toList();
@@ -243,6 +1324,122 @@ public class Main {
         
     }
     
+    private static void testChangesetApplier() {
+        
+        // The same edits as testAssertionsAndRetractions, as a changeset
+        Model retractions = ModelFactory.createDefaultModel();
+        Model assertions = ModelFactory.createDefaultModel();
+        Resource mary = retractions.createResource("http://example.com/people/mary");
+        Resource john = retractions.createResource("http://example.com/people/john");        
+        Property property = 
+                retractions.createProperty("http://example.com/vocab/loves"); 
+        retractions.add(john, property, mary);
+        assertions.add(mary, property, john);
+        
+        String changeset = "test-output/change set.rdfp";
+        try {
+            Dataset dataset = TDBFactory.createDataset();
+            dataset.begin(ReadWrite.WRITE);
+            dataset.getDefaultModel().add(john, property, mary);
+            dataset.commit();
+            dataset.end();
+
+            try (FileOutputStream out = new FileOutputStream(changeset)) {
+                ChangesetApplier.write(assertions, retractions, out);
+            }
+            ChangesetApplier applier = new ChangesetApplier(dataset, 1);
+            Assert.assertEquals(2, applier.apply(changeset));
+            // Already applied: nothing to do on a second run
+            Assert.assertEquals(0, applier.apply(changeset));
+            
+            dataset.begin(ReadWrite.READ);
+            Model model = dataset.getDefaultModel();
+            printModel(model);
+            Assert.assertEquals(1, model.size());
+            Assert.assertTrue(model.contains(mary, property, john));
+            dataset.end();
+            
+            // A new file under the same name starts from the beginning
+            Model next = ModelFactory.createDefaultModel();
+            next.add(john, property, john);
+            next.add(mary, property, mary);
+            next.add(john, RDFS.label, "John");
+            try (FileOutputStream out = new FileOutputStream(changeset)) {
+                ChangesetApplier.write(next, null, out);
+            }
+            Assert.assertEquals(3, applier.apply(changeset));
+            
+            // Throughput on a synthetic feed of additions and deletions
+            SyntheticData synth = new SyntheticData();
+            int records = 50000;
+            Model feed = ModelFactory.createModelForGraph(synth.generate(records));
+            Model gone = ModelFactory.createModelForGraph(synth.generate(records / 10));
+            try (FileOutputStream out = new FileOutputStream(changeset)) {
+                ChangesetApplier.write(feed, null, out);
+                ChangesetApplier.write(null, gone, out);
+            }
+            // On disk: large transactions on an in-memory TDB dataset are 
+            // much slower than the real thing
+            File tdbDir = Files.createTempDirectory("tdb").toFile();
+            dataset = TDBFactory.createDataset(tdbDir.getPath());
+            applier = new ChangesetApplier(dataset);
+            long start = System.nanoTime();
+            long applied = applier.apply(changeset);
+            double secs = (System.nanoTime() - start) / 1e9;
+            LOGGER.info(String.format("%d records in %.2f s: %.0f records/s", 
+                    applied, secs, applied / secs));
+            dataset.begin(ReadWrite.READ);
+            Assert.assertEquals(feed.size() - gone.size(), 
+                    dataset.getDefaultModel().size());
+            dataset.end();
+            TDBFactory.release(dataset);
+            FileUtils.deleteDirectory(tdbDir);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            new File(changeset).delete();
+        }
+    }
+    
+    private static void testGraphStreams() {
+        
+        Graph graph = new SyntheticData().generate(20000);
+        Model model = ModelFactory.createModelForGraph(graph);
+        Set<Statement> expected = model.listStatements().toSet();
+        
+        // Every statement exactly once, sequential or parallel
+        Assert.assertEquals(expected.size(), GraphStreams.stream(model).count());
+        Assert.assertEquals(expected, 
+                GraphStreams.parallelStream(model).collect(Collectors.toSet()));
+        Assert.assertEquals(expected.size(), 
+                GraphStreams.parallelStream(model).count());
+        
+        // Off heap, split by position
+        Graph offHeap = new OffHeapGraph();
+        GraphUtil.addInto(offHeap, graph);
+        Assert.assertEquals(graph.size(), 
+                GraphStreams.parallelStream(offHeap).distinct().count());
+        
+        // Any other graph, e.g. a union, through its subjects
+        Graph union = new Union(GraphFactory.createDefaultGraph(), graph);
+        Assert.assertEquals(graph.size(), 
+                GraphStreams.parallelStream(union).count());
+        
+        long literals = GraphStreams.parallelStream(graph)
+                .filter(t -> t.getObject().isLiteral()).count();
+        LOGGER.info(literals + " literal objects");
+        long start = System.nanoTime();
+        List<Statement> list = model.listStatements().toList();
+        LOGGER.info("toList: " + list.size() + " statements in " 
+                + (System.nanoTime() - start) / 1000000 + " ms");
+        start = System.nanoTime();
+        long count = GraphStreams.parallelStream(model).count();
+        LOGGER.info("parallel stream on " 
+                + Runtime.getRuntime().availableProcessors() + " cores: " 
+                + count + " statements in " 
+                + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+
     private static void testIteratorToListAndForeachRemaining() {
 
         Model model = ModelFactory.createDefaultModel();
@@ -428,6 +1625,81 @@ public class Main {
         LOGGER.info("n1 == n6: " + n1.sameValueAs(n6));
     }
 
+    private static void testLiteralIndex() {
+        
+        // The literals from testLiteralSameValueAs
+        Model model = ModelFactory.createDefaultModel();
+        LiteralIndex index = LiteralIndex.on(model);
+        Property label = RDFS.label;
+        model.add(model.createResource("http://example.org/1"), label, 
+                model.createLiteral("Hello world", "en"));
+        model.add(model.createResource("http://example.org/2"), label, 
+                model.createLiteral("Bonjour", "fr"));
+        model.add(model.createResource("http://example.org/3"), label, 
+                model.createLiteral("Bonjour", "fr-ca"));
+        model.add(model.createResource("http://example.org/4"), label, 
+                model.createLiteral("Hello world"));
+        model.add(model.createResource("http://example.org/5"), label, 
+                model.createLiteral("Hello  World ", (String) null));
+        model.add(model.createResource("http://example.org/6"), label, 
+                model.createTypedLiteral("Hello world", XSDDatatype.XSDstring));
+        
+        Assert.assertEquals(2, index.find("Bonjour", "fr").size());
+        Assert.assertEquals(2, index.find("Bonjour", "FR").size());
+        Assert.assertEquals(1, index.find("Bonjour", "fr-ca").size());
+        Assert.assertEquals(0, index.find("Bonjour", "f").size());
+        Assert.assertEquals(0, index.find("Bonjour", "").size());
+        Assert.assertEquals(4, index.find("hello world", null).size());
+        Assert.assertEquals(1, index.find("hello world", "*").size());
+        // Plain, null language and xsd:string are all untagged strings
+        Assert.assertEquals(3, index.find("hello world", "").size());
+        Assert.assertEquals(3, index.find(null, "hello world", null, 
+                XSDDatatype.XSDstring.getURI()).size());
+        
+        // Follows the model
+        model.removeAll(null, label, model.createLiteral("Bonjour", "fr"));
+        Assert.assertEquals(1, index.find("Bonjour", "fr").size());
+        model.removeAll();
+        Assert.assertEquals(0, index.size());
+        
+        // Label lookups in a catalog: index probes vs. scanning with 
+        // sameValueAs
+        Graph graph = new SyntheticData().generate(20000);
+        model = ModelFactory.createModelForGraph(graph);
+        for (int i = 0; i < 20000; i++) {
+            model.add(model.createResource(SyntheticData.recordIri(i)), label,
+                    model.createLiteral("Record " + i, "en-us"));
+        }
+        long start = System.nanoTime();
+        index = LiteralIndex.on(model);
+        LOGGER.info("Indexed " + index.size() + " literals in " 
+                + (System.nanoTime() - start) / 1000000 + " ms");
+        int lookups = 100;
+        start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            List<Resource> found = 
+                    index.subjects(model, label, "record " + i * 7, "en");
+            Assert.assertEquals(1, found.size());
+        }
+        LOGGER.info(lookups + " index lookups: " 
+                + (System.nanoTime() - start) / 1000000 + " ms");
+        start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            Literal wanted = model.createLiteral("Record " + i * 7, "en-us");
+            int found = 0;
+            StmtIterator stmts = model.listStatements(null, label, (RDFNode) null);
+            while (stmts.hasNext()) {
+                if (stmts.next().getObject().asNode().sameValueAs(wanted.asNode())) {
+                    found++;
+                }
+            }
+            Assert.assertEquals(1, found);
+        }
+        LOGGER.info(lookups + " scans: " 
+                + (System.nanoTime() - start) / 1000000 + " ms");
+        index.detach(graph);
+    }
+
     private static void testAddStmtIteratorToModel() {
         
         Model model = ModelFactory.createDefaultModel();
@@ -451,6 +1723,71 @@ public class Main {
         
     }
 
+    private static void testGraphProjection() {
+        
+        // The testAddStmtIteratorToModel copy, at the graph level
+        Model model = ModelFactory.createDefaultModel();
+        Resource mary = model.createResource("http://example.com/data/mary");
+        Resource john = model.createResource("http://example.com/data/john");
+        Resource bob = model.createResource("http://example.com/data/bob");
+        Property objProp = 
+                model.createProperty("http://example.com/vocab/objProp");
+        model.add(mary, objProp, bob);
+        model.add(mary, objProp, john);
+        model.add(john, objProp, bob);
+        model.add(john, RDF.type, FOAF.Person);
+        
+        GraphProjection projection = new GraphProjection(model);
+        Model newModel = ModelFactory.createDefaultModel();
+        Assert.assertEquals(2, projection.copy(mary.asNode(), null, null, null, 
+                newModel.getGraph()));
+        Assert.assertTrue(newModel.isIsomorphicWith(ModelFactory
+                .createDefaultModel().add(model.listStatements(mary, null, 
+                        (RDFNode) null))));
+        // Already there: nothing added
+        Assert.assertEquals(0, projection.copy(mary.asNode(), null, null, null, 
+                newModel.getGraph()));
+        
+        // Composite filters
+        Graph people = GraphFactory.createDefaultGraph();
+        Assert.assertEquals(1, projection.copy(projection
+                .subjectTyped(FOAF.Person.asNode())
+                .and(GraphProjection.predicate(RDF.type.asNode()).negate()), 
+                people));
+        Graph toBob = GraphFactory.createDefaultGraph();
+        Graph fromJohn = GraphFactory.createDefaultGraph();
+        Map<Graph, Predicate<Triple>> targets = 
+                new LinkedHashMap<Graph, Predicate<Triple>>();
+        targets.put(toBob, GraphProjection.object(bob.asNode()));
+        targets.put(fromJohn, GraphProjection.subject(john.asNode()));
+        Assert.assertEquals(4, projection.fanOut(targets));
+        Assert.assertEquals(2, toBob.size());
+        Assert.assertEquals(2, fromJohn.size());
+        
+        // Splitting a catalog into per-record graphs: model-level copies 
+        // vs. one pass
+        int records = 20000;
+        Graph graph = new SyntheticData().generate(records);
+        model = ModelFactory.createModelForGraph(graph);
+        long start = System.nanoTime();
+        for (int i = 0; i < records; i++) {
+            Model record = ModelFactory.createDefaultModel();
+            record.add(model.listStatements(
+                    model.getResource(SyntheticData.recordIri(i)), null, 
+                    (RDFNode) null));
+        }
+        LOGGER.info("Model copies of " + records + " records: " 
+                + (System.nanoTime() - start) / 1000000 + " ms");
+        start = System.nanoTime();
+        Map<Node, Graph> split = new HashMap<Node, Graph>();
+        long added = new GraphProjection(graph).split(t -> split.computeIfAbsent(
+                t.getSubject(), s -> GraphFactory.createDefaultGraph()));
+        LOGGER.info("Split into " + split.size() + " records: " 
+                + (System.nanoTime() - start) / 1000000 + " ms");
+        Assert.assertEquals(records, split.size());
+        Assert.assertEquals(graph.size(), added);
+    }
+
     private static void testResourceRenaming() {
         
         Model model = ModelFactory.createDefaultModel();
@@ -535,6 +1872,143 @@ public class Main {
          */
     } 
     
+    private static void testVocabularyMigration() {
+        
+        Model model = ModelFactory.createDefaultModel();
+        String vocab = "http://example.com/vocab/";
+        Resource mary = model.createResource("http://example.com/data/mary");
+        Resource john = model.createResource("http://example.com/data/john");
+        Resource bob = model.createResource("http://example.com/data/bob");
+        Resource oldClass = model.createResource(vocab + "oldClass");
+        
+        model.add(oldClass, RDFS.subClassOf, model.createResource(vocab + "superClass"));
+        model.add(mary, RDF.type, oldClass);
+        model.add(mary, RDF.type, model.createResource(vocab + "classToDelete"));
+        model.add(mary, model.createProperty(vocab + "oldObjProp"), john);
+        model.add(mary, model.createProperty(vocab + "objPropToDelete"), bob);
+        model.add(mary, model.createProperty(vocab + "oldDataProp"), "Mary");
+        model.add(mary, model.createProperty(vocab + "dataPropToDelete"), "Wilson");
+        
+        // Unlike ResourceUtils.renameResource, properties are renamed too, 
+        // and all the changes happen in one pass.
+        VocabularyMigration migration = new VocabularyMigration()
+                .rename("http://example.com/data/mary", "http://example.com/data/wilson")
+                .rename(vocab + "oldClass", vocab + "newClass")
+                .rename(vocab + "oldObjProp", vocab + "newObjProp")
+                .rename(vocab + "oldDataProp", vocab + "newDataProp")
+                .delete(vocab + "classToDelete")
+                .delete(vocab + "objPropToDelete")
+                .delete(vocab + "dataPropToDelete");
+        migration.apply(model);
+        printModel(model);
+        LOGGER.info(migration.getHitCounts());
+        
+        Resource wilson = model.getResource("http://example.com/data/wilson");
+        Assert.assertEquals(4, model.size());
+        Assert.assertTrue(model.contains(wilson, RDF.type, 
+                model.getResource(vocab + "newClass")));
+        Assert.assertTrue(model.contains(wilson, 
+                model.getProperty(vocab + "newObjProp"), john));
+        Assert.assertTrue(model.contains(wilson, 
+                model.getProperty(vocab + "newDataProp"), "Mary"));
+        Assert.assertEquals(Long.valueOf(6), migration.getHitCounts().get(
+                "http://example.com/data/mary"));
+        
+        // File to file
+        String infile = "test-input/input.nt";
+        String outfile = "test-output/output-migrated.nt";
+        migration = new VocabularyMigration()
+                .rename("http://bibframe.org/vocab/Work", "http://bib.ld4l.org/ontology/Work")
+                .delete("http://bibframe.org/vocab/authorizedAccessPoint");
+        try {
+            // 13 lines in, 2 dropped; duplicates are passed through
+            Assert.assertEquals(11, migration.apply(infile, outfile));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        LOGGER.info(migration.getHitCounts());
+    }
+
+    private static void testIriValidator() {
+        
+        String scheme = "http://www.loc.gov/mads/rdf/v1#isMemberOfMADSScheme";
+        String subjects = "http://id.loc.gov/authorities/subjects";
+        IriValidator validator = new IriValidator()
+                .replaceBadObject(scheme, subjects);
+        
+        // The testEmptyObject files: each bad isMemberOfMADSScheme object 
+        // is replaced, whatever form it came in
+        for (String name : new String[] { "72topic11.nt", "72topic11.rdf", 
+                "72topic11.ttl" }) {
+            Model model = ModelFactory.createDefaultModel();
+            try {
+                IriValidator.Report report = validator.parse(
+                        "test-input/empty-object/" + name, 
+                        StreamRDFLib.graph(model.getGraph()), null);
+                LOGGER.info(name + ": " + report);
+                Assert.assertEquals(1, report.repaired);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            Assert.assertTrue(model.contains(null, 
+                    model.createProperty(scheme), model.createResource(subjects)));
+            isObjectNull(model);
+        }
+        
+        // Parallel over a larger N-Triples file with some bad lines in it
+        try {
+            File dir = Files.createTempDirectory("iri").toFile();
+            File in = new File(dir, "in.nt");
+            int records = 20000;
+            Graph graph = new SyntheticData().generate(records);
+            try (OutputStream out = new FileOutputStream(in)) {
+                RDFDataMgr.write(out, graph, RDFFormat.NTRIPLES);
+                out.write(("_:b1 <" + scheme + "> <> .\n"
+                        + "_:b1 <" + scheme + "> <unknown:namespace> .\n"
+                        + "<http://example.org/a b> <http://example.org/p> \"x\" .\n"
+                        + "<http://example.org/a> <unknown:p> \"x\" .\n"
+                        + "<http://example.org/a> <http://example.org/p> <> .\n"
+                        + "<http://example.org/a> <http://example.org/p> \n"
+                        // An escaped legal character, and an escaped space
+                        + "<http://example.org/caf\\u00E9> <http://example.org/p> \"y\" .\n"
+                        + "<http://example.org/b\\u0020c> <http://example.org/p> \"z\" .\n")
+                        .getBytes(StandardCharsets.UTF_8));
+            }
+            File out = new File(dir, "out.nt");
+            File bad = new File(dir, "quarantine.nt");
+            IriValidator.Report report = new IriValidator()
+                    .replaceBadObject(scheme, subjects)
+                    .validate(in.getPath(), out.getPath(), bad.getPath(), 2);
+            LOGGER.info(report);
+            Assert.assertEquals(graph.size() + 8, report.triples);
+            Assert.assertEquals(4, report.repaired);
+            Assert.assertEquals(3, report.quarantined);
+            Assert.assertEquals(3, FileUtils.readLines(bad).size());
+            Model model = ModelFactory.createDefaultModel();
+            model.read(out.getPath());
+            Assert.assertEquals(graph.size() + 4, model.size());
+            Assert.assertTrue(model.containsResource(
+                    model.createResource("http://example.org/caf\u00E9")));
+            Assert.assertTrue(model.containsResource(
+                    model.createResource("http://example.org/b%20c")));
+            FileUtils.deleteDirectory(dir);
+            
+            // A bad subject is encoded whatever the object rule says
+            Graph kept = GraphFactory.createDefaultGraph();
+            IriValidator.Stage stage = new IriValidator()
+                    .onBadObject(IriValidator.Action.KEEP)
+                    .wrap(StreamRDFLib.graph(kept), null, null);
+            stage.triple(Triple.create(NodeFactory.createURI("http://example.org/a b"), 
+                    NodeFactory.createURI("http://example.org/p"), 
+                    NodeFactory.createLiteral("x")));
+            Assert.assertEquals(1, stage.getReport().repaired);
+            Assert.assertTrue(kept.contains(NodeFactory.createURI(
+                    "http://example.org/a%20b"), Node.ANY, Node.ANY));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     private static void testEmptyObject() {
         
 
@@ -630,6 +2104,202 @@ public class Main {
          */
     }
     
+    private static void testDirectoryIngester() {
+        
+        // The testEmptyObject files, parsed in parallel into one model
+        Model model = ModelFactory.createDefaultModel();
+        try {
+            DirectoryIngester.Report report = new DirectoryIngester().ingest(
+                    new File("test-input/empty-object"), model);
+            LOGGER.info(report);
+            for (DirectoryIngester.FileError error : report.errors) {
+                LOGGER.info("Error: " + error);
+            }
+            Assert.assertEquals(4, report.files);
+            // Triples repeated across files are only stored once
+            Assert.assertTrue(model.size() <= report.triples);
+            isObjectNull(model);
+            
+            // A larger directory of per-record files; the quad files hold
+            // their record in a named graph
+            File dir = Files.createTempDirectory("ingest").toFile();
+            SyntheticData synth = new SyntheticData();
+            String[] extensions = { ".nt", ".ttl", ".nq", ".trig" };
+            RDFFormat[] formats = { RDFFormat.NTRIPLES, RDFFormat.TURTLE, 
+                    RDFFormat.NQUADS, RDFFormat.TRIG };
+            int records = 2000;
+            for (int i = 0; i < records; i++) {
+                Graph record = GraphFactory.createDefaultGraph();
+                synth.addRecord(record, i);
+                int f = i % formats.length;
+                try (OutputStream out = new FileOutputStream(
+                        new File(dir, i + extensions[f]))) {
+                    if (RDFLanguages.isQuads(formats[f].getLang())) {
+                        DatasetGraph dataset = DatasetGraphFactory.createMem();
+                        dataset.addGraph(NodeFactory.createURI(
+                                "http://example.org/graph/" + i), record);
+                        RDFDataMgr.write(out, dataset, formats[f]);
+                    } else {
+                        RDFDataMgr.write(out, record, formats[f]);
+                    }
+                }
+            }
+            model = ModelFactory.createDefaultModel();
+            report = new DirectoryIngester().ingest(dir, model);
+            Assert.assertEquals(records, report.files);
+            Assert.assertTrue(report.errors.isEmpty());
+            Assert.assertEquals(records * synth.getTriplesPerRecord(), model.size());
+            FileUtils.deleteDirectory(dir);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    private static void testScenarioRunner() {
+        
+        // The testEmptyObject files share a stem: each gets its own output.
+        // (Not the JSON-LD one: its IRIs don't survive as N-Triples.)
+        try {
+            File input = Files.createTempDirectory("scenario-in").toFile();
+            File out = Files.createTempDirectory("scenario-out").toFile();
+            for (String ext : new String[] { "nt", "rdf", "ttl" }) {
+                FileUtils.copyFileToDirectory(
+                        new File("test-input/empty-object/72topic11." + ext), input);
+            }
+            new ScenarioRunner(2, DirectoryIngester.DEFAULT_BATCH_SIZE, out, 
+                    "nt", null, null).run("dedup", input);
+            String[] inputs = input.list();
+            Arrays.sort(inputs);
+            String[] outputs = out.list();
+            Arrays.sort(outputs);
+            LOGGER.info("Outputs: " + Arrays.toString(outputs));
+            Assert.assertEquals(inputs.length, outputs.length);
+            for (int i = 0; i < inputs.length; i++) {
+                Assert.assertEquals(inputs[i] + ".nt", outputs[i]);
+                Model expected = ModelFactory.createDefaultModel();
+                RDFDataMgr.read(expected, new File(input, inputs[i]).getPath());
+                Model model = ModelFactory.createDefaultModel();
+                model.read(new File(out, outputs[i]).getPath());
+                Assert.assertTrue(model.size() > 0);
+                Assert.assertTrue(model.isIsomorphicWith(expected));
+            }
+            
+            // Only the N-Triples file is validated
+            FileUtils.cleanDirectory(out);
+            new ScenarioRunner(2, DirectoryIngester.DEFAULT_BATCH_SIZE, out, 
+                    "nt", null, null).run("validate", input);
+            outputs = out.list();
+            Arrays.sort(outputs);
+            Assert.assertArrayEquals(new String[] { "72topic11.nt.nt", 
+                    "72topic11.nt.quarantine.nt" }, outputs);
+            
+            // Without an output directory nothing is written
+            File tmp = new File(System.getProperty("java.io.tmpdir"));
+            FilenameFilter scenario = (dir, name) -> name.startsWith("scenario-");
+            int before = tmp.list(scenario).length;
+            new ScenarioRunner(2, DirectoryIngester.DEFAULT_BATCH_SIZE, null, 
+                    "nt", null, null).run("dedup", input);
+            Assert.assertEquals(before, tmp.list(scenario).length);
+            FileUtils.deleteDirectory(input);
+            FileUtils.deleteDirectory(out);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    private static void testSkolemizer() {
+        
+        String nt = "test-input/empty-object/72topic11.nt";
+        try {
+            // Read twice, the blank node doubles up; skolemized, it dedups
+            Model plain = ModelFactory.createDefaultModel();
+            plain.read(nt);
+            plain.read(nt);
+            Skolemizer labels = new Skolemizer(Skolemizer.Mode.LABEL);
+            Graph skolemized = GraphFactory.createDefaultGraph();
+            labels.parse(nt, StreamRDFLib.graph(skolemized));
+            labels.parse(nt, StreamRDFLib.graph(skolemized));
+            LOGGER.info("Read twice: " + plain.size() + " triples, skolemized " 
+                    + skolemized.size());
+            Assert.assertEquals(13, plain.size());
+            Assert.assertEquals(8, skolemized.size());
+            Assert.assertTrue(skolemized.contains(
+                    labels.skolemize(nt, "bnode131cornell72"), Node.ANY, Node.ANY));
+            printModel(ModelFactory.createModelForGraph(skolemized));
+            
+            // And back to blank nodes on the way out
+            Graph restored = GraphFactory.createDefaultGraph();
+            StreamRDF out = labels.unskolemize(StreamRDFLib.graph(restored));
+            skolemized.find(Node.ANY, Node.ANY, Node.ANY).forEachRemaining(out::triple);
+            plain = ModelFactory.createDefaultModel();
+            plain.read(nt);
+            Assert.assertTrue(restored.isIsomorphicWith(plain.getGraph()));
+            
+            // Anonymous blank nodes and collections, by position in the file
+            File ttl = File.createTempFile("skolem-", ".ttl");
+            Files.write(ttl.toPath(), Arrays.asList(
+                    "@prefix bf: <http://bibframe.org/vocab/> .",
+                    "<http://draft.ld4l.org/cornell/102063> bf:workTitle [ bf:titleValue \"Physiology\" ] ;",
+                    "    bf:contributor ( [ bf:label \"Gordon\" ] [ bf:label \"Andrews\" ] ) ."),
+                    StandardCharsets.UTF_8);
+            Graph first = GraphFactory.createDefaultGraph();
+            Graph second = GraphFactory.createDefaultGraph();
+            labels.parse(ttl.getPath(), StreamRDFLib.graph(first));
+            labels.parse(ttl.getPath(), StreamRDFLib.graph(second));
+            Assert.assertEquals(9, first.size());
+            Assert.assertTrue(first.find(Node.ANY, Node.ANY, Node.ANY).toList()
+                    .stream().allMatch(second::contains));
+            ttl.delete();
+            
+            // By content, the same description is one node in any file, 
+            // whatever its label
+            File copy = File.createTempFile("skolem-", ".nt");
+            Files.write(copy.toPath(), Files.readAllLines(Paths.get(nt)).stream()
+                    .map(line -> line.replace("_:bnode131cornell72", "_:b0"))
+                    .collect(Collectors.toList()), StandardCharsets.UTF_8);
+            Skolemizer content = new Skolemizer(Skolemizer.Mode.CONTENT);
+            Graph copies = GraphFactory.createDefaultGraph();
+            content.parse(nt, StreamRDFLib.graph(copies));
+            content.parse(copy.getPath(), StreamRDFLib.graph(copies));
+            Assert.assertEquals(8, copies.size());
+            copy.delete();
+            
+            // A long rdf:List hashes one cell at a time, not one stack frame
+            // per cell
+            File list = File.createTempFile("skolem-", ".nt");
+            List<String> cells = new ArrayList<String>();
+            int length = 100000;
+            cells.add("<http://draft.ld4l.org/cornell/102063> <http://bibframe.org/vocab/contributor> _:c0 .");
+            for (int i = 0; i < length; i++) {
+                cells.add("_:c" + i + " <" + RDF.first.getURI() + "> \"" + i + "\" .");
+                cells.add("_:c" + i + " <" + RDF.rest.getURI() + "> " 
+                        + (i + 1 < length ? "_:c" + (i + 1) : "<" + RDF.nil.getURI() + ">") 
+                        + " .");
+            }
+            Files.write(list.toPath(), cells, StandardCharsets.UTF_8);
+            Graph lists = GraphFactory.createDefaultGraph();
+            content.parse(list.getPath(), StreamRDFLib.graph(lists));
+            content.parse(list.getPath(), StreamRDFLib.graph(lists));
+            Assert.assertEquals(cells.size(), lists.size());
+            Assert.assertFalse(lists.find(Node.ANY, Node.ANY, Node.ANY)
+                    .filterKeep(t -> t.getSubject().isBlank()).hasNext());
+            list.delete();
+            
+            // Files parsed in parallel with no shared state: ingesting the 
+            // directory again adds nothing
+            Model merged = ModelFactory.createDefaultModel();
+            DirectoryIngester ingester = new DirectoryIngester();
+            ingester.setSkolemizer(content);
+            ingester.ingest(new File("test-input/empty-object"), merged);
+            long once = merged.size();
+            ingester.ingest(new File("test-input/empty-object"), merged);
+            LOGGER.info("Ingested twice: " + merged.size() + " triples");
+            Assert.assertEquals(once, merged.size());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
     private static void isObjectNull(Model model) {
         StmtIterator stmts = model.listStatements();
         while (stmts.hasNext()) {
@@ -660,15 +2330,12 @@ public class Main {
     }
     
     private static void printModel(Model model, String msg) {
-        
-        if (msg != null) {
-            LOGGER.info(msg);
-        }
-        int stmtCount = 0;
-        StmtIterator stmts = model.listStatements();
-        while (stmts.hasNext()) {
-            stmtCount++;
-            LOGGER.info(stmtCount + ". " + stmts.next().toString());
+        // Synchronous, so the dump stays in order with the messages around
+        // it, and capped, so a large model doesn't dominate the run.
+        long printed = new ModelDumper().limit(PRINT_LIMIT).log(model, msg, 
+                DUMP_LOGGER);
+        if (printed == PRINT_LIMIT) {
+            DUMP_LOGGER.info("(first {} statements only)", PRINT_LIMIT);
         }
     }
     
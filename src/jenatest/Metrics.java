@@ -0,0 +1,436 @@
+package jenatest;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFWrapper;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/*
+ * Timing, throughput, latency and allocation of the pipeline's operations
+ * - read, write, query, infer, delta - kept in process and reported to the
+ * log, so a run shows where its time went without attaching anything.
+ *
+ * An operation is timed with a Timer around it:
+ *
+ *     try (Metrics.Timer timer = Metrics.start("read")) {
+ *         ...
+ *         timer.triples(n).bytes(length);
+ *     }
+ *
+ * Each one closed becomes an Event (name, thread, duration, triples,
+ * bytes, bytes allocated by the thread, graph size) that is added into the
+ * operation's totals and latency histogram and passed to any listeners,
+ * such as an EventLog recording them to a file. Metrics are off unless
+ * the jenatest.metrics system property is true or setEnabled(true) is
+ * called; when off, start() returns a Timer that does nothing and no
+ * event is made, so instrumented code pays a volatile read per operation.
+ */
+public class Metrics {
+
+    private static final Logger LOGGER = LogManager.getLogger(Metrics.class);
+
+    private static final Metrics DEFAULT = new Metrics();
+    private static final Timer DISABLED = new Timer(null, null);
+    private static volatile boolean enabled = Boolean.getBoolean("jenatest.metrics");
+
+    private final Map<String, Stats> stats = new ConcurrentHashMap<String, Stats>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    public static Metrics getDefault() {
+        return DEFAULT;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    /*
+     * Starts timing an operation on the default registry.
+     */
+    public static Timer start(String operation) {
+        return enabled ? new Timer(DEFAULT, operation) : DISABLED;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /*
+     * Totals for the operation, or null if it has not been recorded.
+     */
+    public Stats getStats(String operation) {
+        return stats.get(operation);
+    }
+
+    public void reset() {
+        stats.clear();
+    }
+
+    void record(Event event) {
+        stats.computeIfAbsent(event.name, Stats::new).add(event);
+        for (Listener listener : listeners) {
+            listener.event(event);
+        }
+    }
+
+    /*
+     * One line per operation, sorted by name.
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder(Stats.header());
+        for (Stats operation : new TreeMap<String, Stats>(stats).values()) {
+            report.append('\n').append(operation);
+        }
+        return report.toString();
+    }
+
+    /*
+     * Logs the report every period until the returned reporter is closed.
+     * It runs on a daemon thread and logs nothing while nothing has been
+     * recorded.
+     */
+    public Closeable startReporter(long period, TimeUnit unit) {
+        ScheduledExecutorService reporter =
+                Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread thread = new Thread(r, "metrics-reporter");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        reporter.scheduleAtFixedRate(() -> {
+            if (!stats.isEmpty()) {
+                LOGGER.info(report());
+            }
+        }, period, period, unit);
+        return reporter::shutdown;
+    }
+
+    /*
+     * Times one operation on one thread. Counts are set while it runs;
+     * closing it records the event. Not thread-safe. The disabled timer is
+     * shared and ignores everything.
+     */
+    public static class Timer implements AutoCloseable {
+
+        private final Metrics registry;
+        private final String name;
+        private final long startMillis;
+        private final long startNanos;
+        private final long startAllocated;
+        private long triples;
+        private long bytes;
+        private long size = -1;
+
+        Timer(Metrics registry, String name) {
+            this.registry = registry;
+            this.name = name;
+            if (registry == null) {
+                startMillis = startNanos = startAllocated = 0;
+            } else {
+                startMillis = System.currentTimeMillis();
+                startAllocated = allocated();
+                startNanos = System.nanoTime();
+            }
+        }
+
+        public boolean isEnabled() {
+            return registry != null;
+        }
+
+        public Timer triples(long count) {
+            if (registry != null) {
+                triples += count;
+            }
+            return this;
+        }
+
+        public Timer bytes(long count) {
+            if (registry != null) {
+                bytes += count;
+            }
+            return this;
+        }
+
+        /*
+         * Size of the graph the operation read or changed, afterwards.
+         */
+        public Timer size(long graphSize) {
+            if (registry != null) {
+                size = graphSize;
+            }
+            return this;
+        }
+
+        /*
+         * dest, counting the triples and quads that pass through into this
+         * timer - dest itself when metrics are off.
+         */
+        public StreamRDF count(StreamRDF dest) {
+            if (registry == null) {
+                return dest;
+            }
+            return new StreamRDFWrapper(dest) {
+                @Override
+                public void triple(Triple triple) {
+                    triples++;
+                    super.triple(triple);
+                }
+
+                @Override
+                public void quad(Quad quad) {
+                    triples++;
+                    super.quad(quad);
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+            if (registry == null) {
+                return;
+            }
+            long nanos = System.nanoTime() - startNanos;
+            registry.record(new Event(name, Thread.currentThread().getName(),
+                    startMillis, nanos, triples, bytes,
+                    allocated() - startAllocated, size));
+        }
+
+        private static long allocated() {
+            return Math.max(0, Allocation.currentThread());
+        }
+    }
+
+    /*
+     * The JVM's per-thread allocation counter, where it has one (HotSpot
+     * does). In a class of its own so it is only looked up once a timer
+     * is enabled.
+     */
+    static class Allocation {
+
+        private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+        /*
+         * Bytes allocated so far by the calling thread, -1 if the JVM
+         * doesn't count them.
+         */
+        static long currentThread() {
+            return THREADS == null ? -1 : THREADS.getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+        }
+
+        private static com.sun.management.ThreadMXBean threads() {
+            Object threads = ManagementFactory.getThreadMXBean();
+            return threads instanceof com.sun.management.ThreadMXBean
+                    ? (com.sun.management.ThreadMXBean) threads : null;
+        }
+    }
+
+    /*
+     * One timed operation, as a flight recorder event would have it.
+     */
+    public static class Event {
+
+        public final String name;
+        public final String thread;
+        public final long startMillis;
+        public final long nanos;
+        public final long triples;
+        public final long bytes;
+        // 0 when the JVM doesn't count allocation
+        public final long allocated;
+        // -1 when not known
+        public final long size;
+
+        Event(String name, String thread, long startMillis, long nanos,
+                long triples, long bytes, long allocated, long size) {
+            this.name = name;
+            this.thread = thread;
+            this.startMillis = startMillis;
+            this.nanos = nanos;
+            this.triples = triples;
+            this.bytes = bytes;
+            this.allocated = allocated;
+            this.size = size;
+        }
+
+        public String toJson() {
+            return "{\"name\":\"" + name + "\",\"thread\":\""
+                    + thread.replace("\\", "\\\\").replace("\"", "\\\"")
+                    + "\",\"start\":" + startMillis + ",\"nanos\":" + nanos
+                    + ",\"triples\":" + triples + ",\"bytes\":" + bytes
+                    + ",\"allocated\":" + allocated + ",\"size\":" + size + "}";
+        }
+    }
+
+    public interface Listener {
+        /*
+         * Called on the thread that ran the operation.
+         */
+        void event(Event event);
+    }
+
+    /*
+     * Records every event as a line of JSON, for looking at a run's
+     * operations one by one afterwards.
+     */
+    public static class EventLog implements Listener, Closeable {
+
+        private final BufferedWriter writer;
+
+        public EventLog(String filename) throws IOException {
+            writer = Files.newBufferedWriter(Paths.get(filename),
+                    StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public synchronized void event(Event event) {
+            try {
+                writer.write(event.toJson());
+                writer.newLine();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            writer.close();
+        }
+    }
+
+    /*
+     * Running totals for one operation, with its latencies in a histogram
+     * of power-of-two microsecond buckets: percentiles are the upper bound
+     * of the bucket they fall in, so within a factor of two.
+     */
+    public static class Stats {
+
+        private static final int BUCKETS = 40;
+
+        private final String name;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder triples = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder allocated = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+        private final AtomicLong size = new AtomicLong(-1);
+        private final AtomicLongArray latencies = new AtomicLongArray(BUCKETS);
+
+        Stats(String name) {
+            this.name = name;
+        }
+
+        void add(Event event) {
+            count.increment();
+            nanos.add(event.nanos);
+            triples.add(event.triples);
+            bytes.add(event.bytes);
+            allocated.add(event.allocated);
+            max.accumulateAndGet(event.nanos, Math::max);
+            if (event.size >= 0) {
+                size.set(event.size);
+            }
+            long micros = event.nanos / 1000;
+            int bucket = 64 - Long.numberOfLeadingZeros(micros);
+            latencies.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getTriples() {
+            return triples.sum();
+        }
+
+        public long getBytes() {
+            return bytes.sum();
+        }
+
+        public long getAllocated() {
+            return allocated.sum();
+        }
+
+        /*
+         * Graph size after the latest operation that gave one, or -1.
+         */
+        public long getSize() {
+            return size.get();
+        }
+
+        public double triplesPerSecond() {
+            long total = nanos.sum();
+            return total == 0 ? 0 : triples.sum() * 1e9 / total;
+        }
+
+        public double bytesPerSecond() {
+            long total = nanos.sum();
+            return total == 0 ? 0 : bytes.sum() * 1e9 / total;
+        }
+
+        /*
+         * Latency at the percentile (0-100) in milliseconds.
+         */
+        public double percentile(double p) {
+            long n = count.sum();
+            long rank = (long) Math.ceil(p / 100 * n);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += latencies.get(i);
+                if (seen >= rank && seen > 0) {
+                    return Math.min((1L << i) / 1000.0, max.get() / 1e6);
+                }
+            }
+            return max.get() / 1e6;
+        }
+
+        static String header() {
+            return String.format("%-12s %8s %10s %12s %10s %9s %9s %9s %9s %10s %10s",
+                    "operation", "count", "total ms", "triples/s", "MB/s",
+                    "p50 ms", "p90 ms", "p99 ms", "max ms", "alloc MB", "size");
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-12s %8d %10.1f %12.0f %10.2f %9.3f %9.3f %9.3f %9.3f %10.1f %10d",
+                    name, getCount(), nanos.sum() / 1e6, triplesPerSecond(),
+                    bytesPerSecond() / (1 << 20), percentile(50),
+                    percentile(90), percentile(99), max.get() / 1e6,
+                    getAllocated() / (double) (1 << 20), getSize());
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package jenatest;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.jena.atlas.RuntimeIOException;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.rdf.model.StmtIterator;
+import org.apache.jena.riot.RDFFormat;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFWriter;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/*
+ * Dumps the statements of a model for debugging, either to a stream in
+ * N-Triples or streaming Turtle, or to the log.
+ *
+ * Log output goes to the jenatest.ModelDumper logger, which log4j2.xml routes
+ * through an asynchronous appender, or to a logger the caller gives, to keep
+ * the dump in order with the caller's own messages. It uses parameterized
+ * messages, so nothing is formatted unless the logger is enabled. Large
+ * models can be sampled: only the first N statements, every k-th statement,
+ * or only the statements with a given predicate.
+ */
+public class ModelDumper {
+
+    private static final Logger LOGGER = LogManager.getLogger(ModelDumper.class);
+
+    private long limit = Long.MAX_VALUE;
+    private long every = 1;
+    private Property predicate;
+
+    /*
+     * Dump at most n statements.
+     */
+    public ModelDumper limit(long n) {
+        this.limit = n;
+        return this;
+    }
+
+    /*
+     * Dump only every k-th statement.
+     */
+    public ModelDumper every(long k) {
+        this.every = Math.max(1, k);
+        return this;
+    }
+
+    /*
+     * Dump only statements with this predicate.
+     */
+    public ModelDumper predicate(Property predicate) {
+        this.predicate = predicate;
+        return this;
+    }
+
+    /*
+     * Logs the selected statements at info level, numbered as printModel used
+     * to. Returns the number of statements logged.
+     */
+    public long log(Model model, String msg) {
+        return log(model, msg, LOGGER);
+    }
+
+    /*
+     * Logs the selected statements to logger instead, in line with
+     * whatever else goes to it.
+     */
+    public long log(Model model, String msg, Logger logger) {
+
+        if (!logger.isInfoEnabled()) {
+            return 0;
+        }
+        if (msg != null) {
+            logger.info(msg);
+        }
+        long seen = 0;
+        long logged = 0;
+        StmtIterator stmts = model.listStatements(null, predicate, (RDFNode) null);
+        try {
+            while (stmts.hasNext() && logged < limit) {
+                Statement stmt = stmts.next();
+                if (seen++ % every == 0) {
+                    logged++;
+                    logger.info("{}. {}", seen, stmt);
+                }
+            }
+        } finally {
+            stmts.close();
+        }
+        return logged;
+    }
+
+    public long log(Model model) {
+        return log(model, null);
+    }
+
+    /*
+     * Writes the selected statements to out as N-Triples or Turtle.
+     * Turtle is written as a stream (RDFFormat.TURTLE_BLOCKS, whatever
+     * Turtle format is asked for), so the model isn't analysed first as the
+     * pretty Turtle writer does. The stream is flushed but not closed.
+     * Returns the number of statements written.
+     */
+    public long write(Model model, OutputStream out, RDFFormat format) {
+
+        if (!StreamRDFWriter.registered(format)) {
+            if (!StreamRDFWriter.registered(format.getLang())) {
+                throw new IllegalArgumentException(
+                        "No streaming writer for " + format);
+            }
+            format = StreamRDFWriter.defaultSerialization(format.getLang());
+        }
+        BufferedOutputStream buffered = new BufferedOutputStream(out, 1 << 16);
+        StreamRDF stream = StreamRDFWriter.getWriterStream(buffered, format);
+        stream.start();
+        if (format.getLang().equals(RDFFormat.TURTLE_BLOCKS.getLang())) {
+            model.getNsPrefixMap().forEach(stream::prefix);
+        }
+        long seen = 0;
+        long written = 0;
+        Node p = predicate == null ? Node.ANY : predicate.asNode();
+        ExtendedIterator<Triple> it =
+                model.getGraph().find(Node.ANY, p, Node.ANY);
+        try {
+            while (it.hasNext() && written < limit) {
+                Triple triple = it.next();
+                if (seen++ % every == 0) {
+                    written++;
+                    stream.triple(triple);
+                }
+            }
+        } finally {
+            it.close();
+        }
+        stream.finish();
+        try {
+            buffered.flush();
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+        return written;
+    }
+}
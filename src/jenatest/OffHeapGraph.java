@@ -0,0 +1,859 @@
+package jenatest;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+import org.apache.jena.datatypes.TypeMapper;
+import org.apache.jena.graph.Capabilities;
+import org.apache.jena.graph.GraphEvents;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.graph.impl.GraphBase;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.jena.util.iterator.NiceIterator;
+import org.apache.jena.util.iterator.WrappedIterator;
+
+/*
+ * In-memory graph that keeps its data off the Java heap.
+ *
+ * Each distinct IRI, literal and blank node is stored once, UTF-8 encoded,
+ * in direct buffers, and known by a long id. Triples are three ids, kept in
+ * three sorted direct arrays (SPO, POS and OSP order), so every find()
+ * pattern is a binary search and a scan. A catalog record's long access
+ * points and titles cost their bytes once however many triples use them,
+ * and the heap holds no per-triple objects at all for the collector to
+ * trace.
+ *
+ * Added triples collect in a small on-heap set and are merged into the
+ * arrays in batches; deletions are remembered and dropped at the next merge.
+ *
+ * Differences from ModelFactory.createDefaultModel():
+ * - Literals match by term, not by value: "01"^^xsd:int doesn't find
+ *   "1"^^xsd:int.
+ * - find() hands back new Node objects, equal to but not the same as the
+ *   ones that were added.
+ * - Iterators don't support remove(), and a merge while an iterator is open
+ *   fails it with ConcurrentModificationException. Model.remove(s, p, o)
+ *   and removeAll() are fine.
+ * - Writes are single-threaded. Once they're finished, call flush() and
+ *   the graph can be read from any number of threads.
+ */
+public class OffHeapGraph extends GraphBase {
+
+    // Below this, find() scans the unmerged triples instead of merging.
+    private static final int SCAN_LIMIT = 1024;
+    private static final int MIN_MERGE = 1 << 16;
+    private static final int MAX_MERGE = 1 << 20;
+
+    private static final int S = 0;
+    private static final int P = 1;
+    private static final int O = 2;
+
+    private Dictionary dictionary = new Dictionary();
+    private final Index spo = new Index(S, P, O);
+    private final Index pos = new Index(P, O, S);
+    private final Index osp = new Index(O, S, P);
+    // Added and not yet merged
+    private final TripleSet pending = new TripleSet();
+    // Merged and since deleted
+    private final TripleSet deleted = new TripleSet();
+    private int merges;
+
+    /*
+     * Drop-in for ModelFactory.createDefaultModel().
+     */
+    public static Model createModel() {
+        return ModelFactory.createModelForGraph(new OffHeapGraph());
+    }
+
+    @Override
+    public void performAdd(Triple t) {
+        long s = dictionary.intern(t.getSubject());
+        long p = dictionary.intern(t.getPredicate());
+        long o = dictionary.intern(t.getObject());
+        if (deleted.remove(s, p, o)) {
+            return;
+        }
+        if (spo.contains(s, p, o) || !pending.add(s, p, o)) {
+            return;
+        }
+        if (pending.size() >= Math.max(MIN_MERGE,
+                Math.min(spo.count / 8, MAX_MERGE))) {
+            flush();
+        }
+    }
+
+    @Override
+    public void performDelete(Triple t) {
+        long s = dictionary.lookup(t.getSubject());
+        long p = dictionary.lookup(t.getPredicate());
+        long o = dictionary.lookup(t.getObject());
+        if (s == 0 || p == 0 || o == 0 || pending.remove(s, p, o)) {
+            return;
+        }
+        if (spo.contains(s, p, o) && deleted.add(s, p, o)
+                && deleted.size() >= MIN_MERGE) {
+            flush();
+        }
+    }
+
+    @Override
+    public void clear() {
+        dictionary = new Dictionary();
+        spo.clear();
+        pos.clear();
+        osp.clear();
+        pending.clear();
+        deleted.clear();
+        merges++;
+        getEventManager().notifyEvent(this, GraphEvents.removeAll);
+    }
+
+    @Override
+    public void close() {
+        clear();
+        super.close();
+    }
+
+    @Override
+    protected int graphBaseSize() {
+        return spo.count - deleted.size() + pending.size();
+    }
+
+    @Override
+    protected boolean graphBaseContains(Triple t) {
+        if (!t.isConcrete()) {
+            return super.graphBaseContains(t);
+        }
+        long s = dictionary.lookup(t.getSubject());
+        long p = dictionary.lookup(t.getPredicate());
+        long o = dictionary.lookup(t.getObject());
+        if (s == 0 || p == 0 || o == 0) {
+            return false;
+        }
+        return pending.contains(s, p, o)
+                || (spo.contains(s, p, o) && !deleted.contains(s, p, o));
+    }
+
+    @Override
+    protected ExtendedIterator<Triple> graphBaseFind(Triple pattern) {
+
+        long[] key = new long[3];
+        Node[] nodes = { pattern.getMatchSubject(),
+                pattern.getMatchPredicate(), pattern.getMatchObject() };
+        for (int i = 0; i < 3; i++) {
+            if (nodes[i] != null) {
+                key[i] = dictionary.lookup(nodes[i]);
+                if (key[i] == 0) {
+                    return NiceIterator.emptyIterator();
+                }
+            }
+        }
+        if (pending.size() + deleted.size() > SCAN_LIMIT) {
+            flush();
+        }
+
+        Index index;
+        int bound;
+        boolean hasS = key[S] != 0;
+        boolean hasP = key[P] != 0;
+        boolean hasO = key[O] != 0;
+        if (hasS) {
+            index = hasO && !hasP ? osp : spo;
+            bound = (hasP ? 1 : 0) + (hasO ? 1 : 0) + 1;
+        } else if (hasP) {
+            index = pos;
+            bound = hasO ? 2 : 1;
+        } else {
+            index = hasO ? osp : spo;
+            bound = hasO ? 1 : 0;
+        }
+        ExtendedIterator<Triple> it = new Scan(index, key, bound);
+        if (pending.size() == 0) {
+            return it;
+        }
+        List<Triple> unmerged = new ArrayList<Triple>();
+        long[] triples = pending.toArray();
+        for (int i = 0; i < triples.length; i += 3) {
+            if ((!hasS || triples[i] == key[S])
+                    && (!hasP || triples[i + 1] == key[P])
+                    && (!hasO || triples[i + 2] == key[O])) {
+                unmerged.add(triple(triples[i], triples[i + 1], triples[i + 2]));
+            }
+        }
+        return it.andThen(WrappedIterator.create(unmerged.iterator()));
+    }
+
+    @Override
+    public Capabilities getCapabilities() {
+        return CAPABILITIES;
+    }
+
+    /*
+     * Merges added and deleted triples into the sorted arrays now rather
+     * than at the next find().
+     */
+    public void flush() {
+        if (pending.size() == 0 && deleted.size() == 0) {
+            return;
+        }
+        long[] added = pending.toArray();
+        spo.merge(added, deleted);
+        pos.merge(added, deleted);
+        osp.merge(added, deleted);
+        pending.clear();
+        deleted.clear();
+        merges++;
+    }
+
+    /*
+     * Direct memory used by the dictionary and the indexes.
+     */
+    public long offHeapBytes() {
+        return dictionary.bytes() + spo.bytes() + pos.bytes() + osp.bytes();
+    }
+
+    /*
+     * The triples in SPO order, split by position for parallel streams
+     * (see GraphStreams). Merges first, so it sees everything added so far.
+     */
+    public Spliterator<Triple> spliterator() {
+        flush();
+        return new Range(spo.data, 0, spo.count);
+    }
+
+    private Triple triple(long s, long p, long o) {
+        return Triple.create(dictionary.decode(s), dictionary.decode(p),
+                dictionary.decode(o));
+    }
+
+    private static final Capabilities CAPABILITIES = new Capabilities() {
+        @Override public boolean sizeAccurate() { return true; }
+        @Override public boolean addAllowed() { return true; }
+        @Override public boolean addAllowed(boolean every) { return true; }
+        @Override public boolean deleteAllowed() { return true; }
+        @Override public boolean deleteAllowed(boolean every) { return true; }
+        @Override public boolean iteratorRemoveAllowed() { return false; }
+        @Override public boolean canBeEmpty() { return true; }
+        @Override public boolean findContractSafe() { return true; }
+        @Override public boolean handlesLiteralTyping() { return false; }
+    };
+
+    /*
+     * Scans the run of an index whose leading components match the key.
+     */
+    private class Scan extends NiceIterator<Triple> {
+
+        private final Index index;
+        private final LongBuffer data;
+        private final long k0;
+        private final long k1;
+        private final long k2;
+        private final int bound;
+        private final int merge = merges;
+        private int at;
+        private Triple next;
+
+        Scan(Index index, long[] spoKey, int bound) {
+            this.index = index;
+            this.data = index.data;
+            this.k0 = spoKey[index.c0];
+            this.k1 = spoKey[index.c1];
+            this.k2 = spoKey[index.c2];
+            this.bound = bound;
+            this.at = index.lowerBound(k0, k1, k2, bound);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (merge != merges) {
+                throw new ConcurrentModificationException();
+            }
+            while (next == null && at < index.count) {
+                int i = at * 3;
+                long a = data.get(i);
+                long b = data.get(i + 1);
+                long c = data.get(i + 2);
+                if ((bound > 0 && a != k0) || (bound > 1 && b != k1)
+                        || (bound > 2 && c != k2)) {
+                    at = index.count;
+                    break;
+                }
+                at++;
+                long[] t = index.toSpo(a, b, c);
+                if (deleted.size() == 0 || !deleted.contains(t[S], t[P], t[O])) {
+                    next = triple(t[S], t[P], t[O]);
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Triple next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Triple t = next;
+            next = null;
+            return t;
+        }
+    }
+
+    private class Range implements Spliterator<Triple> {
+
+        private final LongBuffer data;
+        private final int merge = merges;
+        private int at;
+        private final int end;
+
+        Range(LongBuffer data, int at, int end) {
+            this.data = data;
+            this.at = at;
+            this.end = end;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Triple> action) {
+            if (merge != merges) {
+                throw new ConcurrentModificationException();
+            }
+            if (at >= end) {
+                return false;
+            }
+            int i = at++ * 3;
+            action.accept(triple(data.get(i), data.get(i + 1), data.get(i + 2)));
+            return true;
+        }
+
+        @Override
+        public Spliterator<Triple> trySplit() {
+            if (end - at < 1024) {
+                return null;
+            }
+            int mid = (at + end) >>> 1;
+            Range first = new Range(data, at, mid);
+            at = mid;
+            return first;
+        }
+
+        @Override
+        public long estimateSize() {
+            return end - at;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | DISTINCT | NONNULL | SIZED | SUBSIZED;
+        }
+    }
+
+    /*
+     * Triples as ids in one component order, sorted, three longs per triple.
+     */
+    private static final class Index {
+
+        private static final LongBuffer EMPTY =
+                ByteBuffer.allocateDirect(0).asLongBuffer();
+
+        // Which of S, P, O comes first, second and third in this index
+        private final int c0;
+        private final int c1;
+        private final int c2;
+        private LongBuffer data = EMPTY;
+        private int count;
+
+        Index(int c0, int c1, int c2) {
+            this.c0 = c0;
+            this.c1 = c1;
+            this.c2 = c2;
+        }
+
+        long[] toSpo(long a, long b, long c) {
+            long[] t = new long[3];
+            t[c0] = a;
+            t[c1] = b;
+            t[c2] = c;
+            return t;
+        }
+
+        long bytes() {
+            return (long) data.capacity() * 8;
+        }
+
+        void clear() {
+            data = EMPTY;
+            count = 0;
+        }
+
+        boolean contains(long s, long p, long o) {
+            long[] spoKey = { s, p, o };
+            long a = spoKey[c0];
+            long b = spoKey[c1];
+            long c = spoKey[c2];
+            int i = lowerBound(a, b, c, 3);
+            return i < count && data.get(i * 3) == a
+                    && data.get(i * 3 + 1) == b && data.get(i * 3 + 2) == c;
+        }
+
+        /*
+         * First position whose first `bound` components are >= the key's.
+         */
+        int lowerBound(long a, long b, long c, int bound) {
+            int lo = 0;
+            int hi = count;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (compare(mid, a, b, c, bound) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        private int compare(int i, long a, long b, long c, int bound) {
+            int cmp = 0;
+            if (bound > 0) {
+                cmp = Long.compare(data.get(i * 3), a);
+            }
+            if (cmp == 0 && bound > 1) {
+                cmp = Long.compare(data.get(i * 3 + 1), b);
+            }
+            if (cmp == 0 && bound > 2) {
+                cmp = Long.compare(data.get(i * 3 + 2), c);
+            }
+            return cmp;
+        }
+
+        /*
+         * Drops the deleted triples and merges in the added ones (packed
+         * S, P, O). Done in place when there's room, working back from
+         * the end.
+         */
+        void merge(long[] added, TripleSet deleted) {
+
+            int n = added.length / 3;
+            long[] sorted = new long[added.length];
+            for (int i = 0; i < added.length; i += 3) {
+                sorted[i] = added[i + c0];
+                sorted[i + 1] = added[i + c1];
+                sorted[i + 2] = added[i + c2];
+            }
+            sort(sorted, 0, n - 1);
+
+            if (deleted.size() > 0) {
+                int w = 0;
+                for (int r = 0; r < count; r++) {
+                    long a = data.get(r * 3);
+                    long b = data.get(r * 3 + 1);
+                    long c = data.get(r * 3 + 2);
+                    long[] t = toSpo(a, b, c);
+                    if (!deleted.contains(t[S], t[P], t[O])) {
+                        data.put(w * 3, a);
+                        data.put(w * 3 + 1, b);
+                        data.put(w * 3 + 2, c);
+                        w++;
+                    }
+                }
+                count = w;
+            }
+
+            int total = count + n;
+            if ((long) total * 3 > data.capacity()) {
+                long capacity = Math.min((long) total * 3 * 3 / 2 + 3 * 1024,
+                        Integer.MAX_VALUE / 8);
+                if (capacity < (long) total * 3) {
+                    throw new IllegalStateException("Too many triples: " + total);
+                }
+                LongBuffer grown = ByteBuffer.allocateDirect((int) capacity * 8)
+                        .asLongBuffer();
+                for (int i = 0; i < count * 3; i++) {
+                    grown.put(i, data.get(i));
+                }
+                data = grown;
+            }
+
+            int i = count - 1;
+            int j = n - 1;
+            for (int w = total - 1; j >= 0; w--) {
+                boolean fromData = i >= 0 && compareAt(i, sorted, j) > 0;
+                for (int k = 0; k < 3; k++) {
+                    data.put(w * 3 + k,
+                            fromData ? data.get(i * 3 + k) : sorted[j * 3 + k]);
+                }
+                if (fromData) {
+                    i--;
+                } else {
+                    j--;
+                }
+            }
+            count = total;
+        }
+
+        private int compareAt(int i, long[] sorted, int j) {
+            int cmp = Long.compare(data.get(i * 3), sorted[j * 3]);
+            if (cmp == 0) {
+                cmp = Long.compare(data.get(i * 3 + 1), sorted[j * 3 + 1]);
+            }
+            if (cmp == 0) {
+                cmp = Long.compare(data.get(i * 3 + 2), sorted[j * 3 + 2]);
+            }
+            return cmp;
+        }
+
+        // Quicksort of packed triples lo..hi (inclusive, in triples)
+        private static void sort(long[] a, int lo, int hi) {
+            while (hi - lo > 16) {
+                int mid = (lo + hi) >>> 1;
+                long p0 = a[mid * 3];
+                long p1 = a[mid * 3 + 1];
+                long p2 = a[mid * 3 + 2];
+                int i = lo;
+                int j = hi;
+                while (i <= j) {
+                    while (compare(a, i, p0, p1, p2) < 0) {
+                        i++;
+                    }
+                    while (compare(a, j, p0, p1, p2) > 0) {
+                        j--;
+                    }
+                    if (i <= j) {
+                        swap(a, i++, j--);
+                    }
+                }
+                // Recurse into the smaller side, loop on the larger
+                if (j - lo < hi - i) {
+                    sort(a, lo, j);
+                    lo = i;
+                } else {
+                    sort(a, i, hi);
+                    hi = j;
+                }
+            }
+            for (int i = lo + 1; i <= hi; i++) {
+                for (int j = i; j > lo && compare(a, j - 1,
+                        a[j * 3], a[j * 3 + 1], a[j * 3 + 2]) > 0; j--) {
+                    swap(a, j, j - 1);
+                }
+            }
+        }
+
+        private static int compare(long[] a, int i, long b0, long b1, long b2) {
+            int cmp = Long.compare(a[i * 3], b0);
+            if (cmp == 0) {
+                cmp = Long.compare(a[i * 3 + 1], b1);
+            }
+            if (cmp == 0) {
+                cmp = Long.compare(a[i * 3 + 2], b2);
+            }
+            return cmp;
+        }
+
+        private static void swap(long[] a, int i, int j) {
+            for (int k = 0; k < 3; k++) {
+                long tmp = a[i * 3 + k];
+                a[i * 3 + k] = a[j * 3 + k];
+                a[j * 3 + k] = tmp;
+            }
+        }
+    }
+
+    /*
+     * Open-addressing hash set of id triples, for the small sets of
+     * unmerged additions and deletions.
+     */
+    private static final class TripleSet {
+
+        private static final long REMOVED = -1;
+
+        private long[] slots = new long[3 * 64];
+        private int size;
+        private int used;
+
+        int size() {
+            return size;
+        }
+
+        boolean contains(long s, long p, long o) {
+            return find(s, p, o) >= 0;
+        }
+
+        boolean add(long s, long p, long o) {
+            if (find(s, p, o) >= 0) {
+                return false;
+            }
+            if ((used + 1) * 2 > slots.length / 3) {
+                rehash(size * 4 > slots.length / 3 ? slots.length * 2 : slots.length);
+            }
+            int mask = slots.length / 3 - 1;
+            int i = hash(s, p, o) & mask;
+            while (slots[i * 3] != 0 && slots[i * 3] != REMOVED) {
+                i = (i + 1) & mask;
+            }
+            if (slots[i * 3] == 0) {
+                used++;
+            }
+            slots[i * 3] = s;
+            slots[i * 3 + 1] = p;
+            slots[i * 3 + 2] = o;
+            size++;
+            return true;
+        }
+
+        boolean remove(long s, long p, long o) {
+            int i = find(s, p, o);
+            if (i < 0) {
+                return false;
+            }
+            slots[i * 3] = REMOVED;
+            size--;
+            return true;
+        }
+
+        void clear() {
+            if (used > 0) {
+                slots = new long[3 * 64];
+                size = 0;
+                used = 0;
+            }
+        }
+
+        long[] toArray() {
+            long[] triples = new long[size * 3];
+            int n = 0;
+            for (int i = 0; i < slots.length; i += 3) {
+                if (slots[i] != 0 && slots[i] != REMOVED) {
+                    triples[n++] = slots[i];
+                    triples[n++] = slots[i + 1];
+                    triples[n++] = slots[i + 2];
+                }
+            }
+            return triples;
+        }
+
+        private int find(long s, long p, long o) {
+            int mask = slots.length / 3 - 1;
+            int i = hash(s, p, o) & mask;
+            while (slots[i * 3] != 0) {
+                if (slots[i * 3] == s && slots[i * 3 + 1] == p
+                        && slots[i * 3 + 2] == o) {
+                    return i;
+                }
+                i = (i + 1) & mask;
+            }
+            return -1;
+        }
+
+        private void rehash(int length) {
+            long[] old = slots;
+            slots = new long[length];
+            size = 0;
+            used = 0;
+            for (int i = 0; i < old.length; i += 3) {
+                if (old[i] != 0 && old[i] != REMOVED) {
+                    add(old[i], old[i + 1], old[i + 2]);
+                }
+            }
+        }
+
+        private static int hash(long s, long p, long o) {
+            long h = (s * 31 + p) * 31 + o;
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            return (int) h;
+        }
+    }
+
+    /*
+     * Node <-> id. Each node is written once as [hash][length][UTF-8 bytes]
+     * into direct chunks; its id is (chunk + 1) << 32 | offset, so 0 is
+     * never an id. The hash table from node to id is a direct array too.
+     */
+    private static final class Dictionary {
+
+        private static final int CHUNK_SIZE = 1 << 22;
+        private static final int CACHE_SIZE = 1 << 14;
+
+        private final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+        private ByteBuffer current;
+        private LongBuffer table = ByteBuffer.allocateDirect(8 * 1024).asLongBuffer();
+        private int count;
+        // Recently decoded nodes, so the predicates and shared objects of a
+        // scan don't get decoded over and over
+        private final Cached[] cache = new Cached[CACHE_SIZE];
+
+        private static final class Cached {
+            final long id;
+            final Node node;
+
+            Cached(long id, Node node) {
+                this.id = id;
+                this.node = node;
+            }
+        }
+
+        long bytes() {
+            long bytes = (long) table.capacity() * 8;
+            for (ByteBuffer chunk : chunks) {
+                bytes += chunk.capacity();
+            }
+            return bytes;
+        }
+
+        /*
+         * Id of the node, or 0 if it isn't in the dictionary.
+         */
+        long lookup(Node node) {
+            byte[] key = encode(node);
+            int hash = hash(key);
+            int mask = table.capacity() - 1;
+            for (int i = hash & mask; ; i = (i + 1) & mask) {
+                long id = table.get(i);
+                if (id == 0 || matches(id, hash, key)) {
+                    return id;
+                }
+            }
+        }
+
+        long intern(Node node) {
+            byte[] key = encode(node);
+            int hash = hash(key);
+            int mask = table.capacity() - 1;
+            int i = hash & mask;
+            for (long id; (id = table.get(i)) != 0; i = (i + 1) & mask) {
+                if (matches(id, hash, key)) {
+                    return id;
+                }
+            }
+            long id = write(hash, key);
+            table.put(i, id);
+            if (++count * 2 > table.capacity()) {
+                rehash();
+            }
+            return id;
+        }
+
+        Node decode(long id) {
+            int slot = (int) (id ^ (id >>> 32)) & (CACHE_SIZE - 1);
+            Cached cached = cache[slot];
+            if (cached != null && cached.id == id) {
+                return cached.node;
+            }
+            ByteBuffer chunk = chunks.get((int) (id >>> 32) - 1);
+            int offset = (int) id;
+            byte[] bytes = new byte[chunk.getInt(offset + 4)];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = chunk.get(offset + 8 + i);
+            }
+            Node node = toNode(new String(bytes, StandardCharsets.UTF_8));
+            cache[slot] = new Cached(id, node);
+            return node;
+        }
+
+        private boolean matches(long id, int hash, byte[] key) {
+            ByteBuffer chunk = chunks.get((int) (id >>> 32) - 1);
+            int offset = (int) id;
+            if (chunk.getInt(offset) != hash
+                    || chunk.getInt(offset + 4) != key.length) {
+                return false;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (chunk.get(offset + 8 + i) != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private long write(int hash, byte[] key) {
+            int length = key.length + 8;
+            if (current == null || current.remaining() < length) {
+                current = ByteBuffer.allocateDirect(Math.max(CHUNK_SIZE, length));
+                chunks.add(current);
+            }
+            long id = ((long) chunks.size() << 32) | current.position();
+            current.putInt(hash).putInt(key.length).put(key);
+            return id;
+        }
+
+        private void rehash() {
+            LongBuffer old = table;
+            table = ByteBuffer.allocateDirect(old.capacity() * 2 * 8).asLongBuffer();
+            int mask = table.capacity() - 1;
+            for (int j = 0; j < old.capacity(); j++) {
+                long id = old.get(j);
+                if (id != 0) {
+                    ByteBuffer chunk = chunks.get((int) (id >>> 32) - 1);
+                    int i = chunk.getInt((int) id) & mask;
+                    while (table.get(i) != 0) {
+                        i = (i + 1) & mask;
+                    }
+                    table.put(i, id);
+                }
+            }
+        }
+
+        private static int hash(byte[] key) {
+            int h = 0;
+            for (byte b : key) {
+                h = 31 * h + b;
+            }
+            return h ^ (h >>> 16);
+        }
+
+        /*
+         * One string per term: "<" IRI, "_" blank node label,
+         * "@" lang " " lexical form, "^" datatype " " lexical form.
+         */
+        private static byte[] encode(Node node) {
+            String key;
+            if (node.isURI()) {
+                key = "<" + node.getURI();
+            } else if (node.isBlank()) {
+                key = "_" + node.getBlankNodeLabel();
+            } else if (node.isLiteral()) {
+                String lang = node.getLiteralLanguage();
+                key = lang != null && !lang.isEmpty()
+                        ? "@" + lang + " " + node.getLiteralLexicalForm()
+                        : "^" + node.getLiteralDatatypeURI() + " "
+                                + node.getLiteralLexicalForm();
+            } else {
+                throw new IllegalArgumentException("Not an RDF term: " + node);
+            }
+            return key.getBytes(StandardCharsets.UTF_8);
+        }
+
+        private static Node toNode(String key) {
+            String rest = key.substring(1);
+            switch (key.charAt(0)) {
+            case '<':
+                return NodeFactory.createURI(rest);
+            case '_':
+                return NodeFactory.createBlankNode(rest);
+            case '@': {
+                int space = rest.indexOf(' ');
+                return NodeFactory.createLiteral(rest.substring(space + 1),
+                        rest.substring(0, space));
+            }
+            default: {
+                int space = rest.indexOf(' ');
+                return NodeFactory.createLiteral(rest.substring(space + 1),
+                        TypeMapper.getInstance().getSafeTypeByName(
+                                rest.substring(0, space)));
+            }
+            }
+        }
+    }
+}
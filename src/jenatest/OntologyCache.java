@@ -0,0 +1,211 @@
+package jenatest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.ontology.OntDocumentManager;
+import org.apache.jena.ontology.OntModel;
+import org.apache.jena.ontology.OntModelSpec;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.sparql.graph.GraphFactory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/*
+ * Loads ontologies from local files instead of the network. Ontology IRIs are
+ * resolved through an OASIS XML catalog (rdf/ontologies/catalog-v001.xml by
+ * default). The first time a file is loaded it is parsed and compiled to an
+ * RDF Thrift snapshot in the cache directory; later loads read the snapshot
+ * through RdfFiles, memory-mapped, instead of re-parsing the RDF/XML or
+ * Turtle source. A snapshot is
+ * keyed by the source file's size and modification time, so editing the
+ * source invalidates it.
+ */
+public class OntologyCache {
+
+    private static final Logger LOGGER =
+            LogManager.getLogger(OntologyCache.class);
+
+    public static final String DEFAULT_CATALOG =
+            "rdf/ontologies/catalog-v001.xml";
+    public static final String DEFAULT_CACHE_DIR = "rdf/ontologies/cache";
+
+    private static final String SNAPSHOT_EXT = ".trdf";
+    // v2: lexical forms kept exactly, not literal values
+    private static final String SNAPSHOT_VERSION = "v2";
+
+    private static OntologyCache defaultCache;
+
+    private final Map<String, File> catalog;
+    private final File cacheDir;
+    private final Map<String, Model> loaded =
+            new ConcurrentHashMap<String, Model>();
+
+    public OntologyCache(String catalogFile, String cacheDir) {
+        this.catalog = readCatalog(new File(catalogFile));
+        this.cacheDir = new File(cacheDir);
+    }
+
+    public static synchronized OntologyCache getDefault() {
+        if (defaultCache == null) {
+            defaultCache = new OntologyCache(DEFAULT_CATALOG, DEFAULT_CACHE_DIR);
+        }
+        return defaultCache;
+    }
+
+    public Map<String, File> getCatalog() {
+        return Collections.unmodifiableMap(catalog);
+    }
+
+    /*
+     * Returns the local file for an ontology IRI, or null if the catalog has
+     * no entry for it. IRIs are matched with and without a trailing '#'.
+     */
+    public File resolve(String iri) {
+        File file = catalog.get(iri);
+        if (file == null) {
+            file = catalog.get(iri.endsWith("#")
+                    ? iri.substring(0, iri.length() - 1) : iri + "#");
+        }
+        return file;
+    }
+
+    /*
+     * Returns the ontology as a plain model. The returned model is shared
+     * between callers and should be treated as read-only.
+     */
+    public Model load(String iri) {
+        File source = resolve(iri);
+        if (source == null) {
+            throw new IllegalArgumentException(
+                    "No catalog entry for ontology " + iri);
+        }
+        String key = source.getAbsolutePath();
+        Model model = loaded.get(key);
+        if (model == null) {
+            synchronized (this) {
+                model = loaded.get(key);
+                if (model == null) {
+                    model = ModelFactory.createModelForGraph(loadGraph(source));
+                    loaded.put(key, model);
+                }
+            }
+        }
+        return model;
+    }
+
+    /*
+     * Builds an OntModel over the given ontologies, with the spec
+     * ModelFactory.createOntologyModel() defaults to (OWL_MEM_RDFS_INF).
+     * Imports are resolved through the cache as well, so nothing is fetched
+     * over the network.
+     */
+    public OntModel createOntModel(String... iris) {
+        OntDocumentManager docMgr = new OntDocumentManager();
+        docMgr.setProcessImports(false);
+        OntModelSpec spec = new OntModelSpec(OntModelSpec.OWL_MEM_RDFS_INF);
+        spec.setDocumentManager(docMgr);
+        OntModel ontModel = ModelFactory.createOntologyModel(spec);
+        for (String iri : iris) {
+            ontModel.addSubModel(load(iri), false);
+        }
+        ontModel.rebind();
+        return ontModel;
+    }
+
+    private Graph loadGraph(File source) {
+
+        File snapshot = snapshotFile(source);
+        Graph graph = GraphFactory.createDefaultGraph();
+        if (snapshot.exists()) {
+            try {
+                RdfFiles.read(graph, snapshot.getPath());
+                LOGGER.debug("Loaded " + source + " from " + snapshot);
+                return graph;
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("Discarding unreadable snapshot " + snapshot, e);
+                snapshot.delete();
+                graph = GraphFactory.createDefaultGraph();
+            }
+        }
+
+        RDFDataMgr.read(graph, source.getPath());
+        try {
+            writeSnapshot(source, snapshot, graph);
+            LOGGER.debug("Compiled " + source + " to " + snapshot);
+        } catch (IOException e) {
+            LOGGER.warn("Could not write snapshot " + snapshot, e);
+        }
+        return graph;
+    }
+
+    /*
+     * Snapshot names carry the snapshot format version and the source's size
+     * and timestamp; any snapshot of the same source with a different key is
+     * stale.
+     */
+    private File snapshotFile(File source) {
+        return new File(cacheDir, source.getName() + "." + SNAPSHOT_VERSION
+                + "." + Long.toHexString(source.length()) + "-"
+                + Long.toHexString(source.lastModified()) + SNAPSHOT_EXT);
+    }
+
+    private void writeSnapshot(File source, File snapshot, Graph graph)
+            throws IOException {
+
+        if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+            throw new IOException("Cannot create cache directory " + cacheDir);
+        }
+        File[] stale = cacheDir.listFiles((dir, name) ->
+                name.startsWith(source.getName() + ".")
+                        && name.endsWith(SNAPSHOT_EXT));
+        if (stale != null) {
+            for (File file : stale) {
+                file.delete();
+            }
+        }
+
+        // Write to a temp file and rename, so a concurrent reader never sees
+        // a partial snapshot.
+        File tmp = File.createTempFile(source.getName(), ".tmp", cacheDir);
+        RdfFiles.write(graph, tmp.getPath(), Lang.RDFTHRIFT);
+        if (!tmp.renameTo(snapshot)) {
+            tmp.delete();
+            throw new IOException("Cannot rename " + tmp + " to " + snapshot);
+        }
+    }
+
+    static Map<String, File> readCatalog(File catalogFile) {
+
+        Map<String, File> entries = new LinkedHashMap<String, File>();
+        File baseDir = catalogFile.getAbsoluteFile().getParentFile();
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            Document doc = factory.newDocumentBuilder().parse(catalogFile);
+            NodeList uris = doc.getElementsByTagNameNS("*", "uri");
+            for (int i = 0; i < uris.getLength(); i++) {
+                Element uri = (Element) uris.item(i);
+                entries.put(uri.getAttribute("name"),
+                        new File(baseDir, uri.getAttribute("uri")));
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException(
+                    "Cannot read ontology catalog " + catalogFile, e);
+        }
+        return entries;
+    }
+}
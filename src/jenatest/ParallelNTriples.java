@@ -0,0 +1,497 @@
+package jenatest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+import org.apache.jena.datatypes.RDFDatatype;
+import org.apache.jena.datatypes.TypeMapper;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.RiotException;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFBase;
+
+/*
+ * Parses one large N-Triples file on several threads.
+ *
+ * N-Triples is one triple per line, so the file can be cut anywhere there
+ * is a newline and each piece parsed on its own. The file is split into a
+ * few chunks per thread, each chunk's start moved forward to the next line,
+ * and each chunk mapped with FileChannel.map and scanned byte by byte
+ * straight out of the mapping: no InputStream, no decoder, no tokenizer
+ * objects. Bytes become Strings only for the terms themselves, in one
+ * copy, and IRIs repeated within a chunk - predicates, classes, datatypes -
+ * share one Node.
+ *
+ * Blank node labels are scoped to the file, as in RIOT: the same label in
+ * two chunks is the same node, and a different one from the same label in
+ * another parse. IRIs are taken as written, as RIOT's N-Triples parser
+ * does, and checked only for the characters N-Triples forbids. Errors
+ * give the byte offset in the file, not the line.
+ *
+ * parse() gives each chunk its own sink; load() puts everything in a
+ * graph, which is the one part that isn't parallel - the graph is filled
+ * by the calling thread while the workers parse ahead of it.
+ */
+public class ParallelNTriples {
+
+    // Chunks per thread, so one slow chunk doesn't leave the others idle.
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final long MAX_CHUNK = 1L << 28;
+    private static final int BATCH_SIZE = 10000;
+
+    private final int threads;
+
+    public ParallelNTriples() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public ParallelNTriples(int threads) {
+        this.threads = threads;
+    }
+
+    /*
+     * Parses the file, each chunk into the sink made for it by sinks (from
+     * the chunk's number), on the chunk's thread. start() and finish() are
+     * called on each sink. Returns the number of triples.
+     */
+    public long parse(String filename, IntFunction<StreamRDF> sinks)
+            throws IOException {
+        try (Metrics.Timer timer = Metrics.start("read");
+                FileChannel channel = FileChannel.open(Paths.get(filename),
+                        StandardOpenOption.READ)) {
+            List<long[]> chunks = split(channel);
+            String scope = UUID.randomUUID().toString();
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<Long>> results = new ArrayList<Future<Long>>();
+                for (int i = 0; i < chunks.size(); i++) {
+                    long[] chunk = chunks.get(i);
+                    StreamRDF sink = sinks.apply(i);
+                    results.add(pool.submit(() -> {
+                        sink.start();
+                        long n = scan(channel, chunk, scope, sink);
+                        sink.finish();
+                        return n;
+                    }));
+                }
+                long triples = 0;
+                for (Future<Long> result : results) {
+                    triples += get(result);
+                }
+                timer.triples(triples).bytes(channel.size());
+                return triples;
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    /*
+     * Parses the file into the graph. Returns the number of triples parsed.
+     */
+    public long load(String filename, Graph target) throws IOException {
+        // Bounded, so the workers can't get too far ahead of the graph.
+        BlockingQueue<List<Triple>> batches =
+                new ArrayBlockingQueue<List<Triple>>(threads * 4);
+        ExecutorService consumer = Executors.newSingleThreadExecutor();
+        try {
+            Future<Long> parsed = consumer.submit(() -> parse(filename,
+                    chunk -> new Batches(batches)));
+            while (!parsed.isDone() || !batches.isEmpty()) {
+                List<Triple> batch = batches.poll(10, TimeUnit.MILLISECONDS);
+                if (batch != null) {
+                    for (Triple t : batch) {
+                        target.add(t);
+                    }
+                }
+            }
+            return get(parsed);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } finally {
+            consumer.shutdownNow();
+        }
+    }
+
+    private static long get(Future<Long> result) throws IOException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RiotException(e.getCause());
+        }
+    }
+
+    /*
+     * Start and end offsets of the chunks, each starting at the beginning
+     * of a line.
+     */
+    private List<long[]> split(FileChannel channel) throws IOException {
+        long size = channel.size();
+        int parts = (int) Math.max(threads * CHUNKS_PER_THREAD,
+                (size + MAX_CHUNK - 1) / MAX_CHUNK);
+        List<long[]> chunks = new ArrayList<long[]>();
+        long start = 0;
+        for (int i = 1; i <= parts && start < size; i++) {
+            long end = i == parts ? size : lineStart(channel, size * i / parts);
+            if (end > start) {
+                chunks.add(new long[] { start, end });
+                start = end;
+            }
+        }
+        return chunks;
+    }
+
+    /*
+     * The offset just after the first newline at or after position, or the
+     * end of the file.
+     */
+    private static long lineStart(FileChannel channel, long position)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long size = channel.size();
+        while (position < size) {
+            buffer.clear();
+            int n = channel.read(buffer, position);
+            for (int i = 0; i < n; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += n;
+        }
+        return size;
+    }
+
+    private static long scan(FileChannel channel, long[] chunk, String scope,
+            StreamRDF sink) throws IOException {
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                chunk[0], chunk[1] - chunk[0]);
+        return new Scanner(buffer, chunk[0], scope).scan(sink);
+    }
+
+    /*
+     * Hands a chunk's triples to the loading thread in batches.
+     */
+    private static class Batches extends StreamRDFBase {
+
+        private final BlockingQueue<List<Triple>> queue;
+        private List<Triple> batch = new ArrayList<Triple>(BATCH_SIZE);
+
+        Batches(BlockingQueue<List<Triple>> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public void triple(Triple triple) {
+            batch.add(triple);
+            if (batch.size() == BATCH_SIZE) {
+                finish();
+            }
+        }
+
+        @Override
+        public void finish() {
+            if (batch.isEmpty()) {
+                return;
+            }
+            try {
+                queue.put(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RiotException("Interrupted");
+            }
+            batch = new ArrayList<Triple>(BATCH_SIZE);
+        }
+    }
+
+    /*
+     * N-Triples straight from the bytes of one chunk.
+     */
+    private static class Scanner {
+
+        // Distinct IRIs kept per chunk before the cache is started afresh.
+        private static final int CACHE_SIZE = 1 << 16;
+
+        private final ByteBuffer buffer;
+        private final long offset;
+        private final String scope;
+        private final int end;
+        private final Map<String, Node> iris = new HashMap<String, Node>();
+        private byte[] bytes = new byte[256];
+        private int pos;
+
+        Scanner(ByteBuffer buffer, long offset, String scope) {
+            this.buffer = buffer;
+            this.offset = offset;
+            this.scope = scope;
+            this.end = buffer.limit();
+        }
+
+        long scan(StreamRDF sink) {
+            long n = 0;
+            while (true) {
+                skipBlankLines();
+                if (pos >= end) {
+                    return n;
+                }
+                Node s = peek() == '<' ? iri() : blankNode();
+                skipSpace();
+                Node p = iri();
+                skipSpace();
+                byte c = peek();
+                Node o = c == '<' ? iri() : c == '"' ? literal() : blankNode();
+                skipSpace();
+                expect('.');
+                endOfLine();
+                sink.triple(Triple.create(s, p, o));
+                n++;
+            }
+        }
+
+        private byte peek() {
+            if (pos >= end) {
+                throw error("Unexpected end of file");
+            }
+            return buffer.get(pos);
+        }
+
+        private void expect(char c) {
+            if (peek() != c) {
+                throw error("Expected '" + c + "'");
+            }
+            pos++;
+        }
+
+        private void skipSpace() {
+            while (pos < end) {
+                byte c = buffer.get(pos);
+                if (c != ' ' && c != '\t') {
+                    return;
+                }
+                pos++;
+            }
+        }
+
+        private void skipBlankLines() {
+            while (pos < end) {
+                byte c = buffer.get(pos);
+                if (c == '#') {
+                    skipComment();
+                } else if (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+                    pos++;
+                } else {
+                    return;
+                }
+            }
+        }
+
+        private void skipComment() {
+            while (pos < end && buffer.get(pos) != '\n') {
+                pos++;
+            }
+        }
+
+        private void endOfLine() {
+            skipSpace();
+            if (pos < end) {
+                byte c = buffer.get(pos);
+                if (c == '#') {
+                    skipComment();
+                } else if (c != '\n' && c != '\r') {
+                    throw error("Expected end of line");
+                }
+            }
+        }
+
+        private Node iri() {
+            expect('<');
+            int start = pos;
+            boolean plain = true;
+            while (true) {
+                byte c = peek();
+                if (c == '>') {
+                    break;
+                } else if (c == '\\' || c < 0) {
+                    plain = false;
+                } else if (c <= ' ' || c == '<' || c == '"' || c == '{'
+                        || c == '}' || c == '|' || c == '^' || c == '`') {
+                    throw error("Bad character in IRI");
+                }
+                pos++;
+            }
+            String iri = string(start, pos, plain);
+            pos++;
+            Node node = iris.get(iri);
+            if (node == null) {
+                if (iris.size() == CACHE_SIZE) {
+                    iris.clear();
+                }
+                node = NodeFactory.createURI(iri);
+                iris.put(iri, node);
+            }
+            return node;
+        }
+
+        private Node blankNode() {
+            expect('_');
+            expect(':');
+            int start = pos;
+            while (pos < end) {
+                byte c = buffer.get(pos);
+                if (c == ' ' || c == '\t' || c == '\n' || c == '\r'
+                        || c == '<' || c == '"') {
+                    break;
+                }
+                pos++;
+            }
+            // A label can't end with '.': that's the end of the triple.
+            while (pos > start && buffer.get(pos - 1) == '.') {
+                pos--;
+            }
+            if (pos == start) {
+                throw error("Empty blank node label");
+            }
+            return NodeFactory.createBlankNode(scope + ':'
+                    + string(start, pos, false));
+        }
+
+        private Node literal() {
+            expect('"');
+            int start = pos;
+            boolean plain = true;
+            while (true) {
+                byte c = peek();
+                if (c == '"') {
+                    break;
+                } else if (c == '\\') {
+                    plain = false;
+                    pos++;
+                } else if (c < 0) {
+                    plain = false;
+                } else if (c == '\n' || c == '\r') {
+                    throw error("Line break in literal");
+                }
+                pos++;
+            }
+            String lexical = string(start, pos, plain);
+            pos++;
+            if (pos < end && buffer.get(pos) == '@') {
+                int tag = ++pos;
+                while (pos < end) {
+                    byte c = buffer.get(pos);
+                    if (!(c == '-' || (c >= 'a' && c <= 'z')
+                            || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9'))) {
+                        break;
+                    }
+                    pos++;
+                }
+                if (pos == tag) {
+                    throw error("Empty language tag");
+                }
+                return NodeFactory.createLiteral(lexical,
+                        string(tag, pos, true));
+            } else if (pos + 1 < end && buffer.get(pos) == '^'
+                    && buffer.get(pos + 1) == '^') {
+                pos += 2;
+                RDFDatatype datatype = TypeMapper.getInstance()
+                        .getSafeTypeByName(iri().getURI());
+                return NodeFactory.createLiteral(lexical, datatype);
+            }
+            return NodeFactory.createLiteral(lexical);
+        }
+
+        /*
+         * The bytes from start to end as a String: ASCII with no escapes
+         * is copied as it is, anything else decoded as UTF-8 and unescaped.
+         */
+        private String string(int start, int stop, boolean plain) {
+            int length = stop - start;
+            if (bytes.length < length) {
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            }
+            for (int i = 0; i < length; i++) {
+                bytes[i] = buffer.get(start + i);
+            }
+            if (plain) {
+                return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+            }
+            String text = new String(bytes, 0, length, StandardCharsets.UTF_8);
+            return text.indexOf('\\') < 0 ? text : unescape(text);
+        }
+
+        private String unescape(String text) {
+            StringBuilder sb = new StringBuilder(text.length());
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                if (++i == text.length()) {
+                    throw error("Bad escape");
+                }
+                c = text.charAt(i);
+                switch (c) {
+                case 't': sb.append('\t'); break;
+                case 'b': sb.append('\b'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 'f': sb.append('\f'); break;
+                case '"': sb.append('"'); break;
+                case '\'': sb.append('\''); break;
+                case '\\': sb.append('\\'); break;
+                case 'u':
+                case 'U':
+                    int digits = c == 'u' ? 4 : 8;
+                    if (i + digits >= text.length()) {
+                        throw error("Bad escape");
+                    }
+                    try {
+                        sb.appendCodePoint(Integer.parseInt(
+                                text.substring(i + 1, i + 1 + digits), 16));
+                    } catch (RuntimeException e) {
+                        throw error("Bad escape");
+                    }
+                    i += digits;
+                    break;
+                default:
+                    throw error("Bad escape \\" + c);
+                }
+            }
+            return sb.toString();
+        }
+
+        private RiotException error(String message) {
+            return new RiotException(message + " at byte " + (offset + pos));
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package jenatest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+
+import org.apache.jena.arq.querybuilder.ConstructBuilder;
+import org.apache.jena.arq.querybuilder.SelectBuilder;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.ARQ;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.sparql.algebra.Algebra;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.sparql.core.ResultBinding;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.ExecutionContext;
+import org.apache.jena.sparql.engine.QueryIterator;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.engine.binding.BindingMap;
+import org.apache.jena.sparql.engine.main.QC;
+import org.apache.jena.sparql.graph.GraphFactory;
+import org.apache.jena.sparql.util.Context;
+
+/*
+ * Parse-once, run-many SPARQL for per-record queries.
+ *
+ * Building a query string per record and passing it to QueryFactory.create
+ * parses and optimizes the same query over and over. Here a query template
+ * is parsed, compiled to algebra and optimized once; each execution binds
+ * the template's parameter variables (e.g. ?record to a record IRI) and
+ * evaluates the optimized algebra directly with those bindings as its
+ * input, so basic graph patterns become index lookups on the bound terms.
+ *
+ * Prepared queries are kept in an LRU cache keyed by query text. A prepared
+ * query is immutable and can be run from many threads at once against a
+ * graph nobody is writing to. Executions are timed as the "query" Metrics
+ * operation, counting result triples or solutions.
+ */
+public class QueryCache {
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final Map<String, Prepared> cache;
+    private long hits;
+    private long misses;
+
+    public QueryCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public QueryCache(int capacity) {
+        this.cache = new LinkedHashMap<String, Prepared>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Prepared> e) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /*
+     * The statements with ?record as subject or object - the CONSTRUCT in
+     * testInfModel, without the FILTER that makes it a full scan:
+     *
+     *   CONSTRUCT { ?record ?p ?o . ?s ?q ?record }
+     *   WHERE { { ?record ?p ?o } UNION { ?s ?q ?record } }
+     */
+    public static Query recordTemplate() {
+        return new ConstructBuilder()
+                .addConstruct("?record", "?p", "?o")
+                .addConstruct("?s", "?q", "?record")
+                .addUnion(new SelectBuilder().addWhere("?record", "?p", "?o"))
+                .addUnion(new SelectBuilder().addWhere("?s", "?q", "?record"))
+                .build();
+    }
+
+    public Prepared prepare(String sparql) {
+        synchronized (cache) {
+            Prepared prepared = cache.get(sparql);
+            if (prepared != null) {
+                hits++;
+                return prepared;
+            }
+            misses++;
+        }
+        // Compile outside the lock; if two threads race, one result wins.
+        Prepared prepared = new Prepared(QueryFactory.create(sparql));
+        synchronized (cache) {
+            Prepared existing = cache.putIfAbsent(sparql, prepared);
+            return existing != null ? existing : prepared;
+        }
+    }
+
+    public Prepared prepare(Query query) {
+        return prepare(query.serialize());
+    }
+
+    public long getHits() {
+        synchronized (cache) {
+            return hits;
+        }
+    }
+
+    public long getMisses() {
+        synchronized (cache) {
+            return misses;
+        }
+    }
+
+    public static class Prepared {
+
+        private final Query query;
+        private final Op op;
+        private final Context context;
+
+        Prepared(Query query) {
+            this.query = query;
+            this.op = Algebra.optimize(Algebra.compile(query));
+            this.context = ARQ.getContext().copy();
+        }
+
+        public Query getQuery() {
+            return query;
+        }
+
+        /*
+         * CONSTRUCT with the parameter variables bound to the given nodes.
+         */
+        public Graph construct(Graph data, Map<String, Node> params) {
+            if (!query.isConstructType()) {
+                throw new IllegalStateException("Not a CONSTRUCT query");
+            }
+            try (Metrics.Timer timer = Metrics.start("query")) {
+                Graph result = GraphFactory.createDefaultGraph();
+                List<Triple> triples = new ArrayList<Triple>();
+                Map<Node, Node> bnodes = new HashMap<Node, Node>();
+                QueryIterator it = exec(data, params);
+                try {
+                    while (it.hasNext()) {
+                        // Fresh blank nodes for each solution
+                        bnodes.clear();
+                        query.getConstructTemplate().subst(triples, bnodes,
+                                it.next());
+                    }
+                } finally {
+                    it.close();
+                }
+                for (Triple t : triples) {
+                    if (!t.getSubject().isLiteral() && t.getPredicate().isURI()) {
+                        result.add(t);
+                    }
+                }
+                timer.triples(result.size());
+                return result;
+            }
+        }
+
+        /*
+         * CONSTRUCT with one variable bound to an IRI, e.g.
+         * construct(model, "record", iri) for recordTemplate().
+         */
+        public Model construct(Model data, String var, String iri) {
+            return ModelFactory.createModelForGraph(construct(data.getGraph(),
+                    params(var, NodeFactory.createURI(iri))));
+        }
+
+        public List<QuerySolution> select(Model data, Map<String, Node> params) {
+            if (!query.isSelectType()) {
+                throw new IllegalStateException("Not a SELECT query");
+            }
+            try (Metrics.Timer timer = Metrics.start("query")) {
+                List<QuerySolution> solutions = new ArrayList<QuerySolution>();
+                QueryIterator it = exec(data.getGraph(), params);
+                try {
+                    while (it.hasNext()) {
+                        solutions.add(new ResultBinding(data, it.next()));
+                    }
+                } finally {
+                    it.close();
+                }
+                timer.triples(solutions.size());
+                return solutions;
+            }
+        }
+
+        public boolean ask(Graph data, Map<String, Node> params) {
+            try (Metrics.Timer timer = Metrics.start("query")) {
+                QueryIterator it = exec(data, params);
+                try {
+                    boolean found = it.hasNext();
+                    timer.triples(found ? 1 : 0);
+                    return found;
+                } finally {
+                    it.close();
+                }
+            }
+        }
+
+        /*
+         * Runs the CONSTRUCT for each IRI bound to var, on a pool of threads,
+         * handing each result to the callback as it is ready. The callback
+         * may be called from several threads at once.
+         */
+        public void constructAll(Model data, String var, Collection<String> iris,
+                int threads, BiConsumer<String, Model> callback) {
+            List<String> all = new ArrayList<String>(iris);
+            if (threads <= 1 || all.size() < 2) {
+                for (String iri : all) {
+                    callback.accept(iri, construct(data, var, iri));
+                }
+                return;
+            }
+            // A slice per task, as ResourceDescriber.describeAll does, not a
+            // task per IRI: millions of IRIs are still a handful of tasks.
+            int tasks = Math.min(all.size(), threads * 4);
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<?>> futures = new ArrayList<Future<?>>();
+                for (int t = 0; t < tasks; t++) {
+                    List<String> slice = all.subList(
+                            (int) ((long) all.size() * t / tasks),
+                            (int) ((long) all.size() * (t + 1) / tasks));
+                    futures.add(pool.submit(() -> {
+                        for (String iri : slice) {
+                            callback.accept(iri, construct(data, var, iri));
+                        }
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+
+        private QueryIterator exec(Graph data, Map<String, Node> params) {
+            DatasetGraph dataset = DatasetGraphFactory.createOneGraph(data);
+            ExecutionContext cxt = new ExecutionContext(context, data, dataset,
+                    QC.getFactory(context));
+            BindingMap binding = BindingFactory.create();
+            for (Map.Entry<String, Node> param : params.entrySet()) {
+                binding.add(Var.alloc(param.getKey()), param.getValue());
+            }
+            return QC.execute(op, (Binding) binding, cxt);
+        }
+
+        private static Map<String, Node> params(String var, Node value) {
+            Map<String, Node> params = new HashMap<String, Node>();
+            params.put(var, value);
+            return params;
+        }
+    }
+}
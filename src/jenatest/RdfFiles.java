@@ -0,0 +1,258 @@
+package jenatest;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.jena.atlas.lib.IRILib;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFFormat;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFLib;
+import org.apache.jena.riot.system.StreamRDFWriter;
+import org.apache.jena.riot.thrift.BinRDF;
+import org.apache.jena.util.iterator.ExtendedIterator;
+
+/*
+ * File input and output for the pipeline stages, in the syntax the file
+ * name says - N-Triples when it says nothing.
+ *
+ * Naming an intermediate file .trdf (or .rt) makes it RDF Thrift, Jena's
+ * binary encoding: terms are written as tagged binary records, so reading
+ * them back needs no tokenizing and no IRI checking, which is where most of
+ * the time goes when one stage writes N-Triples and the next parses it.
+ * Thrift is written without literal values (RDF_THRIFT, not
+ * RDF_THRIFT_VALUES), so every term, lexical form included, comes back
+ * exactly as it went in.
+ *
+ * Files are read through a memory-mapped input stream and written through
+ * a FileChannel with a 64KB buffer in front of it. Reads and writes are
+ * timed as the "read" and "write" Metrics operations.
+ */
+public class RdfFiles {
+
+    public static final int BUFFER_SIZE = 1 << 16;
+
+    private RdfFiles() {
+    }
+
+    public static boolean isThrift(String filename) {
+        return lang(filename) == Lang.RDFTHRIFT;
+    }
+
+    /*
+     * Syntax of a file from its name, N-Triples if unknown.
+     */
+    public static Lang lang(String filename) {
+        return RDFLanguages.filenameToLang(filename, Lang.NTRIPLES);
+    }
+
+    /*
+     * Input stream over the file mapped into memory.
+     */
+    public static InputStream openMapped(String filename) throws IOException {
+        return new MappedInputStream(Paths.get(filename));
+    }
+
+    /*
+     * Buffered output stream writing through a FileChannel, replacing the
+     * file if it exists.
+     */
+    public static OutputStream create(String filename) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(filename),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        return new BufferedOutputStream(Channels.newOutputStream(channel),
+                BUFFER_SIZE);
+    }
+
+    public static void parse(String filename, StreamRDF dest) throws IOException {
+        parse(filename, lang(filename), dest);
+    }
+
+    /*
+     * Parses the file into dest. Relative IRIs resolve against the file, as
+     * with RDFDataMgr.parse(dest, filename).
+     */
+    public static void parse(String filename, Lang lang, StreamRDF dest)
+            throws IOException {
+        try (Metrics.Timer timer = Metrics.start("read");
+                InputStream in = openMapped(filename)) {
+            if (timer.isEnabled()) {
+                timer.bytes(Files.size(Paths.get(filename)));
+            }
+            dest = timer.count(dest);
+            if (lang == Lang.RDFTHRIFT) {
+                BinRDF.inputStreamToStream(in, dest);
+            } else {
+                RDFDataMgr.parse(dest, in, IRILib.filenameToIRI(filename), lang);
+            }
+        }
+    }
+
+    /*
+     * Streaming writer for the syntax. The caller calls start() and
+     * finish() and closes the output stream. Turtle is written by
+     * TurtleStreamWriter, one statement per subject for a subject-sorted
+     * stream.
+     */
+    public static StreamRDF writer(OutputStream out, Lang lang) {
+        if (lang == Lang.RDFTHRIFT) {
+            return StreamRDFWriter.getWriterStream(out, RDFFormat.RDF_THRIFT);
+        } else if (lang == Lang.NTRIPLES) {
+            return StreamRDFLib.writer(out);
+        } else if (lang == Lang.TURTLE) {
+            return new TurtleStreamWriter(out);
+        } else if (!StreamRDFWriter.registered(lang)) {
+            throw new IllegalArgumentException("No streaming writer for " + lang);
+        }
+        return StreamRDFWriter.getWriterStream(out, lang);
+    }
+
+    /*
+     * Adds the triples in the file to the graph.
+     */
+    public static void read(Graph graph, String filename) throws IOException {
+        parse(filename, StreamRDFLib.graph(graph));
+    }
+
+    /*
+     * Writes the graph, with its prefixes, to the file. Returns the number
+     * of triples written.
+     */
+    public static long write(Graph graph, String filename) throws IOException {
+        return write(graph, filename, lang(filename));
+    }
+
+    /*
+     * Writes the graph to the file in the given syntax, whatever its name.
+     */
+    public static long write(Graph graph, String filename, Lang lang)
+            throws IOException {
+        try (Metrics.Timer timer = Metrics.start("write")) {
+            long written = writeGraph(graph, filename, lang);
+            timer.triples(written).size(written);
+            if (timer.isEnabled()) {
+                timer.bytes(Files.size(Paths.get(filename)));
+            }
+            return written;
+        }
+    }
+
+    private static long writeGraph(Graph graph, String filename, Lang lang)
+            throws IOException {
+        try (OutputStream out = create(filename)) {
+            if (!StreamRDFWriter.registered(lang) && lang != Lang.NTRIPLES) {
+                // RDF/XML and the like need the whole graph anyway.
+                RDFDataMgr.write(out, graph, lang);
+                return graph.size();
+            }
+            StreamRDF stream = writer(out, lang);
+            long written = 0;
+            stream.start();
+            graph.getPrefixMapping().getNsPrefixMap().forEach(stream::prefix);
+            ExtendedIterator<Triple> it = graph.find(Node.ANY, Node.ANY, Node.ANY);
+            try {
+                while (it.hasNext()) {
+                    stream.triple(it.next());
+                    written++;
+                }
+            } finally {
+                it.close();
+            }
+            stream.finish();
+            return written;
+        }
+    }
+
+    /*
+     * InputStream over a read-only mapping of the file, a window of up to
+     * 1GB at a time so files over 2GB can be read. The mappings are freed
+     * when they are garbage collected.
+     */
+    private static class MappedInputStream extends InputStream {
+
+        private static final long WINDOW = 1L << 30;
+
+        private final FileChannel channel;
+        private final long length;
+        private long position;
+        private MappedByteBuffer buffer;
+
+        MappedInputStream(Path path) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+            this.length = channel.size();
+        }
+
+        /*
+         * Makes sure the buffer has something to read. Returns false at the
+         * end of the file.
+         */
+        private boolean fill() throws IOException {
+            if (buffer != null && buffer.hasRemaining()) {
+                return true;
+            }
+            if (position >= length) {
+                return false;
+            }
+            long size = Math.min(WINDOW, length - position);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+            position += size;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return fill() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            } else if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = 0;
+            while (skipped < n && fill()) {
+                int step = (int) Math.min(n - skipped, buffer.remaining());
+                buffer.position(buffer.position() + step);
+                skipped += step;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            long left = (buffer == null ? 0 : buffer.remaining())
+                    + (length - position);
+            return (int) Math.min(left, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            buffer = null;
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package jenatest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.sparql.graph.GraphFactory;
+import org.apache.jena.util.iterator.ExtendedIterator;
+
+/*
+ * Extracts the triples about a resource - those with it as subject or object -
+ * by probing the graph's subject and object indexes, instead of running
+ *
+ *   CONSTRUCT { ?s ?p ?o } WHERE { ?s ?p ?o FILTER (?s = <x> || ?o = <x>) }
+ *
+ * which scans the whole graph once per resource. Optionally follows blank
+ * node objects (and blank node subjects pointing at the resource) to a
+ * bounded depth so that their descriptions come along too.
+ *
+ * The source graph is only read, so batches can be described concurrently.
+ */
+public class ResourceDescriber {
+
+    private final Graph data;
+    private final int bnodeDepth;
+
+    public ResourceDescriber(Model data) {
+        this(data.getGraph(), 0);
+    }
+
+    public ResourceDescriber(Graph data, int bnodeDepth) {
+        this.data = data;
+        this.bnodeDepth = bnodeDepth;
+    }
+
+    public Model describe(String iri) {
+        return ModelFactory.createModelForGraph(
+                describe(NodeFactory.createURI(iri)));
+    }
+
+    public Graph describe(Node resource) {
+        Graph result = GraphFactory.createDefaultGraph();
+        Set<Node> visited = new HashSet<Node>();
+        visited.add(resource);
+        copy(data.find(resource, Node.ANY, Node.ANY), result, visited,
+                bnodeDepth, true);
+        copy(data.find(Node.ANY, Node.ANY, resource), result, visited,
+                bnodeDepth, false);
+        return result;
+    }
+
+    /*
+     * Describes each IRI in the batch on a pool of threads and hands each
+     * result to the callback as soon as it is ready. The callback may be
+     * called from several threads at once. Returns when the whole batch is
+     * done.
+     */
+    public void describeAll(Collection<String> iris, int threads,
+            BiConsumer<String, Model> callback) {
+
+        List<String> all = new ArrayList<String>(iris);
+        if (threads <= 1 || all.size() < 2) {
+            for (String iri : all) {
+                callback.accept(iri, describe(iri));
+            }
+            return;
+        }
+
+        // One contiguous slice per task keeps scheduling overhead negligible
+        // even for millions of IRIs.
+        int tasks = Math.min(all.size(), threads * 4);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int t = 0; t < tasks; t++) {
+                List<String> slice = all.subList(
+                        (int) ((long) all.size() * t / tasks),
+                        (int) ((long) all.size() * (t + 1) / tasks));
+                futures.add(pool.submit(() -> {
+                    for (String iri : slice) {
+                        callback.accept(iri, describe(iri));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void copy(ExtendedIterator<Triple> it, Graph result,
+            Set<Node> visited, int depth, boolean outgoing) {
+
+        List<Node> bnodes = null;
+        try {
+            while (it.hasNext()) {
+                Triple t = it.next();
+                result.add(t);
+                Node next = outgoing ? t.getObject() : t.getSubject();
+                if (depth > 0 && next.isBlank() && visited.add(next)) {
+                    if (bnodes == null) {
+                        bnodes = new ArrayList<Node>();
+                    }
+                    bnodes.add(next);
+                }
+            }
+        } finally {
+            it.close();
+        }
+        if (bnodes != null) {
+            // A blank node's own description is its outgoing triples,
+            // whichever direction we reached it from.
+            for (Node bnode : bnodes) {
+                copy(data.find(bnode, Node.ANY, Node.ANY), result, visited,
+                        depth - 1, true);
+            }
+        }
+    }
+}
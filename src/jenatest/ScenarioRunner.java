@@ -0,0 +1,429 @@
+package jenatest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.tdb.TDBFactory;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/*
+ * Runs one of the Main scenarios over real data, from the command line, and
+ * reports throughput, peak heap and the time spent in each phase.
+ *
+ * Usage: ScenarioRunner [-t threads] [-b batch] [-o dir] [-f ext]
+ *                       [-m mapping] [-d tdb-dir] scenario input
+ *
+ *   dedup         sorted, distinct N-Triples of each input file
+ *   extract       load everything, then describe every typed IRI subject
+ *   infer         load everything, then materialize the BIBFRAME
+ *                 subclass/subproperty/domain/range entailments
+ *   rename        rewrite each file with the -m VocabularyMigration mapping
+ *   apply-deltas  apply each RDF patch file, in name order, to the -d TDB
+ *                 dataset
+ *   validate      check and repair the IRIs of each N-Triples file
+ *
+ * input is a file or a directory, searched recursively; validate only
+ * takes its .nt files. Scenarios that work file by file run -t files at a
+ * time (validate splits each file over the threads instead) and write
+ * their results under the -o directory, mirroring the input tree, each
+ * named for its input with the output extension added (a.ttl becomes
+ * a.ttl.nt); without -o the results are written to a null stream and
+ * discarded. -b is the number of triples merged into the graph at a time
+ * when loading, and of changes per TDB transaction for apply-deltas. -f is
+ * the extension, and so the syntax (see RdfFiles), of the dedup, rename
+ * and infer output: nt by default, trdf for RDF Thrift.
+ *
+ * e.g. "ScenarioRunner -t 8 -o out dedup corpus/"
+ */
+public class ScenarioRunner {
+
+    private static final Logger LOGGER =
+            LogManager.getLogger(ScenarioRunner.class);
+
+    public static final String[] SCENARIOS = { "dedup", "extract", "infer",
+            "rename", "apply-deltas", "validate" };
+
+    private final int threads;
+    private final int batchSize;
+    private final File outDir;
+    private final String extension;
+    // The syntax of the output extension
+    private final Lang lang;
+    private final String mapping;
+    private final String tdbDir;
+
+    private final Map<String, Long> phases = new LinkedHashMap<String, Long>();
+    private final AtomicLong triples = new AtomicLong();
+    private long files;
+
+    public ScenarioRunner(int threads, int batchSize, File outDir,
+            String extension, String mapping, String tdbDir) {
+        this.threads = threads;
+        this.batchSize = batchSize;
+        this.outDir = outDir;
+        this.extension = "." + extension;
+        this.lang = RdfFiles.lang(this.extension);
+        this.mapping = mapping;
+        this.tdbDir = tdbDir;
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        Options options = new Options();
+        options.addOption("t", "threads", true, "worker threads (default "
+                + "number of processors)");
+        options.addOption("b", "batch", true, "batch size in triples "
+                + "(default " + DirectoryIngester.DEFAULT_BATCH_SIZE
+                + "; apply-deltas " + ChangesetApplier.DEFAULT_BATCH_SIZE + ")");
+        options.addOption("o", "output", true, "output directory");
+        options.addOption("f", "format", true,
+                "output file extension: nt (default), trdf, ttl...");
+        options.addOption("m", "mapping", true,
+                "rename mapping file (for rename)");
+        options.addOption("d", "tdb", true,
+                "TDB dataset directory (for apply-deltas)");
+        options.addOption("h", "help", false, "print this help");
+
+        String usage = "ScenarioRunner [options] "
+                + String.join("|", SCENARIOS) + " input";
+        CommandLine cmd;
+        try {
+            cmd = new DefaultParser().parse(options, args);
+        } catch (ParseException e) {
+            LOGGER.error(e.getMessage());
+            new HelpFormatter().printHelp(usage, options);
+            return;
+        }
+        if (cmd.hasOption("h") || cmd.getArgs().length != 2) {
+            new HelpFormatter().printHelp(usage, options);
+            return;
+        }
+        String scenario = cmd.getArgs()[0];
+        int defaultBatch = scenario.equals("apply-deltas")
+                ? ChangesetApplier.DEFAULT_BATCH_SIZE
+                : DirectoryIngester.DEFAULT_BATCH_SIZE;
+        ScenarioRunner runner = new ScenarioRunner(
+                Integer.parseInt(cmd.getOptionValue("t",
+                        String.valueOf(Runtime.getRuntime().availableProcessors()))),
+                Integer.parseInt(cmd.getOptionValue("b",
+                        String.valueOf(defaultBatch))),
+                cmd.hasOption("o") ? new File(cmd.getOptionValue("o")) : null,
+                cmd.getOptionValue("f", "nt"), cmd.getOptionValue("m"),
+                cmd.getOptionValue("d"));
+        try {
+            runner.run(scenario, new File(cmd.getArgs()[1]));
+        } catch (IllegalArgumentException e) {
+            LOGGER.error(e.getMessage());
+            new HelpFormatter().printHelp(usage, options);
+        }
+    }
+
+    /*
+     * Runs the scenario over the input file or directory and logs the
+     * report.
+     */
+    public void run(String scenario, File input) throws IOException {
+
+        phases.clear();
+        triples.set(0);
+        files = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        long start = System.nanoTime();
+
+        List<File> inputs = phase("list", () -> list(input));
+        files = inputs.size();
+        Path base = input.isDirectory() ? input.getAbsoluteFile().toPath()
+                : input.getAbsoluteFile().getParentFile().toPath();
+        switch (scenario) {
+        case "dedup":
+            phase("dedup", () -> eachFile(inputs, file -> {
+                StreamingDedup dedup = new StreamingDedup();
+                try (OutputStream out = output(base, file, extension)) {
+                    dedup.dedup(file.getPath(), out, lang);
+                }
+                return dedup.getTriplesRead();
+            }));
+            break;
+        case "extract":
+            extract(inputs);
+            break;
+        case "infer":
+            infer(inputs);
+            break;
+        case "rename":
+            rename(base, inputs);
+            break;
+        case "apply-deltas":
+            applyDeltas(inputs);
+            break;
+        case "validate":
+            validate(base, inputs);
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown scenario: " + scenario);
+        }
+        report(scenario, System.nanoTime() - start);
+    }
+
+    private void validate(Path base, List<File> inputs) {
+        // The validator reads N-Triples lines; anything else would all be
+        // quarantined as syntax errors.
+        List<File> ntriples = inputs.stream()
+                .filter(f -> Lang.NTRIPLES.equals(
+                        RDFLanguages.filenameToLang(f.getName())))
+                .collect(Collectors.toList());
+        if (ntriples.size() < inputs.size()) {
+            LOGGER.info("Skipping " + (inputs.size() - ntriples.size())
+                    + " files that aren't N-Triples");
+        }
+        files = ntriples.size();
+        IriValidator validator = new IriValidator();
+        phase("validate", () -> {
+            for (File file : ntriples) {
+                try (Writer out = writer(output(base, file, ".nt"));
+                        Writer bad = writer(output(base, file, ".quarantine.nt"))) {
+                    triples.addAndGet(validator.validate(file.getPath(), out,
+                            bad, threads).triples);
+                }
+            }
+            return null;
+        });
+    }
+
+    private void extract(List<File> inputs) {
+        Model data = load(inputs);
+        List<String> iris = phase("select", () -> {
+            List<String> selected = new ArrayList<String>();
+            for (Resource r : data.listSubjectsWithProperty(RDF.type).toList()) {
+                if (r.isURIResource()) {
+                    selected.add(r.getURI());
+                }
+            }
+            return selected;
+        });
+        AtomicLong extracted = new AtomicLong();
+        phase("extract", () -> {
+            new ResourceDescriber(data).describeAll(iris, threads,
+                    (iri, description) -> extracted.addAndGet(description.size()));
+            return null;
+        });
+        LOGGER.info("Extracted " + iris.size() + " resources, "
+                + extracted.get() + " triples");
+    }
+
+    private void infer(List<File> inputs) {
+        Model data = load(inputs);
+        HierarchyClosure closure = phase("ontology", () -> HierarchyClosure.build(
+                OntologyCache.getDefault().load("http://bibframe.org/vocab/")));
+        int inferred = phase("infer", () -> closure.materialize(data));
+        LOGGER.info("Inferred " + inferred + " triples");
+        if (outDir != null) {
+            phase("write", () -> {
+                outDir.mkdirs();
+                RdfFiles.write(data.getGraph(),
+                        new File(outDir, "inferred" + extension).getPath());
+                return null;
+            });
+        }
+    }
+
+    private void rename(Path base, List<File> inputs) throws IOException {
+        if (mapping == null) {
+            throw new IllegalArgumentException("rename needs a mapping file (-m)");
+        }
+        // Read once up front so a bad mapping fails before any work starts.
+        // The hit counters aren't thread-safe, so one migration per thread.
+        VocabularyMigration.fromFile(mapping);
+        ThreadLocal<VocabularyMigration> migrations = ThreadLocal.withInitial(() -> {
+            try {
+                return VocabularyMigration.fromFile(mapping);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        phase("rename", () -> eachFile(inputs, file -> {
+            try (OutputStream out = output(base, file, extension)) {
+                return migrations.get().apply(file.getPath(), out, lang);
+            }
+        }));
+    }
+
+    private void applyDeltas(List<File> inputs) {
+        if (tdbDir == null) {
+            throw new IllegalArgumentException(
+                    "apply-deltas needs a TDB directory (-d)");
+        }
+        Dataset dataset = TDBFactory.createDataset(tdbDir);
+        try {
+            ChangesetApplier applier = new ChangesetApplier(dataset, batchSize);
+            // Changesets depend on each other, so one at a time, in order.
+            phase("apply", () -> {
+                for (File file : inputs) {
+                    triples.addAndGet(applier.apply(file.getPath()));
+                }
+                return null;
+            });
+        } finally {
+            TDBFactory.release(dataset);
+        }
+    }
+
+    private Model load(List<File> inputs) {
+        Model data = ModelFactory.createDefaultModel();
+        phase("load", () -> {
+            DirectoryIngester.Report report =
+                    new DirectoryIngester(threads, batchSize).ingest(inputs,
+                            data.getGraph());
+            triples.addAndGet(report.triples);
+            return null;
+        });
+        return data;
+    }
+
+    /*
+     * Runs the task for each file on the thread pool, adding up the triple
+     * counts it returns. The first failure stops the run.
+     */
+    private Void eachFile(List<File> inputs, FileTask task) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Long>> futures = new ArrayList<Future<Long>>();
+            for (File file : inputs) {
+                futures.add(pool.submit(() -> task.run(file)));
+            }
+            for (Future<Long> future : futures) {
+                triples.addAndGet(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        return null;
+    }
+
+    /*
+     * Where the result for an input file goes: the same relative path under
+     * the output directory, with the suffix added - after the extension, so
+     * a.ttl and a.rdf don't both become a.nt; or nowhere, if there is no
+     * output directory.
+     */
+    private OutputStream output(Path base, File input, String suffix)
+            throws IOException {
+        if (outDir == null) {
+            return new NullOutputStream();
+        }
+        Path relative = base.relativize(input.getAbsoluteFile().toPath());
+        File parent = relative.getParent() == null ? outDir
+                : new File(outDir, relative.getParent().toString());
+        parent.mkdirs();
+        return RdfFiles.create(new File(parent, input.getName() + suffix).getPath());
+    }
+
+    private static Writer writer(OutputStream out) {
+        return new OutputStreamWriter(out, StandardCharsets.UTF_8);
+    }
+
+    private static List<File> list(File input) throws IOException {
+        if (!input.exists()) {
+            throw new IllegalArgumentException("No such file: " + input);
+        } else if (!input.isDirectory()) {
+            return Collections.singletonList(input);
+        }
+        try (Stream<Path> paths = Files.walk(input.toPath())) {
+            return paths.filter(Files::isRegularFile)
+                    .map(Path::toFile)
+                    .filter(f -> !f.getName().startsWith("."))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private <T> T phase(String name, Phase<T> phase) {
+        long start = System.nanoTime();
+        try {
+            return phase.run();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            phases.merge(name, System.nanoTime() - start, Long::sum);
+        }
+    }
+
+    private void report(String scenario, long nanos) {
+        double secs = nanos / 1e9;
+        LOGGER.info(String.format("%s: %d files, %d triples in %.2f s",
+                scenario, files, triples.get(), secs));
+        LOGGER.info(String.format("  %.0f triples/s, %.2f files/s, "
+                + "peak heap %d MB, %d threads, batch %d",
+                triples.get() / secs, files / secs, peakHeap() / (1024 * 1024),
+                threads, batchSize));
+        for (Map.Entry<String, Long> phase : phases.entrySet()) {
+            LOGGER.info(String.format("  %-10s %10.3f s", phase.getKey(),
+                    phase.getValue() / 1e9));
+        }
+    }
+
+    /*
+     * Sum of the heap pools' peak usage since the run started. The pools
+     * peak at different times, so this is an upper bound.
+     */
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private interface Phase<T> {
+        T run() throws IOException;
+    }
+
+    private interface FileTask {
+        long run(File file) throws IOException;
+    }
+}
@@ -0,0 +1,436 @@
+package jenatest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.jena.atlas.lib.IRILib;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.ReaderRIOT;
+import org.apache.jena.riot.system.ParserProfile;
+import org.apache.jena.riot.system.ParserProfileBase;
+import org.apache.jena.riot.system.RiotLib;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFWrapper;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.sparql.util.FmtUtils;
+
+/*
+ * Replaces blank nodes with IRIs that are the same every time the same
+ * data is parsed, so files can be parsed by independent workers and the
+ * results concatenated, merged or deduplicated with no shared relabelling
+ * map - and a record loaded twice dedups instead of doubling up.
+ *
+ * Skolem IRIs are the prefix (by default under /.well-known/genid/, as
+ * RDF 1.1 suggests) followed by an MD5 hash:
+ *
+ * - LABEL mode hashes the source (the file, as named by the caller) and
+ *   the blank node's label in the file. Anonymous blank nodes - [] and
+ *   collection cells in Turtle - are labelled by their order in the file.
+ *   Labels only survive parsing in N-Triples, N-Quads, Turtle, TriG and
+ *   RDF Thrift; other syntaxes need CONTENT mode.
+ * - CONTENT mode hashes the blank node's description: its outgoing
+ *   triples, with blank objects standing for their own hashes. The same
+ *   description gives the same IRI in any file, so two identical blank
+ *   nodes become one. A blank node with no outgoing triples, or one on a
+ *   cycle, falls back to its LABEL mode IRI. Triples with blank nodes are
+ *   held until the end of the file, so memory grows with those, not with
+ *   the file.
+ *
+ * unskolemize() goes the other way on output: skolem IRIs with this
+ * prefix become blank nodes again, labelled by their hash.
+ */
+public class Skolemizer {
+
+    public static final String DEFAULT_PREFIX =
+            "http://jenatest.example.org/.well-known/genid/";
+
+    public enum Mode {
+        LABEL, CONTENT
+    }
+
+    private final Mode mode;
+    private final String prefix;
+
+    public Skolemizer(Mode mode) {
+        this(mode, DEFAULT_PREFIX);
+    }
+
+    public Skolemizer(Mode mode, String prefix) {
+        this.mode = mode;
+        this.prefix = prefix;
+    }
+
+    public boolean isSkolem(Node node) {
+        return node.isURI() && node.getURI().startsWith(prefix);
+    }
+
+    /*
+     * The LABEL mode IRI for a label in a source.
+     */
+    public Node skolemize(String source, String label) {
+        return NodeFactory.createURI(prefix + md5(source + '\u0000' + label));
+    }
+
+    /*
+     * Parses the file into dest with its blank nodes skolemized, the
+     * source being the file name as given, with / as the separator.
+     */
+    public void parse(String filename, StreamRDF dest) throws IOException {
+        parse(filename, RdfFiles.lang(filename),
+                Paths.get(filename).normalize().toString().replace('\\', '/'),
+                dest);
+    }
+
+    /*
+     * Parses the file with an explicit source - e.g. a path relative to the
+     * root of a tree, so a copy of the tree elsewhere gives the same IRIs.
+     */
+    public void parse(String filename, Lang lang, String source, StreamRDF dest)
+            throws IOException {
+        if (lang == Lang.RDFTHRIFT) {
+            // Thrift keeps the labels of the file it was written from.
+            RdfFiles.parse(filename, lang, skolemize(dest, source));
+        } else if (lang == Lang.NTRIPLES || lang == Lang.NQUADS
+                || lang == Lang.TURTLE || lang == Lang.TRIG) {
+            try (Metrics.Timer timer = Metrics.start("read");
+                    InputStream in = RdfFiles.openMapped(filename)) {
+                if (timer.isEnabled()) {
+                    timer.bytes(Files.size(Paths.get(filename)));
+                }
+                String base = IRILib.filenameToIRI(filename);
+                ReaderRIOT reader = RDFDataMgr.createReader(lang);
+                reader.setParserProfile(new SourceLabels(RiotLib.profile(lang, base)));
+                StreamRDF skolemized = new Unmark(skolemize(dest, source));
+                reader.read(in, base, null, timer.count(skolemized), null);
+            }
+        } else if (mode == Mode.LABEL) {
+            throw new IllegalArgumentException("Blank node labels are not kept by "
+                    + lang.getName() + ": use CONTENT mode");
+        } else {
+            RdfFiles.parse(filename, lang, skolemize(dest, source));
+        }
+    }
+
+    /*
+     * dest with the blank nodes of one source's triples and quads replaced
+     * by skolem IRIs.
+     */
+    public StreamRDF skolemize(StreamRDF dest, String source) {
+        return mode == Mode.LABEL ? new ByLabel(dest, source)
+                : new ByContent(dest, source);
+    }
+
+    /*
+     * dest with skolem IRIs of this prefix turned back into blank nodes.
+     */
+    public StreamRDF unskolemize(StreamRDF dest) {
+        return new StreamRDFWrapper(dest) {
+            @Override
+            public void triple(Triple triple) {
+                super.triple(Triple.create(unskolemize(triple.getSubject()),
+                        triple.getPredicate(), unskolemize(triple.getObject())));
+            }
+
+            @Override
+            public void quad(Quad quad) {
+                super.quad(Quad.create(unskolemize(quad.getGraph()),
+                        unskolemize(quad.getSubject()), quad.getPredicate(),
+                        unskolemize(quad.getObject())));
+            }
+        };
+    }
+
+    private Node unskolemize(Node node) {
+        return isSkolem(node)
+                ? NodeFactory.createBlankNode(node.getURI().substring(prefix.length()))
+                : node;
+    }
+
+    private static String md5(String text) {
+        MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM has MD5.
+            throw new IllegalStateException(e);
+        }
+        byte[] digest = md5.digest(text.getBytes(StandardCharsets.UTF_8));
+        StringBuilder hex = new StringBuilder(32);
+        for (byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16))
+                    .append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    private class ByLabel extends StreamRDFWrapper {
+
+        private final String source;
+
+        ByLabel(StreamRDF dest, String source) {
+            super(dest);
+            this.source = source;
+        }
+
+        private Node map(Node node) {
+            return node.isBlank()
+                    ? skolemize(source, node.getBlankNodeLabel()) : node;
+        }
+
+        @Override
+        public void triple(Triple triple) {
+            super.triple(Triple.create(map(triple.getSubject()),
+                    triple.getPredicate(), map(triple.getObject())));
+        }
+
+        @Override
+        public void quad(Quad quad) {
+            super.quad(Quad.create(map(quad.getGraph()), map(quad.getSubject()),
+                    quad.getPredicate(), map(quad.getObject())));
+        }
+    }
+
+    /*
+     * Passes ground triples straight on and holds the rest until finish(),
+     * when every blank node's description is known.
+     */
+    private class ByContent extends StreamRDFWrapper {
+
+        private final String source;
+        private final List<Quad> held = new ArrayList<Quad>();
+        private final Map<Node, List<Quad>> descriptions =
+                new LinkedHashMap<Node, List<Quad>>();
+        private final Map<Node, String> hashes = new HashMap<Node, String>();
+
+        ByContent(StreamRDF dest, String source) {
+            super(dest);
+            this.source = source;
+        }
+
+        @Override
+        public void triple(Triple triple) {
+            if (triple.getSubject().isBlank() || triple.getObject().isBlank()) {
+                hold(Quad.create(Quad.tripleInQuad, triple));
+            } else {
+                super.triple(triple);
+            }
+        }
+
+        @Override
+        public void quad(Quad quad) {
+            if (quad.getGraph().isBlank() || quad.getSubject().isBlank()
+                    || quad.getObject().isBlank()) {
+                hold(quad);
+            } else {
+                super.quad(quad);
+            }
+        }
+
+        private void hold(Quad quad) {
+            held.add(quad);
+            if (quad.getSubject().isBlank()) {
+                descriptions.computeIfAbsent(quad.getSubject(),
+                        k -> new ArrayList<Quad>()).add(quad);
+            }
+        }
+
+        @Override
+        public void finish() {
+            for (Quad quad : held) {
+                Node s = map(quad.getSubject());
+                Node o = map(quad.getObject());
+                if (quad.isTriple()) {
+                    super.triple(Triple.create(s, quad.getPredicate(), o));
+                } else {
+                    super.quad(Quad.create(map(quad.getGraph()), s,
+                            quad.getPredicate(), o));
+                }
+            }
+            held.clear();
+            descriptions.clear();
+            hashes.clear();
+            super.finish();
+        }
+
+        private Node map(Node node) {
+            if (!node.isBlank()) {
+                return node;
+            }
+            return NodeFactory.createURI(prefix + hash(node));
+        }
+
+        /*
+         * The hash of the node's sorted description; for a node with none,
+         * or one met again while hashing its own description, the LABEL
+         * mode hash. Post-order over an explicit stack, not recursion, as
+         * an rdf:List is one level deeper per cell.
+         */
+        private String hash(Node node) {
+            Set<Node> hashing = new HashSet<Node>();
+            if (pending(node, hashing) == null) {
+                return str(node).substring(2);
+            }
+            Deque<Frame> stack = new ArrayDeque<Frame>();
+            stack.push(new Frame(node));
+            hashing.add(node);
+            while (!stack.isEmpty()) {
+                Frame frame = stack.peek();
+                if (frame.next < frame.description.size()) {
+                    Quad quad = frame.description.get(frame.next);
+                    Node child = quad.isTriple() ? null
+                            : pending(quad.getGraph(), hashing);
+                    if (child == null) {
+                        child = pending(quad.getObject(), hashing);
+                    }
+                    if (child != null) {
+                        // Hash it first, then come back to this quad
+                        stack.push(new Frame(child));
+                        hashing.add(child);
+                        continue;
+                    }
+                    frame.lines.add((quad.isTriple() ? "" : str(quad.getGraph()))
+                            + " " + FmtUtils.stringForNode(quad.getPredicate())
+                            + " " + str(quad.getObject()));
+                    frame.next++;
+                } else {
+                    stack.pop();
+                    hashing.remove(frame.node);
+                    Collections.sort(frame.lines);
+                    hashes.put(frame.node, md5(String.join("\n", frame.lines)));
+                }
+            }
+            return hashes.get(node);
+        }
+
+        /*
+         * The node, if it's a blank node with a description to hash first:
+         * not hashed yet, and not being hashed further down the stack.
+         */
+        private Node pending(Node node, Set<Node> hashing) {
+            return node.isBlank() && !hashes.containsKey(node)
+                    && descriptions.containsKey(node)
+                    && !hashing.contains(node) ? node : null;
+        }
+
+        /*
+         * The node as written in a description. A blank node is hashed
+         * already, or has no description, or is on a cycle.
+         */
+        private String str(Node node) {
+            if (!node.isBlank()) {
+                return FmtUtils.stringForNode(node);
+            }
+            String hash = hashes.get(node);
+            if (hash == null) {
+                hash = md5(source + '\u0000' + node.getBlankNodeLabel());
+            }
+            return "_:" + hash;
+        }
+
+        /*
+         * A node whose description is being hashed, and how far it's got.
+         */
+        private class Frame {
+
+            final Node node;
+            final List<Quad> description;
+            final List<String> lines;
+            int next;
+
+            Frame(Node node) {
+                this.node = node;
+                this.description = descriptions.get(node);
+                this.lines = new ArrayList<String>(description.size());
+            }
+        }
+    }
+
+    /*
+     * Labels from SourceLabels back to labels: "=" taken off labels from
+     * the file, "#" anonymous labels kept, and the rest - collection cells,
+     * which the Turtle parser makes itself with fresh labels - numbered
+     * "~" in order of appearance.
+     */
+    private static class Unmark extends StreamRDFWrapper {
+
+        private final Map<String, Node> cells = new HashMap<String, Node>();
+
+        Unmark(StreamRDF dest) {
+            super(dest);
+        }
+
+        private Node map(Node node) {
+            if (!node.isBlank()) {
+                return node;
+            }
+            String label = node.getBlankNodeLabel();
+            if (label.startsWith("=")) {
+                return NodeFactory.createBlankNode(label.substring(1));
+            } else if (label.startsWith("#")) {
+                return node;
+            }
+            Node cell = cells.get(label);
+            if (cell == null) {
+                cell = NodeFactory.createBlankNode("~" + cells.size());
+                cells.put(label, cell);
+            }
+            return cell;
+        }
+
+        @Override
+        public void triple(Triple triple) {
+            super.triple(Triple.create(map(triple.getSubject()),
+                    triple.getPredicate(), map(triple.getObject())));
+        }
+
+        @Override
+        public void quad(Quad quad) {
+            super.quad(Quad.create(map(quad.getGraph()), map(quad.getSubject()),
+                    quad.getPredicate(), map(quad.getObject())));
+        }
+    }
+
+    /*
+     * Blank nodes labelled as in the file, marked with "=", and anonymous
+     * ones "#" and their order in it, instead of fresh labels every parse.
+     * Neither character can start a label in the file.
+     */
+    private static class SourceLabels extends ParserProfileBase {
+
+        private long anonymous;
+
+        SourceLabels(ParserProfile profile) {
+            super(profile.getPrologue(), profile.getHandler());
+            setStrictMode(profile.isStrictMode());
+        }
+
+        @Override
+        public Node createBlankNode(Node scope, String label, long line, long col) {
+            return NodeFactory.createBlankNode("=" + label);
+        }
+
+        @Override
+        public Node createBlankNode(Node scope, long line, long col) {
+            return NodeFactory.createBlankNode("#" + anonymous++);
+        }
+    }
+}
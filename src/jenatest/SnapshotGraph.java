@@ -0,0 +1,672 @@
+package jenatest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.jena.graph.Capabilities;
+import org.apache.jena.graph.GraphEvents;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.graph.impl.GraphBase;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.jena.util.iterator.NiceIterator;
+import org.apache.jena.util.iterator.WrappedIterator;
+
+/*
+ * In-memory graph for one writer and any number of concurrent readers,
+ * with snapshot isolation and no read locks.
+ *
+ * The triples are held in three persistent (immutable, structurally
+ * shared) hash tries, by subject, predicate and object. A commit builds
+ * new versions of the tries, copying only the trie nodes on the paths to
+ * the changed triples, and publishes them all at once with one volatile
+ * write. A reader takes the current version with one volatile read and
+ * from then on sees exactly that version, however many commits follow; it
+ * never waits for the writer and the writer never waits for it. Versions
+ * nobody holds any more are garbage collected.
+ *
+ * Use snapshot() for a consistent view across several calls - a SPARQL
+ * query, a describe, a contains check followed by a find - and commit()
+ * to apply a batch of retractions and assertions atomically. Calls on the
+ * SnapshotGraph itself see the latest commit as of each call, and a
+ * single add or delete on it is a commit of its own. Commits are
+ * serialized, so more than one thread may write, but they take turns.
+ *
+ * As with OffHeapGraph, literals match by term, not by value.
+ */
+public class SnapshotGraph extends GraphBase {
+
+    private volatile Version current = new Version(null, null, null, 0, 0);
+    private final Object writeLock = new Object();
+
+    public static Model createModel() {
+        return ModelFactory.createModelForGraph(new SnapshotGraph());
+    }
+
+    /*
+     * The latest committed version. It never changes, and may be read from
+     * any number of threads.
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(current);
+    }
+
+    public long getVersion() {
+        return current.number;
+    }
+
+    /*
+     * Applies the retractions, then the assertions, as one commit. Readers
+     * see all of it or none of it. Listeners are told about the triples
+     * that were really removed and added. Returns the new version number.
+     */
+    public long commit(Collection<Triple> retractions,
+            Collection<Triple> assertions) {
+        List<Triple> removed = new ArrayList<Triple>();
+        List<Triple> added = new ArrayList<Triple>();
+        Version published;
+        synchronized (writeLock) {
+            Writer writer = new Writer(current);
+            for (Triple t : retractions) {
+                if (writer.delete(t)) {
+                    removed.add(t);
+                }
+            }
+            for (Triple t : assertions) {
+                if (writer.add(t)) {
+                    added.add(t);
+                }
+            }
+            published = writer.publish();
+            current = published;
+        }
+        if (!removed.isEmpty()) {
+            getEventManager().notifyDeleteList(this, removed);
+        }
+        if (!added.isEmpty()) {
+            getEventManager().notifyAddList(this, added);
+        }
+        // Not current: another commit may have published since.
+        return published.number;
+    }
+
+    /*
+     * The testAssertionsAndRetractions changes, as one commit.
+     */
+    public long commit(Model retractions, Model assertions) {
+        return commit(retractions.getGraph().find(Node.ANY, Node.ANY, Node.ANY)
+                .toList(), assertions.getGraph().find(Node.ANY, Node.ANY,
+                        Node.ANY).toList());
+    }
+
+    @Override
+    public void performAdd(Triple t) {
+        synchronized (writeLock) {
+            Writer writer = new Writer(current);
+            if (writer.add(t)) {
+                current = writer.publish();
+            }
+        }
+    }
+
+    @Override
+    public void performDelete(Triple t) {
+        synchronized (writeLock) {
+            Writer writer = new Writer(current);
+            if (writer.delete(t)) {
+                current = writer.publish();
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        synchronized (writeLock) {
+            current = new Version(null, null, null, 0, current.number + 1);
+        }
+        getEventManager().notifyEvent(this, GraphEvents.removeAll);
+    }
+
+    @Override
+    protected int graphBaseSize() {
+        return current.size;
+    }
+
+    @Override
+    protected boolean graphBaseContains(Triple t) {
+        return current.contains(t);
+    }
+
+    @Override
+    protected ExtendedIterator<Triple> graphBaseFind(Triple pattern) {
+        return current.find(pattern);
+    }
+
+    @Override
+    public Capabilities getCapabilities() {
+        return CAPABILITIES;
+    }
+
+    private static final Capabilities CAPABILITIES = new Capabilities() {
+        @Override public boolean sizeAccurate() { return true; }
+        @Override public boolean addAllowed() { return true; }
+        @Override public boolean addAllowed(boolean every) { return true; }
+        @Override public boolean deleteAllowed() { return true; }
+        @Override public boolean deleteAllowed(boolean every) { return true; }
+        @Override public boolean iteratorRemoveAllowed() { return false; }
+        @Override public boolean canBeEmpty() { return true; }
+        @Override public boolean findContractSafe() { return true; }
+        @Override public boolean handlesLiteralTyping() { return false; }
+    };
+
+    /*
+     * Read-only graph over one version.
+     */
+    public static class Snapshot extends GraphBase {
+
+        private final Version version;
+
+        Snapshot(Version version) {
+            this.version = version;
+        }
+
+        public long getVersion() {
+            return version.number;
+        }
+
+        public Model getModel() {
+            return ModelFactory.createModelForGraph(this);
+        }
+
+        /*
+         * The snapshot as the default graph of a dataset, for SPARQL.
+         */
+        public Dataset getDataset() {
+            return DatasetFactory.create(getModel());
+        }
+
+        @Override
+        protected int graphBaseSize() {
+            return version.size;
+        }
+
+        @Override
+        protected boolean graphBaseContains(Triple t) {
+            return version.contains(t);
+        }
+
+        @Override
+        protected ExtendedIterator<Triple> graphBaseFind(Triple pattern) {
+            return version.find(pattern);
+        }
+    }
+
+    /*
+     * The three index tries of one commit. Each trie maps a node to the
+     * root of a trie holding the triples with that node in its position.
+     */
+    private static class Version {
+
+        final Object subjects;
+        final Object predicates;
+        final Object objects;
+        final int size;
+        final long number;
+
+        Version(Object subjects, Object predicates, Object objects, int size,
+                long number) {
+            this.subjects = subjects;
+            this.predicates = predicates;
+            this.objects = objects;
+            this.size = size;
+            this.number = number;
+        }
+
+        boolean contains(Triple t) {
+            if (!t.isConcrete()) {
+                return find(t).hasNext();
+            }
+            Object set = Trie.get(subjects, t.getSubject());
+            return set != null && Trie.get(set, t) != null;
+        }
+
+        ExtendedIterator<Triple> find(Triple pattern) {
+            Node s = pattern.getMatchSubject();
+            Node p = pattern.getMatchPredicate();
+            Node o = pattern.getMatchObject();
+            Object set;
+            if (s != null) {
+                set = Trie.get(subjects, s);
+            } else if (o != null) {
+                set = Trie.get(objects, o);
+            } else if (p != null) {
+                set = Trie.get(predicates, p);
+            } else {
+                return WrappedIterator.create(new Flatten(subjects));
+            }
+            if (set == null) {
+                return NiceIterator.emptyIterator();
+            }
+            ExtendedIterator<Triple> it = WrappedIterator.create(
+                    new Trie.Values<Triple>(set));
+            int bound = (s != null ? 1 : 0) + (p != null ? 1 : 0)
+                    + (o != null ? 1 : 0);
+            return bound == 1 ? it : it.filterKeep(t ->
+                    (s == null || s.equals(t.getSubject()))
+                    && (p == null || p.equals(t.getPredicate()))
+                    && (o == null || o.equals(t.getObject())));
+        }
+    }
+
+    /*
+     * Makes one commit. Trie nodes it creates belong to its Edit and are
+     * updated in place; nodes of earlier versions are copied. A Writer is
+     * used once, so nothing it published can change afterwards.
+     */
+    private static class Writer {
+
+        private final Trie.Edit edit = new Trie.Edit();
+        private final long number;
+        private Object subjects;
+        private Object predicates;
+        private Object objects;
+        private int size;
+
+        Writer(Version base) {
+            subjects = base.subjects;
+            predicates = base.predicates;
+            objects = base.objects;
+            size = base.size;
+            number = base.number + 1;
+        }
+
+        boolean add(Triple t) {
+            Object set = Trie.get(subjects, t.getSubject());
+            edit.changed = false;
+            Object updated = Trie.put(set, t, t, edit);
+            if (!edit.changed) {
+                return false;
+            }
+            subjects = Trie.put(subjects, t.getSubject(), updated, edit);
+            predicates = addTo(predicates, t.getPredicate(), t);
+            objects = addTo(objects, t.getObject(), t);
+            size++;
+            return true;
+        }
+
+        boolean delete(Triple t) {
+            Object set = Trie.get(subjects, t.getSubject());
+            edit.changed = false;
+            Object updated = Trie.remove(set, t, edit);
+            if (!edit.changed) {
+                return false;
+            }
+            subjects = replace(subjects, t.getSubject(), set, updated);
+            predicates = deleteFrom(predicates, t.getPredicate(), t);
+            objects = deleteFrom(objects, t.getObject(), t);
+            size--;
+            return true;
+        }
+
+        Version publish() {
+            return new Version(subjects, predicates, objects, size, number);
+        }
+
+        private Object addTo(Object index, Node key, Triple t) {
+            Object set = Trie.get(index, key);
+            return replace(index, key, set, Trie.put(set, t, t, edit));
+        }
+
+        private Object deleteFrom(Object index, Node key, Triple t) {
+            Object set = Trie.get(index, key);
+            return replace(index, key, set, Trie.remove(set, t, edit));
+        }
+
+        private Object replace(Object index, Node key, Object set,
+                Object updated) {
+            if (updated == set) {
+                // Changed in place, or not at all
+                return index;
+            }
+            return updated == null ? Trie.remove(index, key, edit)
+                    : Trie.put(index, key, updated, edit);
+        }
+    }
+
+    /*
+     * All the triples of a version: the values of each subject's trie.
+     */
+    private static class Flatten implements Iterator<Triple> {
+
+        private final Trie.Values<Object> sets;
+        private Trie.Values<Triple> current;
+
+        Flatten(Object subjects) {
+            this.sets = new Trie.Values<Object>(subjects);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (current == null || !current.hasNext()) {
+                if (!sets.hasNext()) {
+                    return false;
+                }
+                current = new Trie.Values<Triple>(sets.next());
+            }
+            return true;
+        }
+
+        @Override
+        public Triple next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+    }
+
+    /*
+     * Persistent hash array mapped trie. A trie is its root: null when
+     * empty, otherwise an Entry, a Branch (up to 32 children selected by 5
+     * bits of the key's hash at each level) or, below the last level,
+     * a Collision of entries whose hashes are all equal. Updates return a
+     * new root and leave the old one untouched, except for nodes that
+     * belong to the given Edit, which are updated in place.
+     */
+    static final class Trie {
+
+        private static final int MAX_SHIFT = 30;
+
+        static final class Edit {
+            // Set by put/remove when a key was added or removed
+            boolean changed;
+        }
+
+        static final class Entry {
+            final int hash;
+            final Object key;
+            final Object value;
+
+            Entry(int hash, Object key, Object value) {
+                this.hash = hash;
+                this.key = key;
+                this.value = value;
+            }
+        }
+
+        abstract static class Inner {
+            Edit edit;
+            Object[] children;
+
+            Inner(Edit edit, Object[] children) {
+                this.edit = edit;
+                this.children = children;
+            }
+
+            boolean ownedBy(Edit e) {
+                return edit == e;
+            }
+        }
+
+        static final class Branch extends Inner {
+            int bitmap;
+
+            Branch(Edit edit, int bitmap, Object[] children) {
+                super(edit, children);
+                this.bitmap = bitmap;
+            }
+
+            Branch editable(Edit e) {
+                return ownedBy(e) ? this
+                        : new Branch(e, bitmap, children.clone());
+            }
+        }
+
+        static final class Collision extends Inner {
+            final int hash;
+
+            Collision(Edit edit, int hash, Object[] entries) {
+                super(edit, entries);
+                this.hash = hash;
+            }
+        }
+
+        private Trie() {
+        }
+
+        static Object get(Object root, Object key) {
+            int hash = key.hashCode();
+            Object node = root;
+            for (int shift = 0; node != null; shift += 5) {
+                if (node instanceof Entry) {
+                    Entry e = (Entry) node;
+                    return e.hash == hash && e.key.equals(key) ? e.value : null;
+                } else if (node instanceof Collision) {
+                    for (Object child : ((Collision) node).children) {
+                        Entry e = (Entry) child;
+                        if (e.key.equals(key)) {
+                            return e.value;
+                        }
+                    }
+                    return null;
+                }
+                Branch b = (Branch) node;
+                int bit = 1 << ((hash >>> shift) & 31);
+                if ((b.bitmap & bit) == 0) {
+                    return null;
+                }
+                node = b.children[Integer.bitCount(b.bitmap & (bit - 1))];
+            }
+            return null;
+        }
+
+        static Object put(Object root, Object key, Object value, Edit edit) {
+            return put(root, 0, key.hashCode(), key, value, edit);
+        }
+
+        static Object remove(Object root, Object key, Edit edit) {
+            return remove(root, 0, key.hashCode(), key, edit);
+        }
+
+        private static Object put(Object node, int shift, int hash, Object key,
+                Object value, Edit edit) {
+            if (node == null) {
+                edit.changed = true;
+                return new Entry(hash, key, value);
+            } else if (node instanceof Entry) {
+                Entry e = (Entry) node;
+                if (e.hash == hash && e.key.equals(key)) {
+                    return e.value == value ? e : new Entry(hash, key, value);
+                }
+                edit.changed = true;
+                return pair(e, new Entry(hash, key, value), shift, edit);
+            } else if (node instanceof Collision) {
+                Collision c = (Collision) node;
+                Object[] entries = c.children;
+                for (int i = 0; i < entries.length; i++) {
+                    if (((Entry) entries[i]).key.equals(key)) {
+                        if (((Entry) entries[i]).value == value) {
+                            return c;
+                        }
+                        Object[] copy = entries.clone();
+                        copy[i] = new Entry(hash, key, value);
+                        return new Collision(edit, hash, copy);
+                    }
+                }
+                edit.changed = true;
+                Object[] copy = new Object[entries.length + 1];
+                System.arraycopy(entries, 0, copy, 0, entries.length);
+                copy[entries.length] = new Entry(hash, key, value);
+                return new Collision(edit, hash, copy);
+            }
+            Branch b = (Branch) node;
+            int bit = 1 << ((hash >>> shift) & 31);
+            int i = Integer.bitCount(b.bitmap & (bit - 1));
+            if ((b.bitmap & bit) == 0) {
+                edit.changed = true;
+                Object[] children = new Object[b.children.length + 1];
+                System.arraycopy(b.children, 0, children, 0, i);
+                children[i] = new Entry(hash, key, value);
+                System.arraycopy(b.children, i, children, i + 1,
+                        b.children.length - i);
+                if (b.ownedBy(edit)) {
+                    b.children = children;
+                    b.bitmap |= bit;
+                    return b;
+                }
+                return new Branch(edit, b.bitmap | bit, children);
+            }
+            Object child = b.children[i];
+            Object updated = put(child, shift + 5, hash, key, value, edit);
+            if (updated == child) {
+                return b;
+            }
+            Branch copy = b.editable(edit);
+            copy.children[i] = updated;
+            return copy;
+        }
+
+        private static Object remove(Object node, int shift, int hash,
+                Object key, Edit edit) {
+            if (node == null) {
+                return null;
+            } else if (node instanceof Entry) {
+                Entry e = (Entry) node;
+                if (e.hash == hash && e.key.equals(key)) {
+                    edit.changed = true;
+                    return null;
+                }
+                return e;
+            } else if (node instanceof Collision) {
+                Collision c = (Collision) node;
+                Object[] entries = c.children;
+                for (int i = 0; i < entries.length; i++) {
+                    if (((Entry) entries[i]).key.equals(key)) {
+                        edit.changed = true;
+                        if (entries.length == 2) {
+                            return entries[1 - i];
+                        }
+                        return new Collision(edit, hash, without(entries, i));
+                    }
+                }
+                return c;
+            }
+            Branch b = (Branch) node;
+            int bit = 1 << ((hash >>> shift) & 31);
+            if ((b.bitmap & bit) == 0) {
+                return b;
+            }
+            int i = Integer.bitCount(b.bitmap & (bit - 1));
+            Object child = b.children[i];
+            Object updated = remove(child, shift + 5, hash, key, edit);
+            if (updated == child) {
+                return b;
+            } else if (updated != null) {
+                if (b.children.length == 1 && updated instanceof Entry) {
+                    // Pull a lone entry up a level
+                    return updated;
+                }
+                Branch copy = b.editable(edit);
+                copy.children[i] = updated;
+                return copy;
+            } else if (b.children.length == 1) {
+                return null;
+            } else if (b.children.length == 2
+                    && b.children[1 - i] instanceof Entry) {
+                return b.children[1 - i];
+            }
+            Object[] children = without(b.children, i);
+            if (b.ownedBy(edit)) {
+                b.children = children;
+                b.bitmap &= ~bit;
+                return b;
+            }
+            return new Branch(edit, b.bitmap & ~bit, children);
+        }
+
+        /*
+         * The smallest subtree that holds two entries with different keys.
+         */
+        private static Object pair(Entry a, Entry b, int shift, Edit edit) {
+            if (shift > MAX_SHIFT) {
+                return new Collision(edit, a.hash, new Object[] { a, b });
+            }
+            int ia = (a.hash >>> shift) & 31;
+            int ib = (b.hash >>> shift) & 31;
+            if (ia == ib) {
+                return new Branch(edit, 1 << ia,
+                        new Object[] { pair(a, b, shift + 5, edit) });
+            }
+            return new Branch(edit, (1 << ia) | (1 << ib),
+                    ia < ib ? new Object[] { a, b } : new Object[] { b, a });
+        }
+
+        private static Object[] without(Object[] array, int i) {
+            Object[] copy = new Object[array.length - 1];
+            System.arraycopy(array, 0, copy, 0, i);
+            System.arraycopy(array, i + 1, copy, i, copy.length - i);
+            return copy;
+        }
+
+        /*
+         * Depth-first walk over the values of a trie.
+         */
+        static final class Values<V> implements Iterator<V> {
+
+            // Deep enough for every Branch level plus a Collision
+            private final Object[][] stack = new Object[MAX_SHIFT / 5 + 3][];
+            private final int[] positions = new int[stack.length];
+            private int depth = -1;
+            private Entry next;
+
+            Values(Object root) {
+                if (root instanceof Entry) {
+                    next = (Entry) root;
+                } else if (root != null) {
+                    push((Inner) root);
+                }
+            }
+
+            private void push(Inner node) {
+                depth++;
+                stack[depth] = node.children;
+                positions[depth] = 0;
+            }
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && depth >= 0) {
+                    if (positions[depth] == stack[depth].length) {
+                        depth--;
+                        continue;
+                    }
+                    Object child = stack[depth][positions[depth]++];
+                    if (child instanceof Entry) {
+                        next = (Entry) child;
+                    } else {
+                        push((Inner) child);
+                    }
+                }
+                return next != null;
+            }
+
+            @SuppressWarnings("unchecked")
+            @Override
+            public V next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Entry e = next;
+                next = null;
+                return (V) e.value;
+            }
+        }
+    }
+}
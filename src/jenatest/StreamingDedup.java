@@ -0,0 +1,357 @@
+package jenatest;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.out.NodeFmtLib;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.riot.tokens.Tokenizer;
+import org.apache.jena.riot.tokens.TokenizerFactory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/*
+ * Removes duplicate triples from an RDF file without loading it into a Model.
+ * Triples are streamed from the RIOT parser as N-Triples lines into a compact
+ * hash set. When the set exceeds the memory budget it is sorted and spilled
+ * to a run file; the runs are then k-way merged into the output, dropping
+ * equal adjacent lines. The output is sorted N-Triples, or the same triples
+ * in the same order in the syntax the output file is named for (see
+ * RdfFiles): RDF Thrift for .trdf, or Turtle for .ttl, one statement per
+ * subject with the input's prefixes.
+ */
+public class StreamingDedup {
+
+    private static final Logger LOGGER =
+            LogManager.getLogger(StreamingDedup.class);
+
+    public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+    // Rough per-line cost on the heap: String + char[] headers plus the
+    // hash set slots.
+    private static final int LINE_OVERHEAD = 64;
+
+    private final long memoryBudget;
+    private final File tmpDir;
+
+    private long triplesRead;
+    private long triplesWritten;
+    private int runCount;
+
+    public StreamingDedup() {
+        this(DEFAULT_MEMORY_BUDGET, null);
+    }
+
+    public StreamingDedup(long memoryBudget, File tmpDir) {
+        this.memoryBudget = memoryBudget;
+        this.tmpDir = tmpDir;
+    }
+
+    /*
+     * Reads infile (any RIOT syntax, including RDF Thrift) and writes its
+     * distinct triples, sorted, to outfile (see RdfFiles). Returns the
+     * number of triples written.
+     */
+    public long dedup(String infile, String outfile) throws IOException {
+        try (OutputStream out = RdfFiles.create(outfile)) {
+            return dedup(infile, out, RdfFiles.lang(outfile));
+        }
+    }
+
+    /*
+     * As dedup(infile, outfile), writing to out in the given syntax. out is
+     * flushed but not closed.
+     */
+    public long dedup(String infile, OutputStream outStream, Lang lang)
+            throws IOException {
+
+        triplesRead = 0;
+        triplesWritten = 0;
+        runCount = 0;
+
+        List<File> runs = new ArrayList<File>();
+        DedupSink sink = new DedupSink(runs);
+        try {
+            RdfFiles.parse(infile, sink);
+
+            try (Output out = new Output(outStream, lang, sink.prefixes)) {
+                if (runs.isEmpty()) {
+                    // Everything fit in memory: no merge needed.
+                    for (String line : sink.set.sorted()) {
+                        out.write(line);
+                    }
+                } else {
+                    sink.spill();
+                    merge(runs, out);
+                }
+            }
+        } finally {
+            for (File run : runs) {
+                run.delete();
+            }
+        }
+
+        LOGGER.info("Deduplicated " + infile + ": " + triplesRead
+                + " triples read, " + triplesWritten + " written, "
+                + runCount + " runs spilled");
+        return triplesWritten;
+    }
+
+    public long getTriplesRead() {
+        return triplesRead;
+    }
+
+    public long getTriplesWritten() {
+        return triplesWritten;
+    }
+
+    public int getRunCount() {
+        return runCount;
+    }
+
+    private void merge(List<File> runs, Output out) throws IOException {
+
+        PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>();
+        try {
+            for (File run : runs) {
+                RunReader reader = new RunReader(run);
+                if (reader.advance()) {
+                    queue.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+            String last = null;
+            while (!queue.isEmpty()) {
+                RunReader reader = queue.poll();
+                if (!reader.current.equals(last)) {
+                    last = reader.current;
+                    out.write(last);
+                }
+                if (reader.advance()) {
+                    queue.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+        } finally {
+            for (RunReader reader : queue) {
+                reader.close();
+            }
+        }
+    }
+
+    /*
+     * Where the distinct lines go: straight out as N-Triples text, or turned
+     * back into triples for the file's streaming writer.
+     */
+    private class Output implements Closeable {
+
+        private final OutputStream stream;
+        private final Writer text;
+        private final StreamRDF triples;
+
+        Output(OutputStream stream, Lang lang, Map<String, String> prefixes) {
+            this.stream = stream;
+            if (lang == Lang.NTRIPLES) {
+                text = new OutputStreamWriter(stream, StandardCharsets.UTF_8);
+                triples = null;
+            } else {
+                text = null;
+                triples = RdfFiles.writer(stream, lang);
+                triples.start();
+                prefixes.forEach(triples::prefix);
+            }
+        }
+
+        void write(String line) throws IOException {
+            if (text != null) {
+                text.write(line);
+                text.write(" .\n");
+            } else {
+                Tokenizer tokenizer = TokenizerFactory.makeTokenizerString(line);
+                triples.triple(Triple.create(tokenizer.next().asNode(),
+                        tokenizer.next().asNode(), tokenizer.next().asNode()));
+            }
+            triplesWritten++;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (text != null) {
+                text.flush();
+            } else {
+                triples.finish();
+            }
+            stream.flush();
+        }
+    }
+
+    private class DedupSink extends StreamRDFBase {
+
+        private final List<File> runs;
+        private final Map<String, String> prefixes =
+                new LinkedHashMap<String, String>();
+        private LineSet set = new LineSet();
+        private long bytes;
+
+        DedupSink(List<File> runs) {
+            this.runs = runs;
+        }
+
+        @Override
+        public void prefix(String prefix, String iri) {
+            prefixes.put(prefix, iri);
+        }
+
+        @Override
+        public void triple(Triple triple) {
+            triplesRead++;
+            String line = NodeFmtLib.str(triple);
+            if (set.add(line)) {
+                bytes += 2L * line.length() + LINE_OVERHEAD;
+                if (bytes > memoryBudget) {
+                    try {
+                        spill();
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }
+        }
+
+        void spill() throws IOException {
+            if (set.size() == 0) {
+                return;
+            }
+            File run = File.createTempFile("dedup-run-", ".nt", tmpDir);
+            runs.add(run);
+            runCount++;
+            try (BufferedWriter out = Files.newBufferedWriter(
+                    run.toPath(), StandardCharsets.UTF_8)) {
+                for (String line : set.sorted()) {
+                    out.write(line);
+                    out.write('\n');
+                }
+            }
+            set = new LineSet();
+            bytes = 0;
+        }
+    }
+
+    private static class RunReader implements Comparable<RunReader> {
+
+        private final BufferedReader reader;
+        private String current;
+
+        RunReader(File run) throws IOException {
+            reader = Files.newBufferedReader(
+                    run.toPath(), StandardCharsets.UTF_8);
+        }
+
+        boolean advance() throws IOException {
+            current = reader.readLine();
+            return current != null;
+        }
+
+        void close() throws IOException {
+            reader.close();
+        }
+
+        @Override
+        public int compareTo(RunReader other) {
+            return current.compareTo(other.current);
+        }
+    }
+
+    /*
+     * Open-addressing hash set of strings. Slots hold an int index into a
+     * flat array of lines plus the cached hash, so there is no per-entry
+     * node object as there would be in a java.util.HashSet.
+     */
+    static class LineSet {
+
+        private String[] lines = new String[1024];
+        private int[] slots = new int[2048];
+        private int[] hashes = new int[2048];
+        private int size;
+
+        LineSet() {
+            Arrays.fill(slots, -1);
+        }
+
+        int size() {
+            return size;
+        }
+
+        boolean add(String line) {
+            int hash = mix(line.hashCode());
+            int mask = slots.length - 1;
+            int i = hash & mask;
+            while (slots[i] != -1) {
+                if (hashes[i] == hash && lines[slots[i]].equals(line)) {
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+            if (size == lines.length) {
+                lines = Arrays.copyOf(lines, size * 2);
+            }
+            lines[size] = line;
+            slots[i] = size;
+            hashes[i] = hash;
+            size++;
+            if (size * 2 > slots.length) {
+                rehash();
+            }
+            return true;
+        }
+
+        String[] sorted() {
+            String[] sorted = Arrays.copyOf(lines, size);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+
+        private void rehash() {
+            int[] newSlots = new int[slots.length * 2];
+            int[] newHashes = new int[newSlots.length];
+            Arrays.fill(newSlots, -1);
+            int mask = newSlots.length - 1;
+            for (int j = 0; j < slots.length; j++) {
+                if (slots[j] != -1) {
+                    int i = hashes[j] & mask;
+                    while (newSlots[i] != -1) {
+                        i = (i + 1) & mask;
+                    }
+                    newSlots[i] = slots[j];
+                    newHashes[i] = hashes[j];
+                }
+            }
+            slots = newSlots;
+            hashes = newHashes;
+        }
+
+        private static int mix(int h) {
+            h *= 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package jenatest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.sparql.graph.GraphFactory;
+
+/*
+ * Generates BIBFRAME-shaped test graphs by stamping out numbered copies of a
+ * seed record such as rdf/data/102063.nt. Every IRI that starts with the seed
+ * record IRI (the work itself and its title, person, topic... nodes) is
+ * rewritten to a per-copy IRI; vocabulary and authority IRIs are shared by
+ * all copies, as they would be in a real catalog.
+ */
+public class SyntheticData {
+
+    public static final String DEFAULT_SEED = "rdf/data/102063.nt";
+    public static final String DEFAULT_RECORD =
+            "http://draft.ld4l.org/cornell/102063";
+    public static final String RECORD_PREFIX =
+            "http://draft.ld4l.org/cornell/synth";
+
+    private final List<Triple> seed;
+    private final String seedRecord;
+
+    public SyntheticData() {
+        this(DEFAULT_SEED, DEFAULT_RECORD);
+    }
+
+    public SyntheticData(String seedFile, String seedRecord) {
+        Model model = ModelFactory.createDefaultModel();
+        RDFDataMgr.read(model, seedFile);
+        this.seed = model.getGraph().find(Node.ANY, Node.ANY, Node.ANY).toList();
+        this.seedRecord = seedRecord;
+    }
+
+    public int getTriplesPerRecord() {
+        return seed.size();
+    }
+
+    /*
+     * IRI of the i-th generated record.
+     */
+    public static String recordIri(int i) {
+        return RECORD_PREFIX + i;
+    }
+
+    /*
+     * Graph with enough copies of the seed record to hold at least the
+     * requested number of triples.
+     */
+    public Graph generateTriples(long triples) {
+        return generate((int) ((triples + seed.size() - 1) / seed.size()));
+    }
+
+    public Graph generate(int records) {
+        Graph graph = GraphFactory.createDefaultGraph();
+        for (int i = 0; i < records; i++) {
+            addRecord(graph, i);
+        }
+        return graph;
+    }
+
+    public void addRecord(Graph graph, int i) {
+        String record = recordIri(i);
+        for (Triple t : seed) {
+            graph.add(Triple.create(rename(t.getSubject(), record),
+                    t.getPredicate(), rename(t.getObject(), record)));
+        }
+    }
+
+    public List<String> recordIris(int records) {
+        List<String> iris = new ArrayList<String>(records);
+        for (int i = 0; i < records; i++) {
+            iris.add(recordIri(i));
+        }
+        return iris;
+    }
+
+    private Node rename(Node node, String record) {
+        if (node.isURI() && node.getURI().startsWith(seedRecord)) {
+            return NodeFactory.createURI(
+                    record + node.getURI().substring(seedRecord.length()));
+        }
+        return node;
+    }
+}
@@ -0,0 +1,157 @@
+package jenatest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.GraphListener;
+import org.apache.jena.graph.Triple;
+
+/*
+ * Graph listener for keeping a derived structure in step with a graph.
+ *
+ * Jena notifies listeners of every add and delete call, including adding a
+ * triple that is already there or deleting one that isn't. This adapter
+ * compares the graph's size before and after each event and only passes on
+ * changes that really happened: tripleAdded() / tripleDeleted() for each
+ * triple when it can tell, and resync() when it can't (a bulk change that
+ * was partly a no-op). It assumes a single writer.
+ */
+public abstract class TripleChangeListener implements GraphListener {
+
+    private long size;
+
+    /*
+     * Registers the listener with the graph and calls resync() to build the
+     * initial state.
+     */
+    public void attach(Graph graph) {
+        size = graph.size();
+        resync(graph);
+        graph.getEventManager().register(this);
+    }
+
+    public void detach(Graph graph) {
+        graph.getEventManager().unregister(this);
+    }
+
+    protected abstract void tripleAdded(Triple t);
+
+    protected abstract void tripleDeleted(Triple t);
+
+    /*
+     * Rebuild everything from the graph's current contents.
+     */
+    protected abstract void resync(Graph graph);
+
+    @Override
+    public void notifyAddTriple(Graph g, Triple t) {
+        long before = size;
+        size = g.size();
+        if (size == before + 1) {
+            tripleAdded(t);
+        } else if (size != before) {
+            resync(g);
+        }
+    }
+
+    @Override
+    public void notifyAddArray(Graph g, Triple[] triples) {
+        added(g, Arrays.asList(triples));
+    }
+
+    @Override
+    public void notifyAddList(Graph g, List<Triple> triples) {
+        added(g, triples);
+    }
+
+    @Override
+    public void notifyAddIterator(Graph g, Iterator<Triple> it) {
+        added(g, toList(it));
+    }
+
+    @Override
+    public void notifyAddGraph(Graph g, Graph added) {
+        added(g, added.find(null, null, null).toList());
+    }
+
+    @Override
+    public void notifyDeleteTriple(Graph g, Triple t) {
+        long before = size;
+        size = g.size();
+        if (size == before - 1) {
+            tripleDeleted(t);
+        } else if (size != before) {
+            resync(g);
+        }
+    }
+
+    @Override
+    public void notifyDeleteList(Graph g, List<Triple> triples) {
+        deleted(g, triples);
+    }
+
+    @Override
+    public void notifyDeleteArray(Graph g, Triple[] triples) {
+        deleted(g, Arrays.asList(triples));
+    }
+
+    @Override
+    public void notifyDeleteIterator(Graph g, Iterator<Triple> it) {
+        deleted(g, toList(it));
+    }
+
+    @Override
+    public void notifyDeleteGraph(Graph g, Graph removed) {
+        deleted(g, removed.find(null, null, null).toList());
+    }
+
+    @Override
+    public void notifyEvent(Graph source, Object value) {
+        // removeAll() and remove(s, p, o) arrive as events rather than
+        // per-triple notifications. Other events (start/finish read...)
+        // leave the size alone and can be ignored.
+        long before = size;
+        size = source.size();
+        if (size != before) {
+            resync(source);
+        }
+    }
+
+    /*
+     * If the size went up by exactly the number of triples, every one of
+     * them was new (and they were all distinct); otherwise some were no-ops
+     * and we can't tell which.
+     */
+    private void added(Graph g, List<Triple> triples) {
+        long before = size;
+        size = g.size();
+        if (size - before == triples.size()) {
+            for (Triple t : triples) {
+                tripleAdded(t);
+            }
+        } else if (size != before) {
+            resync(g);
+        }
+    }
+
+    private void deleted(Graph g, List<Triple> triples) {
+        long before = size;
+        size = g.size();
+        if (before - size == triples.size()) {
+            for (Triple t : triples) {
+                tripleDeleted(t);
+            }
+        } else if (size != before) {
+            resync(g);
+        }
+    }
+
+    private static List<Triple> toList(Iterator<Triple> it) {
+        List<Triple> list = new ArrayList<Triple>();
+        it.forEachRemaining(list::add);
+        return list;
+    }
+}
@@ -0,0 +1,307 @@
+package jenatest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.apache.jena.JenaRuntime;
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.out.NodeFmtLib;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.vocabulary.RDF;
+
+/*
+ * Writes a stream of triples as Turtle as they come, holding only the
+ * subject and predicate being written, so a graph of any size can be
+ * written as compactly as RDFFormat.TURTLE would without being in memory.
+ *
+ * Consecutive triples with the same subject are one statement, joined with
+ * ';', and with the same predicate too, with ','. A subject-sorted stream
+ * - StreamingDedup's output, or a graph's find() - becomes one statement
+ * per subject; any other order is still correct Turtle, only longer. IRIs
+ * in a known namespace are written as prefixed names, rdf:type as 'a',
+ * and integers, decimals, doubles and booleans bare. Prefixes are those
+ * given to the constructor and any prefix() calls; one that comes after
+ * the first triple is declared before the next statement.
+ *
+ * Blank nodes are written with labels unless inline is on. Then the
+ * stream must be depth first: a blank node that is an object is used once,
+ * with its triples straight after that one, and a blank subject that
+ * arrives any other way is used nowhere else. Those are written as
+ * [ ... ] and [] ... , nested where they are used. That is the order
+ * of data walked from its records, not of sorted N-Triples, where blank
+ * subjects come after every IRI; and it isn't checked, because checking
+ * would take memory for every blank node.
+ *
+ * The caller calls start() and finish() and closes the output stream.
+ */
+public class TurtleStreamWriter implements StreamRDF {
+
+    private static final String INDENT = "    ";
+    private static final Pattern INTEGER = Pattern.compile("[+-]?[0-9]+");
+    private static final Pattern DECIMAL = Pattern.compile("[+-]?[0-9]*\\.[0-9]+");
+    private static final Pattern DOUBLE = Pattern.compile(
+            "[+-]?([0-9]+(\\.[0-9]*)?|\\.[0-9]+)[eE][+-]?[0-9]+");
+    private static final Pattern LOCAL_NAME = Pattern.compile(
+            "([A-Za-z0-9_]([A-Za-z0-9_.-]*[A-Za-z0-9_-])?)?");
+
+    private final Writer out;
+    private final boolean inline;
+    // Namespace to prefix
+    private final Map<String, String> namespaces = new HashMap<String, String>();
+    private final Map<String, String> undeclared = new LinkedHashMap<String, String>();
+    // The statement being written, outermost last; nested blank nodes on top
+    private final Deque<Frame> frames = new ArrayDeque<Frame>();
+    // A triple with a blank object, held to see whether its triples follow
+    private Triple pending;
+
+    public TurtleStreamWriter(OutputStream out) {
+        this(out, new HashMap<String, String>(), false);
+    }
+
+    /*
+     * prefixes maps prefix to namespace, as Model.getNsPrefixMap() does.
+     */
+    public TurtleStreamWriter(OutputStream out, Map<String, String> prefixes,
+            boolean inline) {
+        this.out = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        this.inline = inline;
+        undeclared.putAll(prefixes);
+    }
+
+    @Override
+    public void start() {
+        declarePrefixes();
+    }
+
+    @Override
+    public void base(String base) {
+        // IRIs are written in full or prefixed, never relative.
+    }
+
+    @Override
+    public void prefix(String prefix, String iri) {
+        undeclared.put(prefix, iri);
+        if (frames.isEmpty() && pending == null) {
+            declarePrefixes();
+        }
+    }
+
+    @Override
+    public void quad(Quad quad) {
+        if (!quad.isTriple() && !quad.isDefaultGraph()) {
+            throw new IllegalArgumentException("Turtle has no named graphs: "
+                    + quad);
+        }
+        triple(quad.asTriple());
+    }
+
+    @Override
+    public void triple(Triple triple) {
+        if (pending != null) {
+            Triple held = pending;
+            pending = null;
+            position(held.getSubject(), held.getPredicate());
+            if (triple.getSubject().equals(held.getObject())) {
+                write(" [");
+                frames.push(new Frame(held.getObject(), true));
+            } else {
+                write(" ");
+                write(node(held.getObject()));
+            }
+        }
+        if (inline && triple.getObject().isBlank()) {
+            pending = triple;
+            return;
+        }
+        position(triple.getSubject(), triple.getPredicate());
+        write(" ");
+        write(node(triple.getObject()));
+    }
+
+    @Override
+    public void finish() {
+        if (pending != null) {
+            Triple held = pending;
+            pending = null;
+            position(held.getSubject(), held.getPredicate());
+            write(" ");
+            write(node(held.getObject()));
+        }
+        endStatement();
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /*
+     * Leaves the output where the next object of subject and predicate
+     * goes: after a ',', after the predicate following a ';', or after the
+     * predicate of a new statement.
+     */
+    private void position(Node subject, Node predicate) {
+        while (!frames.isEmpty() && frames.peek().nested
+                && !frames.peek().subject.equals(subject)) {
+            frames.pop();
+            write("\n" + indent(frames.size()) + "]");
+        }
+        Frame frame = frames.peek();
+        if (frame == null || !frame.subject.equals(subject)) {
+            endStatement();
+            declarePrefixes();
+            frame = new Frame(subject, false);
+            frames.push(frame);
+            write(subject.isBlank() && inline ? "[]" : node(subject));
+            write(" ");
+        } else if (frame.predicate == null) {
+            write("\n" + indent(frames.size()));
+        } else if (frame.predicate.equals(predicate)) {
+            write(" ,");
+            return;
+        } else {
+            write(" ;\n" + indent(frames.size()));
+        }
+        frame.predicate = predicate;
+        write(predicate.equals(RDF.type.asNode()) ? "a" : node(predicate));
+    }
+
+    private void endStatement() {
+        while (frames.size() > 1) {
+            frames.pop();
+            write("\n" + indent(frames.size()) + "]");
+        }
+        if (!frames.isEmpty()) {
+            frames.pop();
+            write(" .\n");
+        }
+    }
+
+    private void declarePrefixes() {
+        if (undeclared.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<String, String> prefix : undeclared.entrySet()) {
+            // A prefix bound again no longer stands for its old namespace.
+            namespaces.values().removeIf(prefix.getKey()::equals);
+            namespaces.put(prefix.getValue(), prefix.getKey());
+            write("@prefix " + prefix.getKey() + ": <" + prefix.getValue()
+                    + "> .\n");
+        }
+        undeclared.clear();
+        write("\n");
+    }
+
+    private static String indent(int depth) {
+        StringBuilder indent = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            indent.append(INDENT);
+        }
+        return indent.toString();
+    }
+
+    private String node(Node node) {
+        if (node.isURI()) {
+            return iri(node.getURI());
+        } else if (node.isBlank()) {
+            return "_:" + NodeFmtLib.encodeBNodeLabel(node.getBlankNodeLabel());
+        } else if (node.isLiteral()) {
+            return literal(node);
+        }
+        throw new IllegalArgumentException("Not an RDF term: " + node);
+    }
+
+    /*
+     * The IRI as a prefixed name if its namespace - up to the last '#' or
+     * '/' - has a prefix and the rest is a local name, otherwise in full.
+     */
+    private String iri(String iri) {
+        int split = Math.max(iri.lastIndexOf('#'), iri.lastIndexOf('/')) + 1;
+        String prefix = namespaces.get(iri.substring(0, split));
+        if (prefix != null) {
+            String local = iri.substring(split);
+            if (LOCAL_NAME.matcher(local).matches()) {
+                return prefix + ":" + local;
+            }
+        }
+        return "<" + iri + ">";
+    }
+
+    private String literal(Node node) {
+        String lexical = node.getLiteralLexicalForm();
+        String language = node.getLiteralLanguage();
+        if (language != null && !language.isEmpty()) {
+            return quote(lexical) + "@" + language;
+        }
+        String datatype = node.getLiteralDatatypeURI();
+        if (datatype == null || (JenaRuntime.isRDF11
+                && datatype.equals(XSDDatatype.XSDstring.getURI()))) {
+            return quote(lexical);
+        }
+        if ((datatype.equals(XSDDatatype.XSDinteger.getURI())
+                && INTEGER.matcher(lexical).matches())
+                || (datatype.equals(XSDDatatype.XSDdecimal.getURI())
+                        && DECIMAL.matcher(lexical).matches())
+                || (datatype.equals(XSDDatatype.XSDdouble.getURI())
+                        && DOUBLE.matcher(lexical).matches())
+                || (datatype.equals(XSDDatatype.XSDboolean.getURI())
+                        && (lexical.equals("true") || lexical.equals("false")))) {
+            return lexical;
+        }
+        return quote(lexical) + "^^" + iri(datatype);
+    }
+
+    private static String quote(String lexical) {
+        StringBuilder quoted = new StringBuilder(lexical.length() + 2);
+        quoted.append('"');
+        for (int i = 0; i < lexical.length(); i++) {
+            char c = lexical.charAt(i);
+            switch (c) {
+            case '"': quoted.append("\\\""); break;
+            case '\\': quoted.append("\\\\"); break;
+            case '\n': quoted.append("\\n"); break;
+            case '\r': quoted.append("\\r"); break;
+            case '\t': quoted.append("\\t"); break;
+            default: quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    private void write(String text) {
+        try {
+            out.write(text);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /*
+     * A subject whose statement, or nested [ ... ], is open, and the
+     * predicate last written for it.
+     */
+    private static class Frame {
+
+        final Node subject;
+        final boolean nested;
+        Node predicate;
+
+        Frame(Node subject, boolean nested) {
+            this.subject = subject;
+            this.nested = nested;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package jenatest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFWrapper;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/*
+ * Renames and deletes IRIs in one pass over the data, driven by a mapping
+ * table. A renamed IRI is rewritten wherever it occurs - subject, predicate
+ * or object - so unlike ResourceUtils.renameResource this also works for
+ * properties. A triple that mentions a deleted IRI in any position is
+ * dropped, which covers removeAll(null, prop, null) and
+ * removeAll(null, null, cls) in one go.
+ *
+ * Mapping files have one entry per line: "oldIRI newIRI" to rename, or just
+ * "oldIRI" to delete. Blank lines and lines starting with '#' are ignored.
+ */
+public class VocabularyMigration {
+
+    private static final Logger LOGGER =
+            LogManager.getLogger(VocabularyMigration.class);
+
+    private final Map<Node, Integer> index = new HashMap<Node, Integer>();
+    private final List<Node> sources = new ArrayList<Node>();
+    // Target of each mapping; null means delete.
+    private final List<Node> targets = new ArrayList<Node>();
+    private long[] hits = new long[0];
+
+    public VocabularyMigration rename(String oldIri, String newIri) {
+        return put(NodeFactory.createURI(oldIri), NodeFactory.createURI(newIri));
+    }
+
+    public VocabularyMigration delete(String iri) {
+        return put(NodeFactory.createURI(iri), null);
+    }
+
+    public static VocabularyMigration fromFile(String mappingFile)
+            throws IOException {
+        VocabularyMigration migration = new VocabularyMigration();
+        try (BufferedReader reader = Files.newBufferedReader(
+                Paths.get(mappingFile), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                if (fields.length == 1) {
+                    migration.delete(stripBrackets(fields[0]));
+                } else {
+                    migration.rename(stripBrackets(fields[0]),
+                            stripBrackets(fields[1]));
+                }
+            }
+        }
+        return migration;
+    }
+
+    /*
+     * Rewrites the model in place. Only the triples that change are held in
+     * memory. Returns the number of triples removed or rewritten.
+     */
+    public long apply(Model model) {
+        return apply(model.getGraph());
+    }
+
+    public long apply(Graph graph) {
+
+        List<Triple> removed = new ArrayList<Triple>();
+        List<Triple> added = new ArrayList<Triple>();
+        ExtendedIterator<Triple> it = graph.find(Node.ANY, Node.ANY, Node.ANY);
+        try {
+            while (it.hasNext()) {
+                Triple t = it.next();
+                Triple rewritten = rewrite(t);
+                if (rewritten != t) {
+                    removed.add(t);
+                    if (rewritten != null) {
+                        added.add(rewritten);
+                    }
+                }
+            }
+        } finally {
+            it.close();
+        }
+        for (Triple t : removed) {
+            graph.delete(t);
+        }
+        for (Triple t : added) {
+            graph.add(t);
+        }
+        logHits();
+        return removed.size();
+    }
+
+    /*
+     * Streams infile (any RIOT syntax) to outfile, rewriting triples on the
+     * way through. outfile is N-Triples unless its name says otherwise (see
+     * RdfFiles). Returns the number of triples written.
+     */
+    public long apply(String infile, String outfile) throws IOException {
+        try (OutputStream out = RdfFiles.create(outfile)) {
+            return apply(infile, out, RdfFiles.lang(outfile));
+        }
+    }
+
+    /*
+     * As apply(infile, outfile), writing to out in the given syntax. out is
+     * flushed but not closed.
+     */
+    public long apply(String infile, OutputStream out, Lang lang)
+            throws IOException {
+
+        long[] written = new long[1];
+        StreamRDF writer = RdfFiles.writer(out, lang);
+        StreamRDF sink = new StreamRDFWrapper(writer) {
+            @Override
+            public void triple(Triple triple) {
+                Triple rewritten = rewrite(triple);
+                if (rewritten != null) {
+                    written[0]++;
+                    super.triple(rewritten);
+                }
+            }
+        };
+        sink.start();
+        RdfFiles.parse(infile, sink);
+        sink.finish();
+        out.flush();
+        logHits();
+        return written[0];
+    }
+
+    /*
+     * Returns the triple with mapped IRIs replaced, the same triple if
+     * nothing maps, or null if it should be dropped.
+     */
+    public Triple rewrite(Triple t) {
+        Node s = map(t.getSubject());
+        Node p = map(t.getPredicate());
+        Node o = map(t.getObject());
+        if (s == null || p == null || o == null) {
+            return null;
+        }
+        if (s == t.getSubject() && p == t.getPredicate() && o == t.getObject()) {
+            return t;
+        }
+        return Triple.create(s, p, o);
+    }
+
+    /*
+     * Number of term occurrences each mapping has rewritten or dropped,
+     * keyed by the source IRI.
+     */
+    public Map<String, Long> getHitCounts() {
+        Map<String, Long> counts = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < sources.size(); i++) {
+            counts.put(sources.get(i).getURI(), hits[i]);
+        }
+        return counts;
+    }
+
+    public void resetHitCounts() {
+        hits = new long[sources.size()];
+    }
+
+    private Node map(Node node) {
+        if (!node.isURI()) {
+            return node;
+        }
+        Integer i = index.get(node);
+        if (i == null) {
+            return node;
+        }
+        hits[i]++;
+        return targets.get(i);
+    }
+
+    private VocabularyMigration put(Node source, Node target) {
+        Integer i = index.get(source);
+        if (i == null) {
+            index.put(source, sources.size());
+            sources.add(source);
+            targets.add(target);
+            hits = Arrays.copyOf(hits, sources.size());
+        } else {
+            targets.set(i, target);
+        }
+        return this;
+    }
+
+    private void logHits() {
+        for (int i = 0; i < sources.size(); i++) {
+            LOGGER.debug(sources.get(i).getURI() + " -> "
+                    + (targets.get(i) == null ? "(deleted)"
+                            : targets.get(i).getURI())
+                    + ": " + hits[i]);
+        }
+    }
+
+    private static String stripBrackets(String iri) {
+        if (iri.startsWith("<") && iri.endsWith(">")) {
+            return iri.substring(1, iri.length() - 1);
+        }
+        return iri;
+    }
+}